@@ -0,0 +1,149 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Table;
+
+// Reads and writes every field of a 30 column entity through Field.get/set and through the cached accessors.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessorBenchmark {
+
+	@Table(name = "wide")
+	public static class Wide extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "i1") private Integer i1;
+		@Column(name = "i2") private Integer i2;
+		@Column(name = "i3") private Integer i3;
+		@Column(name = "i4") private Integer i4;
+		@Column(name = "i5") private Integer i5;
+		@Column(name = "i6") private Integer i6;
+		@Column(name = "i7") private Integer i7;
+		@Column(name = "i8") private Integer i8;
+		@Column(name = "i9") private Integer i9;
+
+		@Column(name = "s0") private String s0;
+		@Column(name = "s1") private String s1;
+		@Column(name = "s2") private String s2;
+		@Column(name = "s3") private String s3;
+		@Column(name = "s4") private String s4;
+		@Column(name = "s5") private String s5;
+		@Column(name = "s6") private String s6;
+		@Column(name = "s7") private String s7;
+		@Column(name = "s8") private String s8;
+		@Column(name = "s9") private String s9;
+
+		@Column(name = "l0") private Long l0;
+		@Column(name = "l1") private Long l1;
+		@Column(name = "l2") private Long l2;
+		@Column(name = "l3") private Long l3;
+		@Column(name = "l4") private Long l4;
+		@Column(name = "l5") private Long l5;
+		@Column(name = "l6") private Long l6;
+		@Column(name = "l7") private Long l7;
+		@Column(name = "l8") private Long l8;
+		@Column(name = "l9") private Long l9;
+	}
+
+	private Wide entity;
+
+	private Field[] fields;
+
+	private EntityAccessor[] accessors;
+
+	private Object[] values;
+
+	@Setup
+	public void setUp() {
+		EntityField[] columns = EntityMetadata.getMetadata(Wide.class).getFields();
+
+		fields = new Field[columns.length];
+		accessors = new EntityAccessor[columns.length];
+		values = new Object[columns.length];
+
+		for (int i = 0; i < columns.length; i++) {
+			fields[i] = columns[i].getField();
+			fields[i].setAccessible(true);
+			accessors[i] = columns[i].getAccessor();
+
+			Class<?> type = columns[i].getType();
+			values[i] = type == Integer.class ? Integer.valueOf(i) : type == Long.class ? Long.valueOf(i) : "value" + i;
+		}
+
+		entity = new Wide();
+		for (int i = 0; i < accessors.length; i++) {
+			accessors[i].set(entity, values[i]);
+		}
+	}
+
+	@Benchmark
+	public void reflectiveGet(Blackhole blackhole) throws IllegalAccessException {
+		for (int i = 0; i < fields.length; i++) {
+			blackhole.consume(fields[i].get(entity));
+		}
+	}
+
+	@Benchmark
+	public void accessorGet(Blackhole blackhole) {
+		for (int i = 0; i < accessors.length; i++) {
+			blackhole.consume(accessors[i].get(entity));
+		}
+	}
+
+	@Benchmark
+	public Object reflectiveSet() throws IllegalAccessException {
+		for (int i = 0; i < fields.length; i++) {
+			fields[i].set(entity, values[i]);
+		}
+		return entity;
+	}
+
+	@Benchmark
+	public Object accessorSet() {
+		for (int i = 0; i < accessors.length; i++) {
+			accessors[i].set(entity, values[i]);
+		}
+		return entity;
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Schema statements of the benchmarks, run on the embedded database configured in jsmartdb.xml.
+/*package*/ final class BenchmarkDatabase {
+
+	private BenchmarkDatabase() {
+		// DO NOTHING
+	}
+
+	/*package*/ static void execute(final String ... sqls) {
+		Connection connection = ConnectionFactory.getConnection();
+		boolean rollbackChanges = true;
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				for (String sql : sqls) {
+					statement.execute(sql);
+				}
+			} finally {
+				statement.close();
+			}
+			rollbackChanges = false;
+
+		} catch (SQLException ex) {
+			throw new RuntimeException(ex.getMessage());
+
+		} finally {
+			ConnectionFactory.putConnection(connection, rollbackChanges);
+		}
+	}
+
+}
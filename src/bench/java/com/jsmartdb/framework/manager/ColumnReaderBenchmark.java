@@ -0,0 +1,181 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Table;
+
+// Maps rows of primitive and object columns through boxed values set on the accessors and through the primitive reader paths.
+// Run through main so the GC profiler reports the allocation rate per row.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnReaderBenchmark {
+
+	private static final int ROWS = 1000;
+
+	@Table(name = "reading")
+	public static class Reading extends Entity {
+
+		@Id(name = "id")
+		private int id;
+
+		@Column(name = "count")
+		private int count;
+
+		@Column(name = "total")
+		private long total;
+
+		@Column(name = "ratio")
+		private double ratio;
+
+		@Column(name = "active")
+		private boolean active;
+
+		@Column(name = "weight")
+		private float weight;
+
+		@Column(name = "level")
+		private short level;
+
+		@Column(name = "flag")
+		private byte flag;
+
+		@Column(name = "name")
+		private String name;
+
+		@Column(name = "amount")
+		private BigDecimal amount;
+
+		@Column(name = "created")
+		private Timestamp created;
+	}
+
+	private EntityField[] fields;
+
+	private Connection connection;
+
+	private PreparedStatement statement;
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ColumnReaderBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+	}
+
+	@Setup
+	public void setUp() throws SQLException {
+		BenchmarkDatabase.execute("drop table reading if exists", "create table reading (id int primary key, count int, total bigint, " 
+				+ "ratio double, active boolean, weight real, level smallint, flag tinyint, name varchar(40), amount decimal(12,2), created timestamp)");
+
+		fields = EntityMetadata.getMetadata(Reading.class).getFields();
+
+		StringBuilder columns = new StringBuilder();
+		for (EntityField field : fields) {
+			columns.append(columns.length() > 0 ? "," : "").append(field.getColumnName());
+		}
+
+		connection = ConnectionFactory.getConnection();
+
+		PreparedStatement insert = connection.prepareStatement("insert into reading (" + columns + ") values (?,?,?,?,?,?,?,?,?,?,?)");
+		for (int i = 0; i < ROWS; i++) {
+			insert.setInt(1, i);
+			insert.setInt(2, i);
+			insert.setLong(3, i * 1000L);
+			insert.setDouble(4, i / 3d);
+			insert.setBoolean(5, i % 2 == 0);
+			insert.setFloat(6, i / 7f);
+			insert.setShort(7, (short) (i % 100));
+			insert.setByte(8, (byte) (i % 10));
+			insert.setString(9, "reading" + i);
+			insert.setBigDecimal(10, BigDecimal.valueOf(i, 2));
+			insert.setTimestamp(11, new Timestamp(i * 1000L));
+			insert.addBatch();
+		}
+		insert.executeBatch();
+		insert.close();
+		connection.commit();
+
+		statement = connection.prepareStatement("select " + columns + " from reading");
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		statement.close();
+		ConnectionFactory.putConnection(connection, false);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public Object boxedRows() throws SQLException {
+		Reading reading = null;
+		ResultSet rs = statement.executeQuery();
+		while (rs.next()) {
+			reading = new Reading();
+			for (int i = 0; i < fields.length; i++) {
+				fields[i].getAccessor().set(reading, fields[i].getReader().read(rs, i + 1));
+			}
+		}
+		rs.close();
+		return reading;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public Object typedRows() throws SQLException {
+		Reading reading = null;
+		ResultSet rs = statement.executeQuery();
+		while (rs.next()) {
+			reading = new Reading();
+			for (int i = 0; i < fields.length; i++) {
+				fields[i].getReader().readInto(rs, i + 1, reading, fields[i].getAccessor());
+			}
+		}
+		rs.close();
+		return reading;
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Table;
+
+// Time to serve a burst of concurrent callers, each selecting one row through its own EntityManager on its own thread, 
+// with callers queued on the connection permits or all of them waiting on the pool of 20 connections.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentCallerBenchmark {
+
+	private static final int ROWS = 1000;
+
+	@Table(name = "session")
+	public static class Session extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "user_name", length = 20)
+		private String userName;
+	}
+
+	@Param({"100", "1000", "10000"})
+	private int callers;
+
+	// Zero leaves the connections unbounded as without the connection.max.concurrent property
+	@Param({"0", "20"})
+	private int maxConcurrent;
+
+	private Semaphore defaultPermits;
+
+	@Setup
+	public void setUp() {
+		String[] sqls = new String[ROWS + 2];
+		sqls[0] = "drop table session if exists";
+		sqls[1] = "create table session (id int primary key, user_name varchar(20))";
+		for (int i = 0; i < ROWS; i++) {
+			sqls[i + 2] = "insert into session values (" + i + ", 'user" + i + "')";
+		}
+		BenchmarkDatabase.execute(sqls);
+
+		defaultPermits = ConnectionFactory.CONNECTION_PERMITS;
+		ConnectionFactory.CONNECTION_PERMITS = maxConcurrent > 0 ? new Semaphore(maxConcurrent, true) : null;
+	}
+
+	@TearDown
+	public void tearDown() {
+		ConnectionFactory.CONNECTION_PERMITS = defaultPermits;
+	}
+
+	@Benchmark
+	public int serveCallers() throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(callers);
+		final AtomicInteger served = new AtomicInteger();
+
+		for (int i = 0; i < callers; i++) {
+			final int id = i % ROWS;
+			Thread thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+						Session session = new Session();
+						session.id = id;
+						if (EntityManagerFactory.getNewInstance().selectSingleEntity(session) != null) {
+							served.incrementAndGet();
+						}
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+			thread.start();
+		}
+
+		start.countDown();
+		done.await();
+
+		if (served.get() != callers) {
+			throw new IllegalStateException("Served " + served.get() + " of " + callers + " callers");
+		}
+		return served.get();
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Table;
+import com.jsmartdb.framework.types.InsertType;
+
+// Rows per second of insertBatchEntity with single row statements batched and with multi row VALUES statements.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsertBatchBenchmark {
+
+	private static final int ROWS = 10000;
+
+	@Table(name = "metric", insertType = InsertType.BATCH_INSERT)
+	public static class BatchMetric extends Entity {
+
+		@Id(name = "id", generated = true)
+		private Long id;
+
+		@Column(name = "name", length = 20)
+		private String name;
+
+		@Column(name = "value")
+		private Double value;
+	}
+
+	@Table(name = "metric", insertType = InsertType.MULTI_ROW_INSERT)
+	public static class RowsMetric extends Entity {
+
+		@Id(name = "id", generated = true)
+		private Long id;
+
+		@Column(name = "name", length = 20)
+		private String name;
+
+		@Column(name = "value")
+		private Double value;
+	}
+
+	private EntityManager manager;
+
+	private List<BatchMetric> batchMetrics;
+
+	private List<RowsMetric> rowsMetrics;
+
+	@Setup
+	public void setUp() {
+		BenchmarkDatabase.execute("drop table metric if exists", 
+				"create table metric (id bigint generated by default as identity primary key, name varchar(20), value double)");
+
+		manager = EntityManagerFactory.getNewInstance();
+
+		batchMetrics = new ArrayList<BatchMetric>(ROWS);
+		rowsMetrics = new ArrayList<RowsMetric>(ROWS);
+		for (int i = 0; i < ROWS; i++) {
+			BatchMetric batchMetric = new BatchMetric();
+			batchMetric.name = "metric" + (i % 100);
+			batchMetric.value = i / 10d;
+			batchMetrics.add(batchMetric);
+
+			RowsMetric rowsMetric = new RowsMetric();
+			rowsMetric.name = batchMetric.name;
+			rowsMetric.value = batchMetric.value;
+			rowsMetrics.add(rowsMetric);
+		}
+	}
+
+	// Rolled back so the table stays empty, ids are cleared for the database to generate them again
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void batchInsert() {
+		for (BatchMetric batchMetric : batchMetrics) {
+			batchMetric.id = null;
+		}
+		manager.initTransaction();
+		try {
+			manager.insertBatchEntity(batchMetrics);
+		} finally {
+			manager.rollbackTransaction();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void multiRowInsert() {
+		for (RowsMetric rowsMetric : rowsMetrics) {
+			rowsMetric.id = null;
+		}
+		manager.initTransaction();
+		try {
+			manager.insertBatchEntity(rowsMetrics);
+		} finally {
+			manager.rollbackTransaction();
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Table;
+
+// Latency of reading one deep page with first/max offset paging and with a keyset continuation token.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeysetPageBenchmark {
+
+	private static final int PAGE_SIZE = 50;
+
+	@Table(name = "audit", orderBy = "created")
+	public static class Audit extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "created")
+		private Long created;
+
+		@Column(name = "action", length = 40)
+		private String action;
+	}
+
+	@Param({"1", "100", "1000"})
+	private int page;
+
+	private EntityManager manager;
+
+	private String token;
+
+	@Setup
+	public void setUp() throws SQLException {
+		BenchmarkDatabase.execute("drop table audit if exists", 
+				"create table audit (id int primary key, created bigint, action varchar(40))", "create index audit_created on audit (created, id)");
+
+		int rows = (page + 1) * PAGE_SIZE;
+
+		Connection connection = ConnectionFactory.getConnection();
+		try {
+			PreparedStatement insert = connection.prepareStatement("insert into audit (id, created, action) values (?, ?, ?)");
+			for (int i = 1; i <= rows; i++) {
+				insert.setInt(1, i);
+				insert.setLong(2, i / 10);
+				insert.setString(3, "action" + i);
+				insert.addBatch();
+			}
+			insert.executeBatch();
+			insert.close();
+		} finally {
+			ConnectionFactory.putConnection(connection, false);
+		}
+
+		manager = EntityManagerFactory.getNewInstance();
+
+		// Token of the last row before the measured page
+		token = null;
+		for (int i = 1; i < page; i++) {
+			token = manager.selectEntityPage(new Audit(), token, PAGE_SIZE).getToken();
+		}
+	}
+
+	@Benchmark
+	public List<? extends Entity> offsetPage() {
+		return manager.selectEntity(new Audit(), (page - 1) * PAGE_SIZE, PAGE_SIZE);
+	}
+
+	@Benchmark
+	public List<? extends Entity> keysetPage() {
+		return manager.selectEntityPage(new Audit(), token, PAGE_SIZE).getEntities();
+	}
+
+}
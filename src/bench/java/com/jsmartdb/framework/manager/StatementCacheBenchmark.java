@@ -0,0 +1,112 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Table;
+
+// Latency per insert of a transaction inserting single entities, with statements prepared per insert or reused from the context.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatementCacheBenchmark {
+
+	private static final int INSERTS = 5000;
+
+	@Table(name = "event")
+	public static class Event extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "kind", length = 20)
+		private String kind;
+
+		@Column(name = "amount")
+		private Long amount;
+	}
+
+	// Zero disables the statement cache of the context
+	@Param({"0", "100"})
+	private int statementCacheSize;
+
+	private Integer defaultCacheSize;
+
+	private EntityManager manager;
+
+	private Event[] events;
+
+	@Setup
+	public void setUp() {
+		BenchmarkDatabase.execute("drop table event if exists", "create table event (id int primary key, kind varchar(20), amount bigint)");
+
+		defaultCacheSize = ConnectionFactory.STATEMENT_CACHE_SIZE;
+		ConnectionFactory.STATEMENT_CACHE_SIZE = statementCacheSize;
+
+		manager = EntityManagerFactory.getNewInstance();
+
+		events = new Event[INSERTS];
+		for (int i = 0; i < INSERTS; i++) {
+			events[i] = new Event();
+			events[i].id = i;
+			events[i].kind = "kind" + (i % 10);
+			events[i].amount = (long) i;
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		ConnectionFactory.STATEMENT_CACHE_SIZE = defaultCacheSize;
+	}
+
+	// Rolled back so every invocation inserts the same keys into an empty table
+	@Benchmark
+	@OperationsPerInvocation(INSERTS)
+	public void insertEntity() {
+		manager.initTransaction();
+		try {
+			for (Event event : events) {
+				manager.insertEntity(event);
+			}
+		} finally {
+			manager.rollbackTransaction();
+		}
+	}
+
+}
@@ -21,6 +21,7 @@ package com.jsmartdb.framework.annotation;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
+import com.jsmartdb.framework.types.FetchType;
 import com.jsmartdb.framework.types.JoinLevel;
 import com.jsmartdb.framework.types.JoinType;
 
@@ -31,4 +32,7 @@ public @interface Join {
 
 	JoinLevel level() default JoinLevel.JOIN_ONE_LEVEL;
 
+	// Lazy relations are not joined, collections load on first access and OneToOne through EntityManager selectRelation
+	FetchType fetch() default FetchType.EAGER;
+
 }
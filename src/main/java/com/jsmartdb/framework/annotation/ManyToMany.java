@@ -39,4 +39,7 @@ public @interface ManyToMany {
 
     CascadeType[] cascade() default {};
 
+    // Updates make the join table rows match the collection, only for collections always loaded before update
+    boolean synchronize() default false;
+
 }
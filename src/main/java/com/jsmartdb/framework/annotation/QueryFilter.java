@@ -30,4 +30,6 @@ public @interface QueryFilter {
 
 	String where();
 
+	boolean cacheable() default false;
+
 }
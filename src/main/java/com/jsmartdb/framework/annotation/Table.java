@@ -21,6 +21,7 @@ package com.jsmartdb.framework.annotation;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
+import com.jsmartdb.framework.types.InsertType;
 import com.jsmartdb.framework.types.OrderType;
 import com.jsmartdb.framework.types.TableType;
 
@@ -35,4 +36,14 @@ public @interface Table {
 
 	TableType type() default TableType.DEFAULT_TABLE;
 
+	// Batch insert strategy, default insert follows the batch.insert.type property
+	InsertType insertType() default InsertType.DEFAULT_INSERT;
+
+	boolean cacheable() default false;
+
+	int cacheSize() default 1000;
+
+	// Seconds, zero for no expiration
+	long cacheTimeToLive() default 0;
+
 }
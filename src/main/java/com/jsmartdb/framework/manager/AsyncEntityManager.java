@@ -0,0 +1,268 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Runs EntityManager work on a bounded pool of threads shared by all instances so callers are not blocked 
+ * by database I/O. Each task gets the EntityContext of its worker thread, transactions left open by a task 
+ * are rolled back once it finishes. Tasks beyond the queue size are rejected.
+ */
+public final class AsyncEntityManager {
+
+	private static Logger LOGGER = Logger.getLogger(AsyncEntityManager.class.getPackage().getName());
+
+	private static Integer POOL_SIZE = 10;
+
+	private static Integer QUEUE_SIZE = 1000;
+
+	private static final ExecutorService EXECUTOR;
+
+	static {
+		EntityPersistence persistence = EntityPersistence.getInstance();
+
+		String poolSize = persistence.getProperty(EntityPersistence.ASYNC_POOL_SIZE);
+		if (poolSize != null) {
+			try {
+				POOL_SIZE = Integer.parseInt(poolSize);
+			} catch (NumberFormatException ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		String queueSize = persistence.getProperty(EntityPersistence.ASYNC_QUEUE_SIZE);
+		if (queueSize != null) {
+			try {
+				QUEUE_SIZE = Integer.parseInt(queueSize);
+			} catch (NumberFormatException ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		// Daemon threads started on demand, the pool lives as long as the application
+		final AtomicInteger threadCount = new AtomicInteger();
+		EXECUTOR = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0L, TimeUnit.MILLISECONDS, 
+				new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "jsmartdb-async-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	private final EntityManager em;
+
+	private volatile boolean shutdown;
+
+	/*package*/ AsyncEntityManager(final EntityManager em) {
+		this.em = em;
+	}
+
+	public <T> Future<T> execute(final EntityTask<T> task) {
+		return execute(task, null);
+	}
+
+	public <T> Future<T> execute(final EntityTask<T> task, final EntityCallback<T> callback) {
+		return submit(task, false, callback);
+	}
+
+	// Runs the task in a transaction, committed when the task returns and rolled back when it throws
+	public <T> Future<T> inTransaction(final EntityTask<T> task) {
+		return inTransaction(task, null);
+	}
+
+	public <T> Future<T> inTransaction(final EntityTask<T> task, final EntityCallback<T> callback) {
+		return submit(task, true, callback);
+	}
+
+	public Future<Void> insertEntity(final Entity entity) {
+		return execute(new EntityTask<Void>() {
+
+			@Override
+			public Void execute(EntityManager em) {
+				em.insertEntity(entity);
+				return null;
+			}
+		});
+	}
+
+	public Future<Void> insertBatchEntity(final Collection<? extends Entity> entities) {
+		return execute(new EntityTask<Void>() {
+
+			@Override
+			public Void execute(EntityManager em) {
+				em.insertBatchEntity(entities);
+				return null;
+			}
+		});
+	}
+
+	public Future<Void> updateEntity(final Entity entity) {
+		return execute(new EntityTask<Void>() {
+
+			@Override
+			public Void execute(EntityManager em) {
+				em.updateEntity(entity);
+				return null;
+			}
+		});
+	}
+
+	public Future<Void> updateBatchEntity(final Collection<? extends Entity> entities) {
+		return execute(new EntityTask<Void>() {
+
+			@Override
+			public Void execute(EntityManager em) {
+				em.updateBatchEntity(entities);
+				return null;
+			}
+		});
+	}
+
+	public Future<Void> deleteEntity(final Entity entity) {
+		return execute(new EntityTask<Void>() {
+
+			@Override
+			public Void execute(EntityManager em) {
+				em.deleteEntity(entity);
+				return null;
+			}
+		});
+	}
+
+	public Future<Void> deleteBatchEntity(final Collection<? extends Entity> entities) {
+		return execute(new EntityTask<Void>() {
+
+			@Override
+			public Void execute(EntityManager em) {
+				em.deleteBatchEntity(entities);
+				return null;
+			}
+		});
+	}
+
+	public Future<Entity> selectSingleEntity(final Entity entity) {
+		return execute(new EntityTask<Entity>() {
+
+			@Override
+			public Entity execute(EntityManager em) {
+				return em.selectSingleEntity(entity);
+			}
+		});
+	}
+
+	public Future<List<? extends Entity>> selectEntity(final Entity entity) {
+		return execute(new EntityTask<List<? extends Entity>>() {
+
+			@Override
+			public List<? extends Entity> execute(EntityManager em) {
+				return em.selectEntity(entity);
+			}
+		});
+	}
+
+	public Future<Entity> selectSingleEntity(final QueryParam param) {
+		return execute(new EntityTask<Entity>() {
+
+			@Override
+			public Entity execute(EntityManager em) {
+				return em.selectSingleEntity(param);
+			}
+		});
+	}
+
+	public Future<List<? extends Entity>> selectEntity(final QueryParam param) {
+		return execute(new EntityTask<List<? extends Entity>>() {
+
+			@Override
+			public List<? extends Entity> execute(EntityManager em) {
+				return em.selectEntity(param);
+			}
+		});
+	}
+
+	// Pending tasks still run, new tasks of this instance are rejected while the shared pool keeps serving the others
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	private <T> Future<T> submit(final EntityTask<T> task, final boolean transaction, final EntityCallback<T> callback) {
+		if (shutdown) {
+			throw new RejectedExecutionException("AsyncEntityManager was shut down!");
+		}
+
+		return EXECUTOR.submit(new Callable<T>() {
+
+			@Override
+			public T call() throws Exception {
+				T result = null;
+				try {
+					// Transaction context bound directly, the proxy would open a connection per call
+					if (transaction) {
+						EntityContext.initUserTransaction();
+						result = task.execute(em);
+						EntityContext.closeUserTransaction(false);
+					} else {
+						result = task.execute(em);
+					}
+
+				} catch (Exception ex) {
+					if (callback != null) {
+						try {
+							callback.onFailure(ex);
+						} catch (RuntimeException callbackEx) {
+							LOGGER.log(Level.WARNING, "Failure on task callback: " + callbackEx.getMessage(), callbackEx);
+						}
+					}
+					throw ex;
+
+				} finally {
+					EntityContext.closeUserTransaction(true);
+				}
+
+				// Callback failures do not change the outcome of the task
+				if (callback != null) {
+					try {
+						callback.onSuccess(result);
+					} catch (RuntimeException callbackEx) {
+						LOGGER.log(Level.WARNING, "Failure on task callback: " + callbackEx.getMessage(), callbackEx);
+					}
+				}
+				return result;
+			}
+		});
+	}
+
+}
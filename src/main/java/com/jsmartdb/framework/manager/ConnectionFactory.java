@@ -20,6 +20,10 @@ package com.jsmartdb.framework.manager;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -28,21 +32,43 @@ import javax.sql.DataSource;
 
 import com.mchange.v2.c3p0.ComboPooledDataSource;
 
+import com.jsmartdb.framework.types.InsertType;
+
 /*package*/ final class ConnectionFactory {
 
 	/*package*/ static Integer BATCH_SIZE = 1000;
 
+	// Keys per delete in statement of batch deletes, key deletes are disabled by default
+	/*package*/ static Integer DELETE_IN_SIZE = 0;
+
+	/*package*/ static InsertType INSERT_TYPE = InsertType.BATCH_INSERT;
+
+	// Statement parameters budget of multi row inserts
+	/*package*/ static Integer INSERT_MAX_PARAMETERS = 2000;
+
+	/*package*/ static Integer FETCH_SIZE = null;
+
+	/*package*/ static Integer STATEMENT_CACHE_SIZE = 100;
+
 	private static Integer TRANSACTION_ISOLATION_LEVEL = null;
 
+	// Bounds the connections held at the same time so many request threads wait here instead of on the pool
+	/*package*/ static Semaphore CONNECTION_PERMITS = null;
+
+	private static Integer CONNECTION_TIMEOUT = null;
+
+	// Lock instead of monitor so virtual threads waiting on pool creation do not pin their carrier
+	private static final Lock POOL_LOCK = new ReentrantLock();
+
 	private static String DATA_SOURCE_NAME;
 
     private static Context INIT_CONTEXT;
 
     private static Context ENV_CONTEXT;
 
-    private static DataSource dataSource;
+    private static volatile DataSource dataSource;
 
-    private static ComboPooledDataSource connectionPool;
+    private static volatile ComboPooledDataSource connectionPool;
 
     static {
     	EntityPersistence persistence = EntityPersistence.getInstance();
@@ -58,6 +84,72 @@ import com.mchange.v2.c3p0.ComboPooledDataSource;
 			}
 		}
 
+		String deleteInSize = persistence.getProperty(EntityPersistence.BATCH_DELETE_IN_SIZE);
+		if (deleteInSize != null) {
+			try {
+				DELETE_IN_SIZE = Integer.parseInt(deleteInSize);
+			} catch (NumberFormatException ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		String insertType = persistence.getProperty(EntityPersistence.BATCH_INSERT_TYPE);
+		if (insertType != null) {
+			try {
+				INSERT_TYPE = InsertType.valueOf(insertType.trim().toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		String insertMaxParameters = persistence.getProperty(EntityPersistence.BATCH_INSERT_MAX_PARAMETERS);
+		if (insertMaxParameters != null) {
+			try {
+				INSERT_MAX_PARAMETERS = Integer.parseInt(insertMaxParameters);
+			} catch (NumberFormatException ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		String fetchSize = persistence.getProperty(EntityPersistence.FETCH_SIZE);
+		if (fetchSize != null) {
+			try {
+				FETCH_SIZE = Integer.parseInt(fetchSize);
+			} catch (NumberFormatException ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		String statementCacheSize = persistence.getProperty(EntityPersistence.STATEMENT_CACHE_SIZE);
+		if (statementCacheSize != null) {
+			try {
+				STATEMENT_CACHE_SIZE = Integer.parseInt(statementCacheSize);
+			} catch (NumberFormatException ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		String maxConcurrent = persistence.getProperty(EntityPersistence.CONNECTION_MAX_CONCURRENT);
+		if (maxConcurrent != null) {
+			try {
+				int permits = Integer.parseInt(maxConcurrent);
+				if (permits > 0) {
+					CONNECTION_PERMITS = new Semaphore(permits, true);
+				}
+			} catch (NumberFormatException ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		String connectionTimeout = persistence.getProperty(EntityPersistence.CONNECTION_TIMEOUT);
+		if (connectionTimeout != null) {
+			try {
+				CONNECTION_TIMEOUT = Integer.parseInt(connectionTimeout);
+			} catch (NumberFormatException ex) {
+				ex.printStackTrace();
+			}
+		}
+
 		String transactionIsolation = persistence.getProperty(EntityPersistence.TRANSACTION_ISOLATION_LEVEL);
 		if (transactionIsolation != null) {
 			try {
@@ -76,17 +168,25 @@ import com.mchange.v2.c3p0.ComboPooledDataSource;
     }
 
     /*package*/ static final Connection getConnection() {
+    	acquirePermit();
+    	Connection connection = null;
         try {
-        	Connection connection = null;
 
         	if (DATA_SOURCE_NAME != null) {
         		try {
 	    			if (dataSource == null) {
-	    				if (ENV_CONTEXT != null) {
-	    					dataSource = (DataSource) ENV_CONTEXT.lookup(DATA_SOURCE_NAME);
-	        			} else {
-	        				dataSource = (DataSource) INIT_CONTEXT.lookup(DATA_SOURCE_NAME);
-	        			}
+	    				POOL_LOCK.lock();
+	    				try {
+	    					if (dataSource == null) {
+			    				if (ENV_CONTEXT != null) {
+			    					dataSource = (DataSource) ENV_CONTEXT.lookup(DATA_SOURCE_NAME);
+			        			} else {
+			        				dataSource = (DataSource) INIT_CONTEXT.lookup(DATA_SOURCE_NAME);
+			        			}
+	    					}
+	    				} finally {
+	    					POOL_LOCK.unlock();
+	    				}
 	    			}
 	
 	                connection = dataSource.getConnection();
@@ -99,43 +199,7 @@ import com.mchange.v2.c3p0.ComboPooledDataSource;
         	if (connection == null) {
 
         		if (connectionPool == null) {
-        			EntityPersistence persistence = EntityPersistence.getInstance();
-
-        	    	connectionPool = new ComboPooledDataSource();
-        	    	connectionPool.setJdbcUrl(persistence.getProperty(EntityPersistence.CONNECTION_URL));
-        	    	connectionPool.setUser(persistence.getProperty(EntityPersistence.CONNECTION_USERNAME));
-        	    	connectionPool.setPassword(persistence.getProperty(EntityPersistence.CONNECTION_PASSWORD));
-        	    	connectionPool.setDriverClass(persistence.getProperty(EntityPersistence.DRIVER_CLASS));
-
-        	    	String timeOut = persistence.getProperty(EntityPersistence.CONNECTION_TIMEOUT);
-        	    	if (timeOut != null) {
-        	    		connectionPool.setCheckoutTimeout(Integer.parseInt(timeOut));
-        	    	}
-
-        	    	String poolInitialSize = persistence.getProperty(EntityPersistence.CONNECTION_POOL_INITIAL_SIZE);
-        	    	if (poolInitialSize != null) {
-        	    		connectionPool.setInitialPoolSize(Integer.parseInt(poolInitialSize));
-        	    	}
-
-        	    	String poolMinimumSize = persistence.getProperty(EntityPersistence.CONNECTION_POOL_MIN);
-        	    	if (poolMinimumSize != null) {
-        	    		connectionPool.setMinPoolSize(Integer.parseInt(poolMinimumSize));
-        	    	}
-
-        	    	String poolMaximumSize = persistence.getProperty(EntityPersistence.CONNECTION_POOL_MAX);
-        	    	if (poolMaximumSize != null) {
-        	    		connectionPool.setMaxPoolSize(Integer.parseInt(poolMaximumSize));
-        	    	}
-
-        	    	String poolMaximumStatements = persistence.getProperty(EntityPersistence.CONNECTION_MAX_STATEMENTS);
-        	    	if (poolMaximumStatements != null) {
-        	    		connectionPool.setMaxStatements(Integer.parseInt(poolMaximumStatements));
-        	    	}
-
-        	    	String poolMaximumAge = persistence.getProperty(EntityPersistence.CONNECTION_MAX_AGE);
-        	    	if (poolMaximumAge != null) {
-        	    		connectionPool.setMaxConnectionAge(Integer.parseInt(poolMaximumAge));
-        	    	}
+        			createConnectionPool();
         		}
 
         		connection = connectionPool.getConnection();
@@ -153,10 +217,91 @@ import com.mchange.v2.c3p0.ComboPooledDataSource;
 			return connection;
 
         } catch (Exception ex) {
+        	// Connections failing their setup go back to the pool before the permit
+        	if (connection != null) {
+        		try {
+        			connection.close();
+        		} catch (SQLException closeEx) {
+        			// DO NOTHING
+        		}
+        	}
+        	releasePermit();
         	throw new RuntimeException(ex.getMessage());
         }
     }
 
+    private static void createConnectionPool() throws Exception {
+    	POOL_LOCK.lock();
+    	try {
+    		if (connectionPool != null) {
+    			return;
+    		}
+
+    		EntityPersistence persistence = EntityPersistence.getInstance();
+
+    		ComboPooledDataSource pool = new ComboPooledDataSource();
+    		pool.setJdbcUrl(persistence.getProperty(EntityPersistence.CONNECTION_URL));
+    		pool.setUser(persistence.getProperty(EntityPersistence.CONNECTION_USERNAME));
+    		pool.setPassword(persistence.getProperty(EntityPersistence.CONNECTION_PASSWORD));
+    		pool.setDriverClass(persistence.getProperty(EntityPersistence.DRIVER_CLASS));
+
+    		if (CONNECTION_TIMEOUT != null) {
+    			pool.setCheckoutTimeout(CONNECTION_TIMEOUT);
+    		}
+
+    		String poolInitialSize = persistence.getProperty(EntityPersistence.CONNECTION_POOL_INITIAL_SIZE);
+    		if (poolInitialSize != null) {
+    			pool.setInitialPoolSize(Integer.parseInt(poolInitialSize));
+    		}
+
+    		String poolMinimumSize = persistence.getProperty(EntityPersistence.CONNECTION_POOL_MIN);
+    		if (poolMinimumSize != null) {
+    			pool.setMinPoolSize(Integer.parseInt(poolMinimumSize));
+    		}
+
+    		String poolMaximumSize = persistence.getProperty(EntityPersistence.CONNECTION_POOL_MAX);
+    		if (poolMaximumSize != null) {
+    			pool.setMaxPoolSize(Integer.parseInt(poolMaximumSize));
+    		}
+
+    		String poolMaximumStatements = persistence.getProperty(EntityPersistence.CONNECTION_MAX_STATEMENTS);
+    		if (poolMaximumStatements != null) {
+    			pool.setMaxStatements(Integer.parseInt(poolMaximumStatements));
+    		}
+
+    		String poolMaximumAge = persistence.getProperty(EntityPersistence.CONNECTION_MAX_AGE);
+    		if (poolMaximumAge != null) {
+    			pool.setMaxConnectionAge(Integer.parseInt(poolMaximumAge));
+    		}
+
+    		connectionPool = pool;
+    	} finally {
+    		POOL_LOCK.unlock();
+    	}
+    }
+
+    private static void acquirePermit() {
+    	if (CONNECTION_PERMITS != null) {
+    		try {
+    			if (CONNECTION_TIMEOUT == null) {
+    				CONNECTION_PERMITS.acquire();
+
+    			} else if (!CONNECTION_PERMITS.tryAcquire(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)) {
+    				throw new RuntimeException("Timeout waiting for a connection!");
+    			}
+    		} catch (InterruptedException ex) {
+    			Thread.currentThread().interrupt();
+    			throw new RuntimeException(ex.getMessage());
+    		}
+    	}
+    }
+
+    private static void releasePermit() {
+    	if (CONNECTION_PERMITS != null) {
+    		CONNECTION_PERMITS.release();
+    	}
+    }
+
     /*package*/ static final void putConnection(Connection connection, boolean rollbackChanges) {
         try {
             if (connection != null) {
@@ -176,6 +321,11 @@ import com.mchange.v2.c3p0.ComboPooledDataSource;
 	        	}
         	} catch (SQLException ex) {
         		throw new RuntimeException(ex.getMessage());
+
+        	} finally {
+        		if (connection != null) {
+        			releasePermit();
+        		}
         	}
         }
     }
@@ -18,8 +18,8 @@
 
 package com.jsmartdb.framework.manager;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.List;
@@ -28,12 +28,18 @@ public abstract class Entity {
 
 	/*package*/ String internalId;
 
+	// Update field values as last read from or written to the database, null when not tracked
+	/*package*/ Object[] snapshot;
+
+	// Update fields of lazy OneToOne references not selected yet, null when none
+	/*package*/ BitSet unloaded;
+
 	public Entity() {
 		this.initCollections();
 	}
 
 	private void initCollections() {
-		for (Field field : EntityFieldsMapper.getFields(this.getClass())) {
+		for (EntityField field : EntityMetadata.getMetadata(this.getClass()).getCollections()) {
 			if (field.getType() == List.class) {
 				EntityHandler.setValue(this, field, new ArrayList<Object>());
 			} else if (field.getType() == Set.class) {
@@ -0,0 +1,292 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+// Per-field value accessor, resolved once and kept on the field metadata.
+/*package*/ abstract class EntityAccessor {
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	/*package*/ abstract Object get(final Object target);
+
+	/*package*/ abstract void set(final Object target, final Object value);
+
+	/*package*/ void setInt(final Object target, final int value) {
+		set(target, Integer.valueOf(value));
+	}
+
+	/*package*/ void setLong(final Object target, final long value) {
+		set(target, Long.valueOf(value));
+	}
+
+	/*package*/ void setDouble(final Object target, final double value) {
+		set(target, Double.valueOf(value));
+	}
+
+	/*package*/ void setBoolean(final Object target, final boolean value) {
+		set(target, Boolean.valueOf(value));
+	}
+
+	/*package*/ void setFloat(final Object target, final float value) {
+		set(target, Float.valueOf(value));
+	}
+
+	/*package*/ void setShort(final Object target, final short value) {
+		set(target, Short.valueOf(value));
+	}
+
+	/*package*/ void setByte(final Object target, final byte value) {
+		set(target, Byte.valueOf(value));
+	}
+
+	/*package*/ static EntityAccessor create(final Field field) {
+		field.setAccessible(true);
+		if (!Modifier.isStatic(field.getModifiers())) {
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+				MethodHandle getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+				MethodHandle rawSetter = lookup.unreflectSetter(field);
+
+				// Primitive fields keep a setter that takes the unboxed value
+				MethodHandle primitiveSetter = null;
+				if (field.getType().isPrimitive()) {
+					primitiveSetter = rawSetter.asType(MethodType.methodType(void.class, Object.class, field.getType()));
+				}
+				return new HandleAccessor(getter, rawSetter.asType(SETTER_TYPE), primitiveSetter);
+
+			} catch (IllegalAccessException ex) {
+				// Final fields or restricted access, use reflection
+			}
+		}
+		return new ReflectiveAccessor(field);
+	}
+
+	private static final class HandleAccessor extends EntityAccessor {
+
+		private final MethodHandle getter;
+
+		private final MethodHandle setter;
+
+		private final MethodHandle primitiveSetter;
+
+		private HandleAccessor(final MethodHandle getter, final MethodHandle setter, final MethodHandle primitiveSetter) {
+			this.getter = getter;
+			this.setter = setter;
+			this.primitiveSetter = primitiveSetter;
+		}
+
+		@Override
+		/*package*/ Object get(final Object target) {
+			try {
+				return (Object) getter.invokeExact(target);
+			} catch (RuntimeException ex) {
+				throw ex;
+			} catch (Throwable ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void set(final Object target, final Object value) {
+			try {
+				setter.invokeExact(target, value);
+			} catch (RuntimeException ex) {
+				throw ex;
+			} catch (Throwable ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setInt(final Object target, final int value) {
+			try {
+				primitiveSetter.invokeExact(target, value);
+			} catch (RuntimeException ex) {
+				throw ex;
+			} catch (Throwable ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setLong(final Object target, final long value) {
+			try {
+				primitiveSetter.invokeExact(target, value);
+			} catch (RuntimeException ex) {
+				throw ex;
+			} catch (Throwable ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setDouble(final Object target, final double value) {
+			try {
+				primitiveSetter.invokeExact(target, value);
+			} catch (RuntimeException ex) {
+				throw ex;
+			} catch (Throwable ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setBoolean(final Object target, final boolean value) {
+			try {
+				primitiveSetter.invokeExact(target, value);
+			} catch (RuntimeException ex) {
+				throw ex;
+			} catch (Throwable ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setFloat(final Object target, final float value) {
+			try {
+				primitiveSetter.invokeExact(target, value);
+			} catch (RuntimeException ex) {
+				throw ex;
+			} catch (Throwable ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setShort(final Object target, final short value) {
+			try {
+				primitiveSetter.invokeExact(target, value);
+			} catch (RuntimeException ex) {
+				throw ex;
+			} catch (Throwable ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setByte(final Object target, final byte value) {
+			try {
+				primitiveSetter.invokeExact(target, value);
+			} catch (RuntimeException ex) {
+				throw ex;
+			} catch (Throwable ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+	}
+
+	private static final class ReflectiveAccessor extends EntityAccessor {
+
+		private final Field field;
+
+		private ReflectiveAccessor(final Field field) {
+			this.field = field;
+		}
+
+		@Override
+		/*package*/ Object get(final Object target) {
+			try {
+				return field.get(target);
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void set(final Object target, final Object value) {
+			try {
+				field.set(target, value);
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setInt(final Object target, final int value) {
+			try {
+				field.setInt(target, value);
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setLong(final Object target, final long value) {
+			try {
+				field.setLong(target, value);
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setDouble(final Object target, final double value) {
+			try {
+				field.setDouble(target, value);
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setBoolean(final Object target, final boolean value) {
+			try {
+				field.setBoolean(target, value);
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setFloat(final Object target, final float value) {
+			try {
+				field.setFloat(target, value);
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setShort(final Object target, final short value) {
+			try {
+				field.setShort(target, value);
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		/*package*/ void setByte(final Object target, final byte value) {
+			try {
+				field.setByte(target, value);
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+	}
+
+}
@@ -39,19 +39,35 @@ import com.jsmartdb.framework.annotation.OneToOne;
 	private static final String FIELD_SEPARATOR = "#";
 
 	public static String getAlias(Class<?> clazz) {
-		return EntityContext.getAliases().get(PARENT_SEPARATOR + clazz.getName() + FIELD_SEPARATOR);
+		return EntityContext.getAliases().get(getAliasKey(clazz));
 	}
 
 	public static void setAlias(Class<?> clazz, String value) {
-		EntityContext.getAliases().put(PARENT_SEPARATOR + clazz.getName() + FIELD_SEPARATOR, value); 
+		EntityContext.getAliases().put(getAliasKey(clazz), value); 
 	}
 
 	public static String getAlias(Class<?> clazz, String targetClass, String fieldName) {
-		return EntityContext.getAliases().get(clazz.getName() + PARENT_SEPARATOR + targetClass + FIELD_SEPARATOR + fieldName);
+		return EntityContext.getAliases().get(getAliasKey(clazz, targetClass, fieldName));
 	}
 
 	public static void setAlias(Class<?> clazz, String targetClass, String fieldName, String value) {
-		EntityContext.getAliases().put(clazz.getName() + PARENT_SEPARATOR + targetClass + FIELD_SEPARATOR + fieldName, value);
+		EntityContext.getAliases().put(getAliasKey(clazz, targetClass, fieldName), value);
+	}
+
+	/*package*/ static String getAlias(EntityMetadata metadata) {
+		return EntityContext.getAliases().get(metadata.getAliasKey());
+	}
+
+	/*package*/ static String getAlias(EntityField field) {
+		return EntityContext.getAliases().get(field.getAliasKey());
+	}
+
+	/*package*/ static String getAliasKey(Class<?> clazz) {
+		return PARENT_SEPARATOR + clazz.getName() + FIELD_SEPARATOR;
+	}
+
+	/*package*/ static String getAliasKey(Class<?> clazz, String targetClass, String fieldName) {
+		return clazz.getName() + PARENT_SEPARATOR + targetClass + FIELD_SEPARATOR + fieldName;
 	}
 
 	public static Class<?> getTargetClass(String aliasKey) {
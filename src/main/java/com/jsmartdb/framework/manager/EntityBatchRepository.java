@@ -22,10 +22,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,6 +47,9 @@ import com.jsmartdb.framework.annotation.ManyToMany;
 
 	/*package*/ void insert(final Collection<? extends Entity> entities, boolean blockCascade) {
 		if (entities != null && !entities.isEmpty()) {
+			for (Entity entity : entities) {
+				EntityContext.addWrite(entity, CascadeType.INSERT);
+			}
 			EntityContext.setBlockCascade(blockCascade);
 			if (EntityHandler.isJoinTable(entities.iterator().next().getClass())) {
 				insertJoin(entities);
@@ -143,30 +150,13 @@ import com.jsmartdb.framework.annotation.ManyToMany;
 
 	private void insertBatch(final Collection<? extends Entity> entities) {
 		try {
-			long batchCount = 0;
-			PreparedStatement pstmt = null;
-			List<Object> generatedKeys = new ArrayList<Object>();
-
-			for (Entity entity : entities) {
-				if (pstmt == null) {
-					pstmt = EntityUpdate.getInsert(entity.getClass());
-					if (LOG_SQL) {
-						LOGGER.log(Level.INFO, pstmt.toString());
-		    		}
-				}
+			List<Object> generatedKeys = null;
 
-				EntityUpdate.putInsertValues(pstmt, entity);
-				pstmt.addBatch();
-
-				 if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == entities.size()) {
-					 
-					 Class<?> generatedIdClass = EntityHandler.getGeneratedIdClass(entity);
-					 List<Object> ids = executeUpdate(pstmt, generatedIdClass, batchCount == entities.size());
-
-					 if (generatedIdClass != null) {
-						 generatedKeys.addAll(ids);
-					 }
-				 }
+			int insertRows = EntityUpdate.getInsertRows(entities.iterator().next().getClass());
+			if (insertRows > 1 && entities.size() > 1) {
+				generatedKeys = insertRowsBatch(new ArrayList<Entity>(entities), insertRows);
+			} else {
+				generatedKeys = insertRowBatch(entities);
 			}
 
 			// Insert generated ids into entities
@@ -177,6 +167,7 @@ import com.jsmartdb.framework.annotation.ManyToMany;
 				if (!generatedKeys.isEmpty()) {
 					EntityHandler.setGeneratedValue(entity, generatedKeys.get(idCount++));
 				}
+				EntityHandler.setWriteSnapshot(entity);
 			}
 
 		} catch (SQLException ex) {
@@ -184,6 +175,88 @@ import com.jsmartdb.framework.annotation.ManyToMany;
 		}
 	}
 
+	private List<Object> insertRowBatch(final Collection<? extends Entity> entities) throws SQLException {
+		long batchCount = 0;
+		PreparedStatement pstmt = null;
+		List<Object> generatedKeys = new ArrayList<Object>();
+
+		for (Entity entity : entities) {
+			if (pstmt == null) {
+				pstmt = EntityUpdate.getInsert(entity.getClass());
+				if (LOG_SQL) {
+					LOGGER.log(Level.INFO, pstmt.toString());
+	    		}
+			}
+
+			EntityUpdate.putInsertValues(pstmt, entity);
+			pstmt.addBatch();
+
+			 if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == entities.size()) {
+				 
+				 Class<?> generatedIdClass = EntityHandler.getGeneratedIdClass(entity);
+				 List<Object> ids = executeUpdate(pstmt, generatedIdClass, batchCount == entities.size());
+
+				 if (generatedIdClass != null) {
+					 generatedKeys.addAll(ids);
+				 }
+			 }
+		}
+		return generatedKeys;
+	}
+
+	/*
+	 * Multi row inserts with insertRows entities per statement, full statements share one batch and the remaining 
+	 * entities go in a last statement. Generated keys are returned in the order the rows were inserted.
+	 */
+	private List<Object> insertRowsBatch(final List<Entity> entities, final int insertRows) throws SQLException {
+		Class<?> clazz = entities.get(0).getClass();
+		Class<?> generatedIdClass = EntityHandler.getGeneratedIdClass(entities.get(0));
+
+		int chunkCount = entities.size() / insertRows;
+
+		long batchCount = 0;
+		PreparedStatement pstmt = null;
+		List<Object> generatedKeys = new ArrayList<Object>();
+
+		for (int i = 0; i < chunkCount; i++) {
+			if (pstmt == null) {
+				pstmt = EntityUpdate.getInsert(clazz, insertRows);
+				if (LOG_SQL) {
+					LOGGER.log(Level.INFO, pstmt.toString());
+	    		}
+			}
+
+			EntityUpdate.putInsertValues(pstmt, entities.subList(i * insertRows, (i + 1) * insertRows));
+			pstmt.addBatch();
+
+			if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == chunkCount) {
+				List<Object> ids = executeUpdate(pstmt, generatedIdClass, batchCount == chunkCount);
+
+				if (generatedIdClass != null) {
+					generatedKeys.addAll(ids);
+				}
+			}
+		}
+
+		if (entities.size() % insertRows != 0) {
+			List<Entity> lastChunk = entities.subList(chunkCount * insertRows, entities.size());
+
+			pstmt = EntityUpdate.getInsert(clazz, lastChunk.size());
+			if (LOG_SQL) {
+				LOGGER.log(Level.INFO, pstmt.toString());
+    		}
+
+			EntityUpdate.putInsertValues(pstmt, lastChunk);
+			pstmt.addBatch();
+
+			List<Object> ids = executeUpdate(pstmt, generatedIdClass, true);
+			if (generatedIdClass != null) {
+				generatedKeys.addAll(ids);
+			}
+		}
+		return generatedKeys;
+	}
+
 	private void insertJoin(final Collection<? extends Entity> joinEntities) {
 		try {
 			final Map<Class<?>, List<Entity>> joinIdMap = new HashMap<Class<?>, List<Entity>>();
@@ -257,6 +330,9 @@ import com.jsmartdb.framework.annotation.ManyToMany;
 
 	/*package*/ void update(final Collection<? extends Entity> entities, boolean blockCascade) {
 		if (entities != null && !entities.isEmpty()) {
+			for (Entity entity : entities) {
+				EntityContext.addWrite(entity, CascadeType.UPDATE);
+			}
 			EntityContext.setBlockCascade(blockCascade);
 			if (EntityHandler.isJoinTable(entities.iterator().next().getClass())) {
 				updateJoin(entities);
@@ -269,6 +345,84 @@ import com.jsmartdb.framework.annotation.ManyToMany;
 		EntityContext.clearBuildBlockedClasses();
 	}
 
+	// Insert or update of the entity rows only, related entities are referenced by their keys but not cascaded
+	/*package*/ void upsert(final Collection<? extends Entity> entities) {
+		if (entities != null && !entities.isEmpty()) {
+			for (Entity entity : entities) {
+				EntityContext.addWrite(entity, CascadeType.UPDATE);
+			}
+			upsertBatch(entities);
+		} else {
+			throw new RuntimeException("Collection of entities to be upserted cannot be null or empty!");
+		}
+	}
+
+	// Entities without their generated value run in a batch of their own returning the generated keys in row order
+	private void upsertBatch(final Collection<? extends Entity> entities) {
+		try {
+			final List<Entity> keyedEntities = new ArrayList<Entity>();
+			final List<Entity> generatedEntities = new ArrayList<Entity>();
+
+			for (Entity entity : entities) {
+				EntityHandler.validateColumns(entity);
+
+				EntityField generatedField = EntityMetadata.getMetadata(entity.getClass()).getGeneratedField();
+				if (generatedField != null && EntityHandler.getValue(entity, generatedField) == null) {
+					generatedEntities.add(entity);
+				} else {
+					keyedEntities.add(entity);
+				}
+			}
+
+			if (!keyedEntities.isEmpty()) {
+				upsertBatch(keyedEntities, null);
+			}
+
+			if (!generatedEntities.isEmpty()) {
+				List<Object> generatedKeys = upsertBatch(generatedEntities, EntityHandler.getGeneratedIdClass(generatedEntities.get(0)));
+				if (generatedKeys.size() != generatedEntities.size()) {
+					throw new RuntimeException("Generated values of the upserted entities could not be read!");
+				}
+
+				int idCount = 0;
+				for (Entity entity : generatedEntities) {
+					EntityHandler.setGeneratedValue(entity, generatedKeys.get(idCount++));
+				}
+			}
+
+			for (Entity entity : entities) {
+				EntityHandler.setInternalId(entity);
+				EntityHandler.setWriteSnapshot(entity);
+			}
+
+		} catch (SQLException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private List<Object> upsertBatch(final List<Entity> entities, final Class<?> generatedIdClass) throws SQLException {
+		long batchCount = 0;
+		PreparedStatement pstmt = null;
+		List<Object> generatedKeys = new ArrayList<Object>();
+
+		for (Entity entity : entities) {
+			if (pstmt == null) {
+				pstmt = EntityUpdate.getUpsert(entity.getClass(), generatedIdClass != null);
+				if (LOG_SQL) {
+					LOGGER.log(Level.INFO, pstmt.toString());
+	    		}
+			}
+
+			EntityUpdate.putUpsertValues(pstmt, entity);
+			pstmt.addBatch();
+
+			if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == entities.size()) {
+				generatedKeys.addAll(executeUpdate(pstmt, generatedIdClass, batchCount == entities.size()));
+			}
+		}
+		return generatedKeys;
+	}
+
 	private void updateDefault(final Collection<? extends Entity> entities) {
 
 		final Map<Class<?>, List<Entity>> oneToOneMap = new HashMap<Class<?>, List<Entity>>();
@@ -293,6 +447,18 @@ import com.jsmartdb.framework.annotation.ManyToMany;
         	EntityHandler.getOneToManyMap(entity, CascadeType.UPDATE, true, oneToManyToManyMap);
 		}
 
+		// Synchronized ManyToMany collections are copied, new entities are removed from the collections once inserted
+		final List<EntityBatch> joinBatches = new ArrayList<EntityBatch>();
+		for (List<EntityBatch> entityBatches : manyToManyMap.values()) {
+			for (EntityBatch entityBatch : entityBatches) {
+				if (EntityJoinSync.isSynchronized(entityBatch)) {
+					EntityBatch joinBatch = new EntityBatch(entityBatch.getEntity(), new ArrayList<Entity>(entityBatch.getCollection()));
+					joinBatch.setManyToMany(entityBatch.getManyToMany());
+					joinBatches.add(joinBatch);
+				}
+			}
+		}
+
 		// Cascade for OneToOne references
 		for (Class<?> clazz : oneToOneMap.keySet()) {
 			List<Entity> oneToOneList = oneToOneMap.get(clazz);
@@ -345,6 +511,8 @@ import com.jsmartdb.framework.annotation.ManyToMany;
 			}
 		}
 
+		EntityJoinSync.synchronize(joinBatches);
+
 		// Cascade for OneToMany references related to ManyToMany
 		for (Class<?> clazz : oneToManyToManyMap.keySet()) {
 			for (EntityBatch entityBatch : oneToManyToManyMap.get(clazz)) {
@@ -424,22 +592,31 @@ import com.jsmartdb.framework.annotation.ManyToMany;
 
 	private void updateBatch(final Collection<? extends Entity> entities) {
 		try {
-			long batchCount = 0;
-			PreparedStatement pstmt = null;
+			for (Entry<List<Object>, List<Entity>> maskGroup : getUpdateMaskGroups(entities).entrySet()) {
+				BitSet updateMask = (BitSet) maskGroup.getKey().get(1);
+				List<Entity> maskEntities = maskGroup.getValue();
+
+				long batchCount = 0;
+				PreparedStatement pstmt = null;
+
+				for (Entity entity : maskEntities) {
+					if (pstmt == null) {
+						pstmt = EntityUpdate.getUpdate(entity.getClass(), updateMask);
+						if (LOG_SQL) {
+							LOGGER.log(Level.INFO, pstmt.toString());
+			    		}
+					}
 
-			for (Entity entity : entities) {
-				if (pstmt == null) {
-					pstmt = EntityUpdate.getUpdate(entity.getClass());
-					if (LOG_SQL) {
-						LOGGER.log(Level.INFO, pstmt.toString());
-		    		}
-				}
+					EntityUpdate.putUpdateValues(pstmt, entity, updateMask);
+					pstmt.addBatch();
 
-				EntityUpdate.putUpdateValues(pstmt, entity);
-				pstmt.addBatch();
+					if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == maskEntities.size()) {
+						executeUpdate(pstmt, null, batchCount == maskEntities.size());
+					}
+				}
 
-				if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == entities.size()) {
-					executeUpdate(pstmt, null, batchCount == entities.size());
+				for (Entity entity : maskEntities) {
+					EntityHandler.setWriteSnapshot(entity);
 				}
 			}
 		} catch (SQLException ex) {
@@ -447,8 +624,33 @@ import com.jsmartdb.framework.annotation.ManyToMany;
 		}
 	}
 
+	// Update statements only set the changed columns, so entities with the same changes share a batch and unchanged entities are skipped
+	private Map<List<Object>, List<Entity>> getUpdateMaskGroups(final Collection<? extends Entity> entities) {
+		final Map<List<Object>, List<Entity>> maskGroups = new LinkedHashMap<List<Object>, List<Entity>>();
+
+		for (Entity entity : entities) {
+			BitSet updateMask = EntityUpdate.getUpdateMask(entity);
+			if (updateMask.isEmpty()) {
+				continue;
+			}
+
+			List<Object> maskKey = Arrays.<Object>asList(entity.getClass(), updateMask);
+			List<Entity> maskEntities = maskGroups.get(maskKey);
+
+			if (maskEntities == null) {
+				maskEntities = new ArrayList<Entity>();
+				maskGroups.put(maskKey, maskEntities);
+			}
+			maskEntities.add(entity);
+		}
+		return maskGroups;
+	}
+
 	/*package*/ void delete(final Collection<? extends Entity> entities, boolean blockCascade) {
 		if (entities != null && !entities.isEmpty()) {
+			for (Entity entity : entities) {
+				EntityContext.addWrite(entity, CascadeType.DELETE);
+			}
 			EntityContext.setBlockCascade(blockCascade);
 			if (EntityHandler.isJoinTable(entities.iterator().next().getClass())) {
 				deleteJoin(entities);
@@ -537,24 +739,26 @@ import com.jsmartdb.framework.annotation.ManyToMany;
 
 	private void deleteJoin(final Collection<? extends Entity> joinEntities) {
 		try {
-			long batchCount = 0;
-			PreparedStatement pstmt = null;
+			for (List<Entity> maskEntities : getDeleteMaskGroups(deleteKeyBatch(joinEntities))) {
+				long batchCount = 0;
+				PreparedStatement pstmt = null;
 
-			for (Entity joinEntity : joinEntities) {
-				EntityHandler.validateColumns(joinEntity);
+				for (Entity joinEntity : maskEntities) {
+					EntityHandler.validateColumns(joinEntity);
 
-				if (pstmt == null) {
-					pstmt = EntityUpdate.getDeleteJoin(joinEntity);
-					if (LOG_SQL) {
-						LOGGER.log(Level.INFO, pstmt.toString());
+					if (pstmt == null) {
+						pstmt = EntityUpdate.getDeleteJoin(joinEntity);
+						if (LOG_SQL) {
+							LOGGER.log(Level.INFO, pstmt.toString());
+						}
 					}
-				}
 
-				EntityUpdate.putDeleteJoinValues(pstmt, joinEntity);
-				pstmt.addBatch();
+					EntityUpdate.putDeleteJoinValues(pstmt, joinEntity);
+					pstmt.addBatch();
 
-				if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == joinEntities.size()) {
-					executeUpdate(pstmt, null, batchCount == joinEntities.size());
+					if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == maskEntities.size()) {
+						executeUpdate(pstmt, null, batchCount == maskEntities.size());
+					}
 				}
 			}
 
@@ -610,27 +814,114 @@ import com.jsmartdb.framework.annotation.ManyToMany;
 
 	private void deleteBatch(final Collection<? extends Entity> entities) {
 		try {
+			for (List<Entity> maskEntities : getDeleteMaskGroups(deleteKeyBatch(entities))) {
+				long batchCount = 0;
+				PreparedStatement pstmt = null;
+
+				for (Entity entity : maskEntities) {
+					if (pstmt == null) {
+						pstmt = EntityUpdate.getDelete(entity);
+						if (LOG_SQL) {
+							LOGGER.log(Level.INFO, pstmt.toString());
+			    		}
+					}
+
+					EntityUpdate.putDeleteValues(pstmt, entity);
+					pstmt.addBatch();
+
+					if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == maskEntities.size()) {
+						executeUpdate(pstmt, null, batchCount == maskEntities.size());
+					}
+				}
+			}
+		} catch (SQLException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/*
+	 * With batch delete in size configured, entities with all key fields filled are deleted by key in chunks of 
+	 * delete in statements. Returns the entities left to be deleted by their non null columns.
+	 */
+	private Collection<? extends Entity> deleteKeyBatch(final Collection<? extends Entity> entities) throws SQLException {
+		if (ConnectionFactory.DELETE_IN_SIZE <= 0) {
+			return entities;
+		}
+
+		final Map<Class<?>, List<Entity>> keyGroups = new LinkedHashMap<Class<?>, List<Entity>>();
+		final List<Entity> maskEntities = new ArrayList<Entity>();
+
+		for (Entity entity : entities) {
+			if (!EntityUpdate.isKeyDelete(entity)) {
+				maskEntities.add(entity);
+				continue;
+			}
+
+			List<Entity> keyEntities = keyGroups.get(entity.getClass());
+			if (keyEntities == null) {
+				keyEntities = new ArrayList<Entity>();
+				keyGroups.put(entity.getClass(), keyEntities);
+			}
+			keyEntities.add(entity);
+		}
+
+		for (Class<?> clazz : keyGroups.keySet()) {
+			List<Entity> keyEntities = keyGroups.get(clazz);
+
+			int chunkSize = ConnectionFactory.DELETE_IN_SIZE;
+			int chunkCount = keyEntities.size() / chunkSize;
+
 			long batchCount = 0;
 			PreparedStatement pstmt = null;
 
-			for (Entity entity : entities) {
+			// Full chunks share the same statement in one batch
+			for (int i = 0; i < chunkCount; i++) {
 				if (pstmt == null) {
-					pstmt = EntityUpdate.getDelete(entity);
+					pstmt = EntityUpdate.getDeleteIn(clazz, chunkSize);
 					if (LOG_SQL) {
 						LOGGER.log(Level.INFO, pstmt.toString());
 		    		}
 				}
 
-				EntityUpdate.putDeleteValues(pstmt, entity);
+				EntityUpdate.putDeleteInValues(pstmt, keyEntities.subList(i * chunkSize, (i + 1) * chunkSize));
 				pstmt.addBatch();
 
-				if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == entities.size()) {
-					executeUpdate(pstmt, null, batchCount == entities.size());
+				if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == chunkCount) {
+					executeUpdate(pstmt, null, batchCount == chunkCount);
 				}
 			}
-		} catch (SQLException ex) {
-			throw new RuntimeException(ex);
+
+			if (keyEntities.size() % chunkSize != 0) {
+				List<Entity> lastChunk = keyEntities.subList(chunkCount * chunkSize, keyEntities.size());
+
+				pstmt = EntityUpdate.getDeleteIn(clazz, lastChunk.size());
+				if (LOG_SQL) {
+					LOGGER.log(Level.INFO, pstmt.toString());
+	    		}
+
+				EntityUpdate.putDeleteInValues(pstmt, lastChunk);
+				pstmt.addBatch();
+				executeUpdate(pstmt, null, true);
+			}
+		}
+		return maskEntities;
+	}
+
+	// Delete statements filter by the non null columns, so only entities with the same columns filled share a batch
+	private Collection<List<Entity>> getDeleteMaskGroups(final Collection<? extends Entity> entities) {
+		final Map<List<Object>, List<Entity>> maskGroups = new LinkedHashMap<List<Object>, List<Entity>>();
+
+		for (Entity entity : entities) {
+			List<Object> maskKey = Arrays.<Object>asList(entity.getClass(), EntityUpdate.getDeleteMask(entity));
+			List<Entity> maskEntities = maskGroups.get(maskKey);
+
+			if (maskEntities == null) {
+				maskEntities = new ArrayList<Entity>();
+				maskGroups.put(maskKey, maskEntities);
+			}
+			maskEntities.add(entity);
 		}
+		return maskGroups.values();
 	}
 
 	private List<Object> executeUpdate(final PreparedStatement pstmt, final Class<?> generatedIdClass, final boolean closePstmt) {
@@ -651,7 +942,7 @@ import com.jsmartdb.framework.annotation.ManyToMany;
 	        } finally {
 	        	if (closePstmt) {
 		        	try {
-		        		pstmt.close();
+		        		EntityContext.closeStatement(pstmt);
 		        	} catch (SQLException ex) {
 		        		throw new RuntimeException(ex);
 		        	}
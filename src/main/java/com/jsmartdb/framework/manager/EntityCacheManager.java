@@ -0,0 +1,369 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jsmartdb.framework.annotation.Table;
+
+// Second level cache of entity graphs by primary key, one region per cacheable Table.
+/*package*/ final class EntityCacheManager {
+
+	private static Logger LOGGER = Logger.getLogger(EntityCacheManager.class.getPackage().getName());
+
+	private static final EntityCacheProvider PROVIDER = getProvider();
+
+	// Rows referenced by cached graphs are tracked up to this count, the whole cache is cleared beyond it
+	private static final int MAX_REFERENCES = 1 << 20;
+
+	private static final ConcurrentMap<Class<?>, EntityCache> CACHES = new ConcurrentHashMap<Class<?>, EntityCache>();
+
+	// Bumped before a region is evicted, reads started before a write do not fill the region afterwards
+	private static final ConcurrentMap<Class<?>, AtomicLong> GENERATIONS = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+	// Class and key of a row to the class and key of the cached graphs holding it
+	private static final ConcurrentMap<List<Object>, Set<List<Object>>> REFERENCES = new ConcurrentHashMap<List<Object>, Set<List<Object>>>();
+
+	// Classes reachable through the eager join fields of a class, cached graphs may contain any of them
+	private static final ClassValue<Set<Class<?>>> JOINED_CLASSES = new ClassValue<Set<Class<?>>>() {
+
+		@Override
+		protected Set<Class<?>> computeValue(Class<?> clazz) {
+			Set<Class<?>> joinedClasses = new HashSet<Class<?>>();
+			addJoinedClasses(clazz, joinedClasses, new HashSet<Class<?>>());
+			return joinedClasses;
+		}
+	};
+
+	// Joined classes held by collections or one to one fields, new or moved rows of them may join cached graphs
+	private static final ClassValue<Set<Class<?>>> MEMBER_CLASSES = new ClassValue<Set<Class<?>>>() {
+
+		@Override
+		protected Set<Class<?>> computeValue(Class<?> clazz) {
+			Set<Class<?>> memberClasses = new HashSet<Class<?>>();
+			addJoinedClasses(clazz, new HashSet<Class<?>>(), memberClasses);
+			return memberClasses;
+		}
+	};
+
+	private EntityCacheManager() {
+		// DO NOTHING
+	}
+
+	private static EntityCacheProvider getProvider() {
+		String provider = EntityPersistence.getInstance().getProperty(EntityPersistence.CACHE_PROVIDER);
+		if (provider != null && !provider.trim().isEmpty()) {
+			try {
+				return (EntityCacheProvider) Class.forName(provider.trim()).newInstance();
+			} catch (Exception ex) {
+				LOGGER.log(Level.INFO, "Failure to create cache provider " + provider + ": " + ex.getMessage());
+			}
+		}
+		return new EntityCacheProvider() {
+
+			@Override
+			public EntityCache createCache(String name, int maxSize, long timeToLive) {
+				return new EntityLruCache(maxSize, timeToLive);
+			}
+		};
+	}
+
+	private static void addJoinedClasses(final Class<?> clazz, final Set<Class<?>> joinedClasses, final Set<Class<?>> memberClasses) {
+		EntityMetadata metadata = EntityMetadata.getMetadata(clazz);
+
+		for (EntityField field : metadata.getFields()) {
+			Class<?> joinedClass = null;
+
+			// Cached graphs hold lazy relations unloaded
+			if (field.isLazy()) {
+				continue;
+			}
+
+			if (field.getJoinId() != null) {
+				joinedClass = field.getType();
+			} else if (field.getOneToOne() != null) {
+				joinedClass = field.getType();
+				memberClasses.add(joinedClass);
+			} else if (field.getOneToMany() != null || field.getManyToMany() != null) {
+				joinedClass = field.getGenericType();
+				memberClasses.add(joinedClass);
+			}
+
+			if (joinedClass != null && joinedClasses.add(joinedClass)) {
+				addJoinedClasses(joinedClass, joinedClasses, memberClasses);
+			}
+		}
+	}
+
+	/*package*/ static Set<Class<?>> getJoinedClasses(final Class<?> clazz) {
+		return JOINED_CLASSES.get(clazz);
+	}
+
+	/*package*/ static EntityCache createCache(final String name, final int maxSize, final long timeToLive) {
+		return PROVIDER.createCache(name, maxSize, timeToLive);
+	}
+
+	/*package*/ static boolean isCacheable(final Class<?> clazz) {
+		Table table = EntityHandler.getTable(clazz);
+		return table != null && table.cacheable();
+	}
+
+	private static EntityCache getCache(final Class<?> clazz) {
+		EntityCache cache = CACHES.get(clazz);
+		if (cache == null) {
+			Table table = EntityHandler.getTable(clazz);
+			EntityCache newCache = createCache(table.name(), table.cacheSize(), table.cacheTimeToLive());
+			cache = CACHES.putIfAbsent(clazz, newCache);
+			if (cache == null) {
+				cache = newCache;
+			}
+		}
+		return cache;
+	}
+
+	/*package*/ static EntityCacheStatistics getStatistics(final Class<?> clazz) {
+		return isCacheable(clazz) ? getCache(clazz).getStatistics() : null;
+	}
+
+	// Copy of the cached graph, callers are free to change it
+	/*package*/ static Entity get(final Class<?> clazz, final Object key) {
+		Entity entity = (Entity) getCache(clazz).get(key);
+		return entity != null ? copy(entity) : null;
+	}
+
+	/*package*/ static long getGeneration(final Class<?> clazz) {
+		return getGenerationCounter(clazz).get();
+	}
+
+	private static AtomicLong getGenerationCounter(final Class<?> clazz) {
+		AtomicLong generation = GENERATIONS.get(clazz);
+		if (generation == null) {
+			AtomicLong newGeneration = new AtomicLong();
+			generation = GENERATIONS.putIfAbsent(clazz, newGeneration);
+			if (generation == null) {
+				generation = newGeneration;
+			}
+		}
+		return generation;
+	}
+
+	// Graph read since the given generation, checked again once stored as a write may have evicted meanwhile
+	/*package*/ static void put(final Entity entity, final Object key, final long generation) {
+		final Class<?> clazz = entity.getClass();
+		final EntityCache cache = getCache(clazz);
+		if (getGeneration(clazz) != generation) {
+			return;
+		}
+
+		if (REFERENCES.size() > MAX_REFERENCES) {
+			clear();
+			return;
+		}
+
+		Entity copy = copy(entity);
+		addReferences(copy, Arrays.<Object>asList(clazz, key), Collections.newSetFromMap(new IdentityHashMap<Entity, Boolean>()));
+		cache.put(key, copy);
+
+		if (getGeneration(clazz) != generation) {
+			cache.evict(key);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void addReferences(final Entity entity, final List<Object> holder, final Set<Entity> entities) {
+		if (!entities.add(entity)) {
+			return;
+		}
+
+		if (entities.size() > 1) {
+			Object key = EntityHandler.getIdKey(entity);
+			if (key != null) {
+				List<Object> reference = Arrays.<Object>asList(entity.getClass(), key);
+				Set<List<Object>> holders = REFERENCES.get(reference);
+				if (holders == null) {
+					Set<List<Object>> newHolders = Collections.newSetFromMap(new ConcurrentHashMap<List<Object>, Boolean>());
+					holders = REFERENCES.putIfAbsent(reference, newHolders);
+					if (holders == null) {
+						holders = newHolders;
+					}
+				}
+				holders.add(holder);
+			}
+		}
+
+		for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getFields()) {
+			Object value = EntityHandler.getValue(entity, field);
+
+			if (value instanceof Entity) {
+				addReferences((Entity) value, holder, entities);
+
+			} else if (value instanceof Collection && !EntityLazyLoader.isUnloaded(value)) {
+				for (Object item : (Collection<Object>) value) {
+					if (item instanceof Entity) {
+						addReferences((Entity) item, holder, entities);
+					}
+				}
+			}
+		}
+	}
+
+	/*package*/ static void clear() {
+		for (AtomicLong generation : GENERATIONS.values()) {
+			generation.incrementAndGet();
+		}
+		for (EntityCache cache : CACHES.values()) {
+			cache.clear();
+		}
+		REFERENCES.clear();
+	}
+
+	// Keys written per entity class, Entity class itself stands for writes of unknown tables. Written rows are evicted from 
+	// their region and from the graphs holding them, regions are only cleared when inserted or updated rows may join their graphs
+	/*package*/ static void evict(final Map<Class<?>, Set<Object>> writes, final Set<Class<?>> memberWrites) {
+		if (writes.containsKey(Entity.class)) {
+			clear();
+			return;
+		}
+
+		for (Entry<Class<?>, AtomicLong> generation : GENERATIONS.entrySet()) {
+			Class<?> cacheClass = generation.getKey();
+			Set<Class<?>> joinedClasses = JOINED_CLASSES.get(cacheClass);
+
+			boolean written = false;
+			for (Class<?> clazz : writes.keySet()) {
+				if (cacheClass == clazz || joinedClasses.contains(clazz)) {
+					written = true;
+					break;
+				}
+			}
+
+			if (written) {
+				generation.getValue().incrementAndGet();
+
+				EntityCache cache = CACHES.get(cacheClass);
+				if (cache != null && !Collections.disjoint(MEMBER_CLASSES.get(cacheClass), memberWrites)) {
+					cache.clear();
+				}
+			}
+		}
+
+		for (Entry<Class<?>, Set<Object>> write : writes.entrySet()) {
+			EntityCache cache = CACHES.get(write.getKey());
+
+			for (Object key : write.getValue()) {
+				if (cache != null) {
+					cache.evict(key);
+				}
+
+				Set<List<Object>> holders = REFERENCES.remove(Arrays.<Object>asList(write.getKey(), key));
+				if (holders != null) {
+					for (List<Object> holder : holders) {
+						EntityCache holderCache = CACHES.get(holder.get(0));
+						if (holderCache != null) {
+							holderCache.evict(holder.get(1));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/*package*/ static Entity copy(final Entity entity) {
+		try {
+			return copy(entity, new IdentityHashMap<Entity, Entity>());
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	// Entities shared between the listed graphs stay shared on the copies
+	/*package*/ static List<Entity> copy(final List<? extends Entity> entities) {
+		try {
+			Map<Entity, Entity> copies = new IdentityHashMap<Entity, Entity>();
+			List<Entity> entityCopies = new ArrayList<Entity>(entities.size());
+			for (Entity entity : entities) {
+				entityCopies.add(copy(entity, copies));
+			}
+			return entityCopies;
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Entity copy(final Entity entity, final Map<Entity, Entity> copies) throws Exception {
+		Entity copy = copies.get(entity);
+		if (copy != null) {
+			return copy;
+		}
+
+		copy = entity.getClass().newInstance();
+		EntityHandler.setInternalId(copy);
+		copy.snapshot = entity.snapshot;
+		copy.unloaded = entity.unloaded != null ? (BitSet) entity.unloaded.clone() : null;
+		copies.put(entity, copy);
+
+		for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getFields()) {
+			Object value = EntityHandler.getValue(entity, field);
+
+			// Copies load their own lazy collections
+			if (EntityLazyLoader.isUnloaded(value)) {
+				EntityLazyLoader.setLazyCollection(copy, field);
+				continue;
+			}
+
+			if (value instanceof Entity) {
+				value = copy((Entity) value, copies);
+
+			} else if (value instanceof Collection) {
+				Collection<Object> collection = (Collection<Object>) EntityHandler.getValue(copy, field);
+				if (collection != null) {
+					collection.clear();
+					for (Object item : (Collection<Object>) value) {
+						collection.add(item instanceof Entity ? copy((Entity) item, copies) : item);
+					}
+					continue;
+				}
+
+			} else if (value instanceof Date) {
+				value = ((Date) value).clone();
+			}
+
+			EntityHandler.setValue(copy, field, value);
+		}
+		return copy;
+	}
+
+}
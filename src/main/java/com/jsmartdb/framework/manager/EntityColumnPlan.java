@@ -0,0 +1,75 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Ordinal of every labeled select column, recorded while the select is built.
+/*package*/ final class EntityColumnPlan {
+
+	private static final int NO_COLUMN = 0;
+
+	private final Map<String, Map<String, Integer>> aliasColumns = new HashMap<String, Map<String, Integer>>();
+
+	// Plans of cached selects are shared between threads
+	private final Map<String, int[]> aliasIndexes = new ConcurrentHashMap<String, int[]>();
+
+	private int columnCount;
+
+	/*package*/ void addColumn(final String alias, final String columnName) {
+		columnCount++;
+
+		Map<String, Integer> columns = aliasColumns.get(alias);
+		if (columns == null) {
+			columns = new HashMap<String, Integer>();
+			aliasColumns.put(alias, columns);
+		}
+
+		// Keep the first ordinal as the label lookup on ResultSet would do
+		if (!columns.containsKey(columnName)) {
+			columns.put(columnName, columnCount);
+		}
+	}
+
+	/*package*/ int[] getIndexes(final String alias, final EntityMetadata metadata) {
+		int[] indexes = aliasIndexes.get(alias);
+		if (indexes == null) {
+			indexes = new int[metadata.getFieldCount()];
+
+			Map<String, Integer> columns = aliasColumns.get(alias);
+			if (columns != null) {
+				for (EntityField field : metadata.getFields()) {
+					if (field.isValueColumn()) {
+						Integer index = columns.get(field.getColumnName());
+						indexes[field.getIndex()] = index != null ? index : NO_COLUMN;
+					}
+				}
+			}
+			aliasIndexes.put(alias, indexes);
+		}
+		return indexes;
+	}
+
+	/*package*/ static boolean containsColumn(final int[] indexes, final EntityField field) {
+		return indexes[field.getIndex()] != NO_COLUMN;
+	}
+
+}
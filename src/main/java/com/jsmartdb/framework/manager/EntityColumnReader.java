@@ -0,0 +1,295 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+
+// Typed ResultSet column reader, chosen once per field type.
+/*package*/ abstract class EntityColumnReader {
+
+	private static final EntityColumnReader OBJECT_READER = new ObjectReader();
+
+	/*package*/ abstract Object read(final ResultSet rs, final int columnIndex) throws SQLException;
+
+	/*package*/ void readInto(final ResultSet rs, final int columnIndex, final Object target, final EntityAccessor accessor) throws SQLException {
+		accessor.set(target, read(rs, columnIndex));
+	}
+
+	/*package*/ static EntityColumnReader create(final Class<?> type) {
+		if (type == Integer.class || type == int.class) {
+			return new IntReader(type.isPrimitive());
+
+		} else if (type == Long.class || type == long.class) {
+			return new LongReader(type.isPrimitive());
+
+		} else if (type == Double.class || type == double.class) {
+			return new DoubleReader(type.isPrimitive());
+
+		} else if (type == Boolean.class || type == boolean.class) {
+			return new BooleanReader(type.isPrimitive());
+
+		} else if (type == Float.class || type == float.class) {
+			return new FloatReader(type.isPrimitive());
+
+		} else if (type == Short.class || type == short.class) {
+			return new ShortReader(type.isPrimitive());
+
+		} else if (type == Byte.class || type == byte.class) {
+			return new ByteReader(type.isPrimitive());
+
+		} else if (type == String.class) {
+			return new StringReader();
+
+		} else if (type == BigDecimal.class) {
+			return new BigDecimalReader();
+
+		} else if (type == Timestamp.class || type == Date.class) {
+			return new TimestampReader();
+
+		} else if (type == java.sql.Date.class) {
+			return new DateReader();
+
+		} else if (type == Time.class) {
+			return new TimeReader();
+		}
+		return OBJECT_READER;
+	}
+
+	private static final class IntReader extends EntityColumnReader {
+
+		private final boolean primitive;
+
+		private IntReader(final boolean primitive) {
+			this.primitive = primitive;
+		}
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			int value = rs.getInt(columnIndex);
+			return !primitive && rs.wasNull() ? null : Integer.valueOf(value);
+		}
+
+		@Override
+		/*package*/ void readInto(final ResultSet rs, final int columnIndex, final Object target, final EntityAccessor accessor) throws SQLException {
+			if (primitive) {
+				accessor.setInt(target, rs.getInt(columnIndex));
+			} else {
+				super.readInto(rs, columnIndex, target, accessor);
+			}
+		}
+	}
+
+	private static final class LongReader extends EntityColumnReader {
+
+		private final boolean primitive;
+
+		private LongReader(final boolean primitive) {
+			this.primitive = primitive;
+		}
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			long value = rs.getLong(columnIndex);
+			return !primitive && rs.wasNull() ? null : Long.valueOf(value);
+		}
+
+		@Override
+		/*package*/ void readInto(final ResultSet rs, final int columnIndex, final Object target, final EntityAccessor accessor) throws SQLException {
+			if (primitive) {
+				accessor.setLong(target, rs.getLong(columnIndex));
+			} else {
+				super.readInto(rs, columnIndex, target, accessor);
+			}
+		}
+	}
+
+	private static final class DoubleReader extends EntityColumnReader {
+
+		private final boolean primitive;
+
+		private DoubleReader(final boolean primitive) {
+			this.primitive = primitive;
+		}
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			double value = rs.getDouble(columnIndex);
+			return !primitive && rs.wasNull() ? null : Double.valueOf(value);
+		}
+
+		@Override
+		/*package*/ void readInto(final ResultSet rs, final int columnIndex, final Object target, final EntityAccessor accessor) throws SQLException {
+			if (primitive) {
+				accessor.setDouble(target, rs.getDouble(columnIndex));
+			} else {
+				super.readInto(rs, columnIndex, target, accessor);
+			}
+		}
+	}
+
+	private static final class BooleanReader extends EntityColumnReader {
+
+		private final boolean primitive;
+
+		private BooleanReader(final boolean primitive) {
+			this.primitive = primitive;
+		}
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			boolean value = rs.getBoolean(columnIndex);
+			return !primitive && rs.wasNull() ? null : Boolean.valueOf(value);
+		}
+
+		@Override
+		/*package*/ void readInto(final ResultSet rs, final int columnIndex, final Object target, final EntityAccessor accessor) throws SQLException {
+			if (primitive) {
+				accessor.setBoolean(target, rs.getBoolean(columnIndex));
+			} else {
+				super.readInto(rs, columnIndex, target, accessor);
+			}
+		}
+	}
+
+	private static final class FloatReader extends EntityColumnReader {
+
+		private final boolean primitive;
+
+		private FloatReader(final boolean primitive) {
+			this.primitive = primitive;
+		}
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			float value = rs.getFloat(columnIndex);
+			return !primitive && rs.wasNull() ? null : Float.valueOf(value);
+		}
+
+		@Override
+		/*package*/ void readInto(final ResultSet rs, final int columnIndex, final Object target, final EntityAccessor accessor) throws SQLException {
+			if (primitive) {
+				accessor.setFloat(target, rs.getFloat(columnIndex));
+			} else {
+				super.readInto(rs, columnIndex, target, accessor);
+			}
+		}
+	}
+
+	private static final class ShortReader extends EntityColumnReader {
+
+		private final boolean primitive;
+
+		private ShortReader(final boolean primitive) {
+			this.primitive = primitive;
+		}
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			short value = rs.getShort(columnIndex);
+			return !primitive && rs.wasNull() ? null : Short.valueOf(value);
+		}
+
+		@Override
+		/*package*/ void readInto(final ResultSet rs, final int columnIndex, final Object target, final EntityAccessor accessor) throws SQLException {
+			if (primitive) {
+				accessor.setShort(target, rs.getShort(columnIndex));
+			} else {
+				super.readInto(rs, columnIndex, target, accessor);
+			}
+		}
+	}
+
+	private static final class ByteReader extends EntityColumnReader {
+
+		private final boolean primitive;
+
+		private ByteReader(final boolean primitive) {
+			this.primitive = primitive;
+		}
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			byte value = rs.getByte(columnIndex);
+			return !primitive && rs.wasNull() ? null : Byte.valueOf(value);
+		}
+
+		@Override
+		/*package*/ void readInto(final ResultSet rs, final int columnIndex, final Object target, final EntityAccessor accessor) throws SQLException {
+			if (primitive) {
+				accessor.setByte(target, rs.getByte(columnIndex));
+			} else {
+				super.readInto(rs, columnIndex, target, accessor);
+			}
+		}
+	}
+
+	private static final class StringReader extends EntityColumnReader {
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			return rs.getString(columnIndex);
+		}
+	}
+
+	private static final class BigDecimalReader extends EntityColumnReader {
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			return rs.getBigDecimal(columnIndex);
+		}
+	}
+
+	private static final class TimestampReader extends EntityColumnReader {
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			return rs.getTimestamp(columnIndex);
+		}
+	}
+
+	private static final class DateReader extends EntityColumnReader {
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			return rs.getDate(columnIndex);
+		}
+	}
+
+	private static final class TimeReader extends EntityColumnReader {
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			return rs.getTime(columnIndex);
+		}
+	}
+
+	private static final class ObjectReader extends EntityColumnReader {
+
+		@Override
+		/*package*/ Object read(final ResultSet rs, final int columnIndex) throws SQLException {
+			return rs.getObject(columnIndex, SQLTypes.getSQLTypes());
+		}
+	}
+
+}
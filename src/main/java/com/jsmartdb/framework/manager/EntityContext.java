@@ -20,21 +20,29 @@ package com.jsmartdb.framework.manager;
 
 import java.lang.reflect.Field;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.jsmartdb.framework.types.CascadeType;
 import com.jsmartdb.framework.types.OrderType;
 
 /*package*/ final class EntityContext {
 
 	/*package*/ static final Integer DEFAULT = -1;
 
-	private static final Map<Thread, EntityContext> CONTEXT_MAP = new HashMap<Thread, EntityContext>();
+	// Context bound to the calling thread, only that thread reads or writes it
+	private static final ThreadLocal<EntityContext> CURRENT_CONTEXT = new ThreadLocal<EntityContext>();
+
+	private static final Boolean IDENTITY_MAP = new Boolean(EntityPersistence.getInstance().getProperty(EntityPersistence.IDENTITY_MAP));
 
 	private Connection connection;
 
@@ -42,6 +50,23 @@ import com.jsmartdb.framework.types.OrderType;
 
 	private boolean userTransaction;
 
+	private boolean borrowedConnection;
+
+	// Update statements reused while the connection is held
+	private EntityStatementCache statements;
+
+	private EntityIdentityMap identityMap;
+
+	private boolean completeGraph;
+
+	private Map<Class<?>, Set<Object>> cacheWrites;
+
+	// Classes of inserted or updated rows, which may have joined collections of cached graphs
+	private Set<Class<?>> cacheMemberWrites;
+
+	// Snapshots of written entities, only set on the entities once the changes are committed
+	private Map<Entity, Object[]> snapshots;
+
 
 	private Map<String, String> aliases;
 
@@ -70,6 +95,11 @@ import com.jsmartdb.framework.types.OrderType;
 
 	private Integer maxResult = DEFAULT;
 
+	private boolean keysetPaging;
+
+	private Object[] keysetValues;
+
+	private boolean idOrder;
 
 	private StringBuilder selectBuilder;
 
@@ -81,6 +111,10 @@ import com.jsmartdb.framework.types.OrderType;
 
 	private List<Object> builderValues;
 
+	private EntityColumnPlan columnPlan;
+
+	private EntityRowIndex rowIndex;
+
 	private EntityContext() {
 		clearBuilderContext();
 		aliases = new HashMap<String, String>();
@@ -91,22 +125,76 @@ import com.jsmartdb.framework.types.OrderType;
 		blockJoin = false;
 		blockCascade = false;
 		joinBlockClasses = new HashSet<Class<?>>();
+		statements = ConnectionFactory.STATEMENT_CACHE_SIZE > 0 ? new EntityStatementCache(ConnectionFactory.STATEMENT_CACHE_SIZE) : null;
 		connection = ConnectionFactory.getConnection();
 	}
 
-	private EntityContext(boolean userTransaction) {
+	private EntityContext(boolean userTransaction, boolean identityMap) {
 		this();
 		this.userTransaction = userTransaction; 
+		this.identityMap = identityMap ? new EntityIdentityMap() : null;
+	}
+
+	// Copy of a user transaction query state sharing its connection
+	private EntityContext(EntityContext transaction) {
+		clearBuilderContext();
+		aliases = new HashMap<String, String>(transaction.aliases);
+		orderBy = transaction.orderBy;
+		orderDir = transaction.orderDir;
+		firstResult = transaction.firstResult;
+		maxResult = transaction.maxResult;
+		blockJoin = transaction.blockJoin;
+		blockCascade = transaction.blockCascade;
+		joinBlockClasses = new HashSet<Class<?>>(transaction.joinBlockClasses);
+		columnPlan = transaction.columnPlan;
+		connection = transaction.connection;
+		borrowedConnection = true;
+	}
+
+	// Fresh query state sharing the connection and identity map of an open context
+	private EntityContext(Connection connection, EntityIdentityMap identityMap) {
+		clearBuilderContext();
+		aliases = new HashMap<String, String>();
+		joinBlockClasses = new HashSet<Class<?>>();
+		statements = ConnectionFactory.STATEMENT_CACHE_SIZE > 0 ? new EntityStatementCache(ConnectionFactory.STATEMENT_CACHE_SIZE) : null;
+		this.identityMap = identityMap;
+		this.connection = connection;
+		borrowedConnection = true;
 	}
 
 	private final void close() {
-		ConnectionFactory.putConnection(connection, rollbackChanges);
+		if (statements != null) {
+			statements.close();
+		}
+		// Evicted before commit so no reader gets the old rows from cache, and after it to drop reads stored meanwhile
+		if (cacheWrites != null && !borrowedConnection) {
+			EntityCacheManager.evict(cacheWrites, cacheMemberWrites);
+		}
+		if (!borrowedConnection) {
+			ConnectionFactory.putConnection(connection, rollbackChanges);
+		}
+		if (snapshots != null && !rollbackChanges) {
+			for (Map.Entry<Entity, Object[]> snapshot : snapshots.entrySet()) {
+				snapshot.getKey().snapshot = snapshot.getValue();
+			}
+		}
+		if (cacheWrites != null) {
+			EntityCacheManager.evict(cacheWrites, cacheMemberWrites);
+			EntityQueryCache.invalidate(cacheWrites.keySet());
+		}
 		connection = null;
+		statements = null;
 		aliases = null;
 		selectBuilder = null;
 		joinBuilder = null;
 		whereBuilder = null;
 		orderBuilder = null;
+		columnPlan = null;
+		rowIndex = null;
+		identityMap = null;
+		cacheWrites = null;
+		cacheMemberWrites = null;
+		snapshots = null;
 		manyToManyCascades = null;
 	}
 
@@ -125,39 +213,81 @@ import com.jsmartdb.framework.types.OrderType;
 	}
 
 	private static final EntityContext getCurrentInstance() {
-		return CONTEXT_MAP.get(Thread.currentThread());
+		return CURRENT_CONTEXT.get();
 	}
 
 	/*package*/ static final void initCurrentInstance() {
-		if (!CONTEXT_MAP.containsKey(Thread.currentThread())) {
-			CONTEXT_MAP.put(Thread.currentThread(), new EntityContext());
+		if (CURRENT_CONTEXT.get() == null) {
+			CURRENT_CONTEXT.set(new EntityContext());
 		}
 	}
 
 	/*package*/ static final void closeCurrentInstance() {
-		final EntityContext context = CONTEXT_MAP.get(Thread.currentThread());
+		final EntityContext context = CURRENT_CONTEXT.get();
 		if (context != null && !context.isUserTransaction()) {
-			CONTEXT_MAP.remove(Thread.currentThread()).close();
+			CURRENT_CONTEXT.remove();
+			context.close();
 		}
 	}
 
 	/*package*/ static final void initUserTransaction() {
-		final EntityContext context = CONTEXT_MAP.get(Thread.currentThread());
+		initUserTransaction(IDENTITY_MAP);
+	}
+
+	/*package*/ static final void initUserTransaction(boolean identityMap) {
+		final EntityContext context = CURRENT_CONTEXT.get();
 		if (context != null) {
-			CONTEXT_MAP.remove(Thread.currentThread()).close();
+			CURRENT_CONTEXT.remove();
+			context.close();
 		}
-		CONTEXT_MAP.put(Thread.currentThread(), new EntityContext(true));
+		CURRENT_CONTEXT.set(new EntityContext(true, identityMap));
 	}
 
 	/*package*/ static final void closeUserTransaction(boolean rollbackChanges) {
-		final EntityContext context = CONTEXT_MAP.get(Thread.currentThread());
+		final EntityContext context = CURRENT_CONTEXT.get();
 		if (context != null && context.isUserTransaction()) {
-			CONTEXT_MAP.remove(Thread.currentThread());
+			CURRENT_CONTEXT.remove();
 			context.rollbackChanges = rollbackChanges;
 			context.close();
 		}
 	}
 
+	// Detach the current query context so it can outlive the EntityManager call
+	/*package*/ static final EntityContext detachCurrentInstance() {
+		final EntityContext context = getCurrentInstance();
+		if (context.isUserTransaction()) {
+			return new EntityContext(context);
+		}
+		CURRENT_CONTEXT.remove();
+		return context;
+	}
+
+	// Nested query context on the connection of the current one, null when no context is open
+	/*package*/ static final EntityContext borrowCurrentInstance() {
+		final EntityContext context = getCurrentInstance();
+		return context != null ? new EntityContext(context.connection, context.identityMap) : null;
+	}
+
+	/*package*/ static final EntityContext bindInstance(EntityContext context) {
+		final EntityContext previous = CURRENT_CONTEXT.get();
+		CURRENT_CONTEXT.set(context);
+		return previous;
+	}
+
+	/*package*/ static final void unbindInstance(EntityContext previous) {
+		if (previous != null) {
+			CURRENT_CONTEXT.set(previous);
+		} else {
+			CURRENT_CONTEXT.remove();
+		}
+	}
+
+	/*package*/ static final void closeInstance(EntityContext context) {
+		if (context != null) {
+			context.close();
+		}
+	}
+
 	/*package*/ static final Connection getConnection() {
 		return getCurrentInstance().connection;
 	}
@@ -166,6 +296,35 @@ import com.jsmartdb.framework.types.OrderType;
 		getCurrentInstance().connection = connection;
 	}
 
+	/*package*/ static final PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		final EntityContext context = getCurrentInstance();
+		if (context.statements == null) {
+			return context.connection.prepareStatement(sql, autoGeneratedKeys);
+		}
+
+		String key = autoGeneratedKeys + sql;
+		PreparedStatement pstmt = context.statements.get(key);
+
+		if (pstmt != null) {
+			// A failed batch may have left pending rows behind
+			pstmt.clearParameters();
+			pstmt.clearBatch();
+			return pstmt;
+		}
+
+		pstmt = context.connection.prepareStatement(sql, autoGeneratedKeys);
+		context.statements.put(key, pstmt);
+		return pstmt;
+	}
+
+	// Statements kept by the context are closed along with it
+	/*package*/ static final void closeStatement(PreparedStatement pstmt) throws SQLException {
+		final EntityContext context = getCurrentInstance();
+		if (context.statements == null || context.statements.release(pstmt)) {
+			pstmt.close();
+		}
+	}
+
 	/*package*/ static final boolean isRollbackChanges() {
 		return getCurrentInstance().rollbackChanges;
 	}
@@ -176,6 +335,106 @@ import com.jsmartdb.framework.types.OrderType;
 
 
 
+	// Null when the current context is not an identity mapped user transaction
+	/*package*/ static final EntityIdentityMap getIdentityMap() {
+		return getCurrentInstance().identityMap;
+	}
+
+	// Writes clear the identity map and evict the second level cache once the context is closed, null entity for native updates
+	/*package*/ static final void addWrite(Entity entity, CascadeType cascadeType) {
+		final EntityContext context = getCurrentInstance();
+		if (context.identityMap != null) {
+			context.identityMap.clear();
+		}
+
+		if (context.cacheWrites == null) {
+			context.cacheWrites = new HashMap<Class<?>, Set<Object>>();
+			context.cacheMemberWrites = new HashSet<Class<?>>();
+		}
+
+		if (entity != null) {
+			context.addCacheWrite(entity, cascadeType, Collections.newSetFromMap(new IdentityHashMap<Entity, Boolean>()));
+		} else {
+			context.cacheWrites.put(Entity.class, new HashSet<Object>());
+		}
+	}
+
+	// Rows reached by the cascades of a write are written as well, lazy collections not loaded only change on deletes
+	@SuppressWarnings("unchecked")
+	private final void addCacheWrite(final Entity entity, final CascadeType cascadeType, final Set<Entity> entities) {
+		if (entity == null || !entities.add(entity)) {
+			return;
+		}
+
+		final Class<?> clazz = entity.getClass();
+		Set<Object> keys = cacheWrites.get(clazz);
+		if (keys == null) {
+			keys = new HashSet<Object>();
+			cacheWrites.put(clazz, keys);
+		}
+
+		final Object key = EntityHandler.getIdKey(entity);
+		if (key != null) {
+			keys.add(key);
+		}
+
+		if (cascadeType != CascadeType.DELETE) {
+			cacheMemberWrites.add(clazz);
+		}
+
+		for (EntityField field : EntityMetadata.getMetadata(clazz).getFields()) {
+			if (field.getJoinId() != null) {
+				if (EntityHandler.containsCascadeType(field.getJoinId().cascade(), cascadeType)) {
+					addCacheWrite((Entity) EntityHandler.getValue(entity, field), cascadeType, entities);
+				}
+
+			} else if (field.getOneToOne() != null) {
+				if (EntityHandler.containsCascadeType(field.getOneToOne().cascade(), cascadeType)) {
+					addCacheWrite((Entity) EntityHandler.getValue(entity, field), cascadeType, entities);
+				}
+
+			// Rows of join tables are written along with their owner
+			} else if ((field.getOneToMany() != null && (EntityHandler.containsCascadeType(field.getOneToMany().cascade(), cascadeType) 
+					|| EntityHandler.isJoinTable(field.getGenericType()))) 
+					|| (field.getManyToMany() != null && EntityHandler.containsCascadeType(field.getManyToMany().cascade(), cascadeType))) {
+
+				Collection<Entity> collection = (Collection<Entity>) EntityHandler.getValue(entity, field);
+				if (collection != null && (cascadeType == CascadeType.DELETE || !EntityLazyLoader.isUnloaded(collection))) {
+					for (Entity item : collection) {
+						addCacheWrite(item, cascadeType, entities);
+					}
+				}
+			}
+		}
+	}
+
+	/*package*/ static final void addSnapshot(Entity entity, Object[] snapshot) {
+		final EntityContext context = getCurrentInstance();
+		if (context.snapshots == null) {
+			context.snapshots = new IdentityHashMap<Entity, Object[]>();
+		}
+		context.snapshots.put(entity, snapshot);
+	}
+
+	// Snapshot of an entity written by the current context and not committed yet
+	/*package*/ static final Object[] getSnapshot(Entity entity) {
+		final EntityContext context = getCurrentInstance();
+		return context != null && context.snapshots != null ? context.snapshots.get(entity) : null;
+	}
+
+	// Contexts with pending writes neither read nor fill the second level cache
+	/*package*/ static final boolean isCacheDirty() {
+		return getCurrentInstance().cacheWrites != null;
+	}
+
+	/*package*/ static final boolean isCompleteGraph() {
+		return getCurrentInstance().completeGraph;
+	}
+
+	/*package*/ static final void setCompleteGraph(boolean completeGraph) {
+		getCurrentInstance().completeGraph = completeGraph;
+	}
+
 	/*package*/ static final String getOrderBy() {
 		return getCurrentInstance().orderBy;
 	}
@@ -245,12 +504,40 @@ import com.jsmartdb.framework.types.OrderType;
 		}
 	}
 
-	
+	/*package*/ static final boolean isKeysetPaging() {
+		return getCurrentInstance().keysetPaging;
+	}
+
+	/*package*/ static final Object[] getKeysetValues() {
+		return getCurrentInstance().keysetValues;
+	}
+
+	/*package*/ static final void setKeyset(boolean keysetPaging, Object[] keysetValues) {
+		EntityContext context = getCurrentInstance();
+		context.keysetPaging = keysetPaging;
+		context.keysetValues = keysetValues;
+	}
+
+	/*package*/ static final boolean isIdOrder() {
+		return getCurrentInstance().idOrder;
+	}
+
+	/*package*/ static final void setIdOrder(boolean idOrder) {
+		getCurrentInstance().idOrder = idOrder;
+	}
 
 	/*package*/ static final String getAliasCounter() {
 		return (++getCurrentInstance().aliasCounter) + "_";
 	}
 
+	/*package*/ static final int getAliasCount() {
+		return getCurrentInstance().aliasCounter;
+	}
+
+	/*package*/ static final void setAliasCount(int aliasCounter) {
+		getCurrentInstance().aliasCounter = aliasCounter;
+	}
+
 	/*package*/ static final boolean containsBuildBlockedClass(Class<?> clazz) {
 		return getCurrentInstance().buildBlockedClasses.contains(clazz);
 	}
@@ -323,6 +610,30 @@ import com.jsmartdb.framework.types.OrderType;
 		return getCurrentInstance().builderValues;
 	}
 
+	/*package*/ final static EntityColumnPlan getColumnPlan() {
+		return getCurrentInstance().columnPlan;
+	}
+
+	/*package*/ final static void initColumnPlan() {
+		getCurrentInstance().columnPlan = new EntityColumnPlan();
+	}
+
+	/*package*/ final static void setColumnPlan(EntityColumnPlan columnPlan) {
+		getCurrentInstance().columnPlan = columnPlan;
+	}
+
+	/*package*/ final static EntityRowIndex getRowIndex() {
+		return getCurrentInstance().rowIndex;
+	}
+
+	/*package*/ final static void setRowIndex(EntityRowIndex rowIndex) {
+		getCurrentInstance().rowIndex = rowIndex;
+	}
+
+	/*package*/ final static void addPlanColumn(String alias, String columnName) {
+		getCurrentInstance().columnPlan.addColumn(alias, columnName);
+	}
+
 	/*package*/ final static String getSQLBuilder() {
 		final EntityContext context = getCurrentInstance();
 		return context.selectBuilder.append(context.joinBuilder.append(context.whereBuilder.append(context.orderBuilder))).toString();
@@ -0,0 +1,259 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.util.List;
+import java.util.Set;
+
+import com.jsmartdb.framework.types.FetchType;
+import com.jsmartdb.framework.types.TableType;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.JoinId;
+import com.jsmartdb.framework.annotation.ManyToMany;
+import com.jsmartdb.framework.annotation.OneToMany;
+import com.jsmartdb.framework.annotation.OneToOne;
+import com.jsmartdb.framework.annotation.Table;
+import com.jsmartdb.framework.annotation.Transient;
+
+// Immutable descriptor of one entity field with its annotations resolved once.
+/*package*/ final class EntityField {
+
+	private final Field field;
+
+	private final int index;
+
+	private final EntityAccessor accessor;
+
+	private final EntityColumnReader reader;
+
+	private final Id id;
+
+	private final Column column;
+
+	private final JoinId joinId;
+
+	private final OneToOne oneToOne;
+
+	private final OneToMany oneToMany;
+
+	private final ManyToMany manyToMany;
+
+	private final boolean reserved;
+
+	private final boolean transientField;
+
+	private final boolean collection;
+
+	private final String columnName;
+
+	private final Class<?> genericType;
+
+	private final Class<?> refererClass;
+
+	private final String refererName;
+
+	private final Class<?> joinColumnClass;
+
+	private final String joinColumnName;
+
+	private final String aliasKey;
+
+	private final boolean lazy;
+
+	/*package*/ EntityField(final Class<?> clazz, final Field field, final int index) {
+		this.field = field;
+		this.index = index;
+		this.accessor = EntityAccessor.create(field);
+		this.reader = EntityColumnReader.create(field.getType());
+		this.id = field.getAnnotation(Id.class);
+		this.column = field.getAnnotation(Column.class);
+		this.joinId = field.getAnnotation(JoinId.class);
+		this.oneToOne = field.getAnnotation(OneToOne.class);
+		this.oneToMany = field.getAnnotation(OneToMany.class);
+		this.manyToMany = field.getAnnotation(ManyToMany.class);
+		this.reserved = Modifier.isStatic(field.getModifiers());
+		this.transientField = field.getAnnotation(Transient.class) != null;
+		this.collection = field.getType() == List.class || field.getType() == Set.class;
+
+		if (column != null) {
+			this.columnName = column.name();
+		} else if (id != null) {
+			this.columnName = id.name();
+		} else if (joinId != null) {
+			this.columnName = joinId.column();
+		} else if (oneToOne != null) {
+			this.columnName = oneToOne.joinColumn().column();
+		} else {
+			this.columnName = null;
+		}
+
+		if (collection && field.getGenericType() instanceof ParameterizedType) {
+			this.genericType = (Class<?>) ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+		} else {
+			this.genericType = null;
+		}
+
+		if (joinId != null) {
+			this.refererClass = field.getType();
+			this.refererName = joinId.referer();
+			this.joinColumnClass = null;
+			this.joinColumnName = null;
+
+		} else if (oneToOne != null) {
+			this.refererClass = field.getType();
+			this.refererName = oneToOne.joinColumn().referer();
+			this.joinColumnClass = null;
+			this.joinColumnName = null;
+
+		} else if (oneToMany != null && genericType != null) {
+			this.refererClass = genericType;
+			this.refererName = oneToMany.joinColumn().referer();
+			this.joinColumnClass = clazz;
+			this.joinColumnName = oneToMany.joinColumn().column();
+
+		} else if (manyToMany != null && genericType != null) {
+			this.refererClass = genericType;
+			this.refererName = manyToMany.inverseJoinColumn().referer();
+			this.joinColumnClass = clazz;
+			this.joinColumnName = manyToMany.joinColumn().referer();
+
+		} else {
+			this.refererClass = null;
+			this.refererName = null;
+			this.joinColumnClass = null;
+			this.joinColumnName = null;
+		}
+
+		if (joinId != null || oneToOne != null) {
+			this.aliasKey = EntityAlias.getAliasKey(clazz, field.getType().getName(), field.getName());
+		} else if (genericType != null) {
+			this.aliasKey = EntityAlias.getAliasKey(clazz, genericType.getName(), field.getName());
+		} else {
+			this.aliasKey = null;
+		}
+
+		if (oneToOne != null) {
+			this.lazy = oneToOne.join().fetch() == FetchType.LAZY;
+		} else if (oneToMany != null && genericType != null) {
+			// Join table decided by its annotation, metadata of a self referencing class is still being built
+			Table genericTable = genericType.getAnnotation(Table.class);
+			this.lazy = oneToMany.join().fetch() == FetchType.LAZY && (genericTable == null || genericTable.type() != TableType.JOIN_TABLE);
+		} else if (manyToMany != null && genericType != null) {
+			this.lazy = manyToMany.join().fetch() == FetchType.LAZY;
+		} else {
+			this.lazy = false;
+		}
+	}
+
+	/*package*/ Field getField() {
+		return field;
+	}
+
+	/*package*/ int getIndex() {
+		return index;
+	}
+
+	/*package*/ EntityAccessor getAccessor() {
+		return accessor;
+	}
+
+	/*package*/ EntityColumnReader getReader() {
+		return reader;
+	}
+
+	/*package*/ Class<?> getType() {
+		return field.getType();
+	}
+
+	/*package*/ Id getId() {
+		return id;
+	}
+
+	/*package*/ Column getColumn() {
+		return column;
+	}
+
+	/*package*/ JoinId getJoinId() {
+		return joinId;
+	}
+
+	/*package*/ OneToOne getOneToOne() {
+		return oneToOne;
+	}
+
+	/*package*/ OneToMany getOneToMany() {
+		return oneToMany;
+	}
+
+	/*package*/ ManyToMany getManyToMany() {
+		return manyToMany;
+	}
+
+	/*package*/ boolean isReserved() {
+		return reserved;
+	}
+
+	/*package*/ boolean isTransient() {
+		return transientField;
+	}
+
+	/*package*/ boolean isCollection() {
+		return collection;
+	}
+
+	// Column name of Column, Id, JoinId or OneToOne join column fields, null for collection relations
+	/*package*/ String getColumnName() {
+		return columnName;
+	}
+
+	// Whether the field maps a value column of its own table (Id or Column)
+	/*package*/ boolean isValueColumn() {
+		return id != null || column != null;
+	}
+
+	// Type argument of List or Set relations
+	/*package*/ Class<?> getGenericType() {
+		return genericType;
+	}
+
+	// Relation left out of select joins, OneToMany of join tables are always joined
+	/*package*/ boolean isLazy() {
+		return lazy;
+	}
+
+	/*package*/ String getAliasKey() {
+		return aliasKey;
+	}
+
+	// Referenced field on the related entity class
+	/*package*/ EntityField getRefererField() {
+		return refererClass != null ? EntityMetadata.getMetadata(refererClass).getField(refererName) : null;
+	}
+
+	// Field on the owner entity class which is referenced by OneToMany or ManyToMany
+	/*package*/ EntityField getJoinColumnField() {
+		return joinColumnClass != null ? EntityMetadata.getMetadata(joinColumnClass).getField(joinColumnName) : null;
+	}
+
+}
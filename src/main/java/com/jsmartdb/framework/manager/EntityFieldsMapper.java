@@ -19,21 +19,22 @@
 package com.jsmartdb.framework.manager;
 
 import java.lang.reflect.Field;
-import java.util.HashMap;
-import java.util.Map;
 
 /*package*/ final class EntityFieldsMapper {
 
-	private static Map<Class<?>, Field[]> mappedFields = new HashMap<Class<?>, Field[]>();
+	private static final ClassValue<Field[]> mappedFields = new ClassValue<Field[]>() {
+
+		@Override
+		protected Field[] computeValue(Class<?> clazz) {
+			return clazz.getDeclaredFields();
+		}
+	};
 
 	private EntityFieldsMapper() {
 		// DO NOTHING
 	}
 
 	/*package*/ static Field[] getFields(final Class<?> clazz) {
-		if (!mappedFields.containsKey(clazz)) {
-			mappedFields.put(clazz, clazz.getDeclaredFields());
-		}
 		return mappedFields.get(clazz);
 	}
 
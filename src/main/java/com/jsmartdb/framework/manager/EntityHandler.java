@@ -45,17 +45,37 @@ import com.jsmartdb.framework.annotation.Transient;
 
 /*package*/ final class EntityHandler {
 
+	private static final Boolean DIRTY_CHECKING = new Boolean(EntityPersistence.getInstance().getProperty(EntityPersistence.DIRTY_CHECKING));
+
 	/*package*/ static void setInternalId(Entity entity) {
 		entity.internalId = UUID.randomUUID().toString();
 	}
 
+	// Entity state in sync with its row, later updates only write the columns changed since then
+	/*package*/ static void setSnapshot(Entity entity) {
+		if (DIRTY_CHECKING && !isJoinTable(entity.getClass())) {
+			entity.snapshot = EntityUpdate.getSnapshot(entity);
+		}
+	}
+
+	// Written entity state is only in sync with its row once committed, a rolled back write leaves the previous snapshot
+	/*package*/ static void setWriteSnapshot(Entity entity) {
+		if (DIRTY_CHECKING && !isJoinTable(entity.getClass())) {
+			EntityContext.addSnapshot(entity, EntityUpdate.getSnapshot(entity));
+		}
+	}
+
+	/*package*/ static Object[] getSnapshot(Entity entity) {
+		Object[] snapshot = EntityContext.getSnapshot(entity);
+		return snapshot != null ? snapshot : entity.snapshot;
+	}
+
 	/*package*/ static Table getTable(final Class<?> clazz) {
-		return clazz.getAnnotation(Table.class);
+		return EntityMetadata.getMetadata(clazz).getTable();
 	}
 
 	/*package*/ static boolean isJoinTable(final Class<?> clazz) {
-		Table table = getTable(clazz);
-		return table != null && table.type() == TableType.JOIN_TABLE;
+		return EntityMetadata.getMetadata(clazz).isJoinTable();
 	}
 
 	/*package*/ static Id getId(final Field field) {
@@ -94,14 +114,10 @@ import com.jsmartdb.framework.annotation.Transient;
 		return field.getAnnotation(ManyToMany.class);
 	}
 
-	/*package*/ static ManyToMany getManyToMany(final Field[] fields, final Class<?> clazz) {
-		for (Field field : fields) {
-			if (field.getType() == Set.class || field.getType() == List.class) {
-
-				ManyToMany manyToMany = getManyToMany(field);
-				if (manyToMany != null && getGenericType(field) == clazz) {
-					return manyToMany;
-				}
+	/*package*/ static ManyToMany getManyToMany(final Class<?> ownerClazz, final Class<?> clazz) {
+		for (EntityField field : EntityMetadata.getMetadata(ownerClazz).getManyToManys()) {
+			if (field.getGenericType() == clazz) {
+				return field.getManyToMany();
 			}
 		}
 		return null;
@@ -163,9 +179,19 @@ import com.jsmartdb.framework.annotation.Transient;
 			} 
 		}
 	}
+
+	/*package*/ static Object getValue(final Entity entity, final EntityField field) {
+		return field != null ? field.getAccessor().get(entity) : null;
+	}
+
+	/*package*/ static void setValue(final Entity entity, final EntityField field, final Object value) {
+		if (field != null) {
+			field.getAccessor().set(entity, value);
+		}
+	}
  
 	@SuppressWarnings("unchecked")
-	/*package*/ static void addValue(final Entity entity, final Field field, final Object value) {
+	/*package*/ static void addValue(final Entity entity, final EntityField field, final Object value) {
 		if (field != null) {
 			try {
 				Collection<Entity> collection = (Collection<Entity>) getValue(entity, field);
@@ -179,29 +205,13 @@ import com.jsmartdb.framework.annotation.Transient;
 	}
 
 	/*package*/ static Class<?> getGeneratedIdClass(final Entity entity) {
-		for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-
-			Id id = field.getAnnotation(Id.class);
-			if (id != null && id.generated()) {
-				return field.getType();
-			}
-
-			Column column = field.getAnnotation(Column.class);
-			if (column != null && column.incremental()) {
-				return field.getType();
-			}
-		}
-		return null;
+		EntityField generatedField = EntityMetadata.getMetadata(entity.getClass()).getGeneratedField();
+		return generatedField != null ? generatedField.getType() : null;
 	}
 
 	/*package*/ static String getFirstIdName(final Class<?> clazz) {
-		for (Field field : EntityFieldsMapper.getFields(clazz)) {
-			Id id = field.getAnnotation(Id.class);
-			if (id != null) {
-				return id.name();
-			}
-		}
-		return null;
+		EntityField[] ids = EntityMetadata.getMetadata(clazz).getIds();
+		return ids.length > 0 ? ids[0].getColumnName() : null;
 	}
 
 	/*package*/ static Object getRefererValue(final Entity entity, final Field field) {
@@ -216,65 +226,77 @@ import com.jsmartdb.framework.annotation.Transient;
 		return null;
 	}
 
+	/*package*/ static Object getRefererValue(final Entity entity, final EntityField field) {
+		if (field != null && field.isValueColumn()) {
+			return getValue(entity, field);
+		}
+		return null;
+	}
+
 	/*package*/ static List<Object> getIdValues(final Entity entity) {
-		final List<Object> idValues = new ArrayList<Object>();
-		for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-			Id id = field.getAnnotation(Id.class);
-			if (id != null) {
-				idValues.add(getValue(entity, field));
-			}
+		final EntityField[] ids = EntityMetadata.getMetadata(entity.getClass()).getIds();
+		final List<Object> idValues = new ArrayList<Object>(ids.length);
+		for (EntityField field : ids) {
+			idValues.add(getValue(entity, field));
 		}
 		return idValues;
 	}
 
-	/*package*/ static void setGeneratedValue(final Entity entity, final Object value) {
-		for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-
-			Id id = field.getAnnotation(Id.class);
-			if (id != null && id.generated()) {
-				setValue(entity, field, value);
-				return;
-			}
+	// Same key format as EntityResultSet.getEntityKey, null when some id value is missing
+	/*package*/ static Object getIdKey(final Entity entity) {
+		final EntityField[] ids = EntityMetadata.getMetadata(entity.getClass()).getIds();
 
-			Column column = field.getAnnotation(Column.class);
-			if (column != null && column.incremental()) {
-				setValue(entity, field, value);
-				return;
-			}
+		if (ids.length == 1) {
+			return getValue(entity, ids[0]);
 		}
-	}
 
-	@SuppressWarnings("unchecked")
-	/*package*/ static Entity getCollectionValue(final Entity entity, final Field field, final Object id, final Field refererField) {
-		final Collection<Entity> collection = (Collection<Entity>) getValue(entity, field);
-		if (collection != null) {
-			for (Entity obj : collection) {
-				if (obj != null && getRefererValue(obj, refererField).equals(id)) {
-					return obj;
+		if (ids.length > 1) {
+			final List<Object> key = new ArrayList<Object>(ids.length);
+			for (EntityField id : ids) {
+				Object value = getValue(entity, id);
+				if (value == null) {
+					return null;
 				}
+				key.add(value);
 			}
+			return key;
 		}
 		return null;
 	}
 
-	/*package*/ static String getFirstJoinIdName(final Class<?> clazz) {
-		for (Field field : EntityFieldsMapper.getFields(clazz)) {
+	// Id key of an entity whose only select criteria are its id values
+	/*package*/ static Object getIdCriteriaKey(final Entity entity) {
+		final Object key = getIdKey(entity);
+		if (key == null) {
+			return null;
+		}
 
-			JoinId joinId = field.getAnnotation(JoinId.class);
-			if (joinId != null) {
-				return joinId.column();
+		for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getFields()) {
+			if (field.getId() != null) {
+				continue;
+			}
+			Object value = getValue(entity, field);
+			if (value instanceof Collection ? !((Collection<?>) value).isEmpty() : value != null) {
+				return null;
 			}
 		}
-		return null;
+		return key;
+	}
+
+	/*package*/ static void setGeneratedValue(final Entity entity, final Object value) {
+		setValue(entity, EntityMetadata.getMetadata(entity.getClass()).getGeneratedField(), value);
+	}
+
+	/*package*/ static String getFirstJoinIdName(final Class<?> clazz) {
+		EntityField[] joinIds = EntityMetadata.getMetadata(clazz).getJoinIds();
+		return joinIds.length > 0 ? joinIds[0].getJoinId().column() : null;
 	}
 
 	/*package*/ static List<Entity> getJoinedTos(final Entity entity, final Class<?> clazz) {
 		final List<Entity> joinedToList = new ArrayList<Entity>();
 
-		for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-			JoinId joinId = getJoinId(field);
-
-			if (joinId != null && field.getType() != clazz) {
+		for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getJoinIds()) {
+			if (field.getType() != clazz) {
 				joinedToList.add((Entity) getValue(entity, field));
 			}
 		}
@@ -285,10 +307,8 @@ import com.jsmartdb.framework.annotation.Transient;
 		final List<Entity> joinIdList = new ArrayList<Entity>();
 	    if (!EntityContext.isBlockCascade()) {
 
-	        for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-	        	JoinId joinId = getJoinId(field);
-
-	            if (joinId != null && containsCascadeType(joinId.cascade(), cascadeType)) {
+	        for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getJoinIds()) {
+	            if (containsCascadeType(field.getJoinId().cascade(), cascadeType)) {
 	            	joinIdList.add((Entity) getValue(entity, field));
 	            }
 	        }
@@ -299,10 +319,8 @@ import com.jsmartdb.framework.annotation.Transient;
 	/*package*/ static void getJoinIdMap(final Entity entity, final CascadeType cascade, final Map<Class<?>, List<Entity>> joinIdMap) {
 		if (!EntityContext.isBlockCascade()) {
 
-			for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-	        	JoinId joinId = getJoinId(field);
-
-	            if (joinId != null && containsCascadeType(joinId.cascade(), cascade)) {
+			for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getJoinIds()) {
+	            if (containsCascadeType(field.getJoinId().cascade(), cascade)) {
 	            	Entity ent = (Entity) getValue(entity, field);
 	            	if (ent != null) {
 		            	if (!joinIdMap.containsKey(ent.getClass())) {
@@ -320,10 +338,8 @@ import com.jsmartdb.framework.annotation.Transient;
 		final List<Entity> oneToOneList = new ArrayList<Entity>();
 	    if (!EntityContext.isBlockCascade()) {
 
-	        for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-	            OneToOne oneToOne = getOneToOne(field);
-
-	            if (oneToOne != null && containsCascadeType(oneToOne.cascade(), cascadeType)) {
+	        for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getOneToOnes()) {
+	            if (containsCascadeType(field.getOneToOne().cascade(), cascadeType)) {
 	            	oneToOneList.add((Entity) getValue(entity, field));
 	            }
 	        }
@@ -333,9 +349,8 @@ import com.jsmartdb.framework.annotation.Transient;
 
 	/*package*/ static void getOneToOneMap(final Entity entity, final CascadeType cascadeType, final Map<Class<?>, List<Entity>> oneToOneMap) {
 		if (!EntityContext.isBlockCascade()) {
-			for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-	            OneToOne oneToOne = getOneToOne(field);
-	            if (oneToOne != null && containsCascadeType(oneToOne.cascade(), cascadeType)) {
+			for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getOneToOnes()) {
+	            if (containsCascadeType(field.getOneToOne().cascade(), cascadeType)) {
 
 	            	Entity ent = (Entity) getValue(entity, field);
 	            	if (ent != null) {
@@ -355,41 +370,37 @@ import com.jsmartdb.framework.annotation.Transient;
 		final List<Collection<Entity>> oneToManyList = new ArrayList<Collection<Entity>>();
 		if (!EntityContext.isBlockCascade()) {
 
-			for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-				OneToMany oneToMany = getOneToMany(field);
+			for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getOneToManys()) {
+				OneToMany oneToMany = field.getOneToMany();
+				Class<?> oneToManyClass = field.getGenericType();
 
-				if (oneToMany != null) {
-					Class<?> oneToManyClass = getGenericType(field);
+				if (isManyToMany) {
+					if (isJoinTable(oneToManyClass)) {
 
-					if (isManyToMany) {
-						if (getTable(oneToManyClass).type() == TableType.JOIN_TABLE) {
+						oneToManyList.add((Collection<Entity>) getValue(entity, field));
 
-							oneToManyList.add((Collection<Entity>) getValue(entity, field));
-
-							// Set many to many cascade flag
-							if (containsCascadeType(oneToMany.cascade(), cascadeType)) {
-								EntityContext.addManyToManyCascade(entity.getClass(), oneToManyClass);
-		                    }
-						}
+						// Set many to many cascade flag
+						if (containsCascadeType(oneToMany.cascade(), cascadeType)) {
+							EntityContext.addManyToManyCascade(entity.getClass(), oneToManyClass);
+	                    }
+					}
 
-					} else {
-						if (getTable(oneToManyClass).type() == TableType.DEFAULT_TABLE) {
-							try {
-								if (containsCascadeType(oneToMany.cascade(), cascadeType)) {
+				} else {
+					if (!isJoinTable(oneToManyClass)) {
+						if (containsCascadeType(oneToMany.cascade(), cascadeType)) {
 
-									Collection<Entity> collection = (Collection<Entity>) getValue(entity, field);
+							Collection<Entity> collection = (Collection<Entity>) getValue(entity, field);
+							if (isLazySkipped(collection, cascadeType)) {
+								continue;
+							}
 
-									Object entityIdValue = getRefererValue(entity, EntityFieldsMapper.getField(entity.getClass(), oneToMany.joinColumn().column()));
+							Object entityIdValue = getRefererValue(entity, field.getJoinColumnField());
 
-									// Cascade its id value to referenced value on OneToMany 
-									for (Entity obj : collection) {
-										setValue(obj, EntityFieldsMapper.getField(obj.getClass(), oneToMany.joinColumn().referer()), entityIdValue);
-									}
-									oneToManyList.add(collection);
-								}
-							} catch (Exception ex) {
-								throw new RuntimeException(ex); 
+							// Cascade its id value to referenced value on OneToMany 
+							for (Entity obj : collection) {
+								setValue(obj, field.getRefererField(), entityIdValue);
 							}
+							oneToManyList.add(collection);
 						}
 					}
 				}
@@ -402,46 +413,42 @@ import com.jsmartdb.framework.annotation.Transient;
 	 /*package*/ static void getOneToManyMap(final Entity entity, final CascadeType cascadeType, final boolean isManyToMany, final Map<Class<?>, List<EntityBatch>> oneToManyMap) {
 		if (!EntityContext.isBlockCascade()) {
 
-			for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-				OneToMany oneToMany = getOneToMany(field);
-
-				if (oneToMany != null) {
+			for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getOneToManys()) {
+				OneToMany oneToMany = field.getOneToMany();
 
-					Class<?> oneToManyClass = getGenericType(field);
-					Collection<Entity> collection = (Collection<Entity>) getValue(entity, field);
+				Class<?> oneToManyClass = field.getGenericType();
+				Collection<Entity> collection = (Collection<Entity>) getValue(entity, field);
+				if (isLazySkipped(collection, cascadeType)) {
+					continue;
+				}
 
-					if (!oneToManyMap.containsKey(oneToManyClass)) {
-						oneToManyMap.put(oneToManyClass, new ArrayList<EntityBatch>());
-					}
+				if (!oneToManyMap.containsKey(oneToManyClass)) {
+					oneToManyMap.put(oneToManyClass, new ArrayList<EntityBatch>());
+				}
 
-					if (isManyToMany) {
-						if (getTable(oneToManyClass).type() == TableType.JOIN_TABLE) {
+				if (isManyToMany) {
+					if (isJoinTable(oneToManyClass)) {
 
-							oneToManyMap.get(oneToManyClass).add(new EntityBatch(entity, collection));
+						oneToManyMap.get(oneToManyClass).add(new EntityBatch(entity, collection));
 
-							// Set many to many cascade flag
-							if (containsCascadeType(oneToMany.cascade(), cascadeType)) {
-								EntityContext.addManyToManyCascade(entity.getClass(), oneToManyClass);
-		                    }
-						}
+						// Set many to many cascade flag
+						if (containsCascadeType(oneToMany.cascade(), cascadeType)) {
+							EntityContext.addManyToManyCascade(entity.getClass(), oneToManyClass);
+	                    }
+					}
 
-					} else {
-						if (getTable(oneToManyClass).type() == TableType.DEFAULT_TABLE) {
-							
-							oneToManyMap.get(oneToManyClass).add(new EntityBatch(entity, collection));
+				} else {
+					if (!isJoinTable(oneToManyClass)) {
+						
+						oneToManyMap.get(oneToManyClass).add(new EntityBatch(entity, collection));
 
-							try {
-								if (containsCascadeType(oneToMany.cascade(), cascadeType)) {
+						if (containsCascadeType(oneToMany.cascade(), cascadeType)) {
 
-									Object entityIdValue = getRefererValue(entity, EntityFieldsMapper.getField(entity.getClass(), oneToMany.joinColumn().column()));
+							Object entityIdValue = getRefererValue(entity, field.getJoinColumnField());
 
-									// Cascade its id value to referenced value on OneToMany 
-									for (Entity obj : collection) {
-										setValue(obj, EntityFieldsMapper.getField(obj.getClass(), oneToMany.joinColumn().referer()), entityIdValue);
-									}
-								}
-							} catch (Exception ex) {
-								throw new RuntimeException(ex); 
+							// Cascade its id value to referenced value on OneToMany 
+							for (Entity obj : collection) {
+								setValue(obj, field.getRefererField(), entityIdValue);
 							}
 						}
 					}
@@ -455,22 +462,24 @@ import com.jsmartdb.framework.annotation.Transient;
 		final List<EntityManyToMany> manyToManyList = new ArrayList<EntityManyToMany>();
 	    if (!EntityContext.isBlockCascade()) {
 
-            for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-                ManyToMany manyToMany = getManyToMany(field);
+            for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getManyToManys()) {
+                ManyToMany manyToMany = field.getManyToMany();
+            	Class<?> manyToManyClass = field.getGenericType();
 
-                if (manyToMany != null) {
-                	Class<?> manyToManyClass = getGenericType(field);
+            	Collection<Entity> collection = (Collection<Entity>) getValue(entity, field);
+            	if (isLazySkipped(collection, cascadeType)) {
+            		continue;
+            	}
 
-                	EntityManyToMany entityManyToMany = new EntityManyToMany();
-                	entityManyToMany.setManyToMany(manyToMany);
-                	entityManyToMany.setCollection((Collection<Entity>) getValue(entity, field));
+            	EntityManyToMany entityManyToMany = new EntityManyToMany();
+            	entityManyToMany.setManyToMany(manyToMany);
+            	entityManyToMany.setCollection(collection);
 
-                	manyToManyList.add(entityManyToMany);
+            	manyToManyList.add(entityManyToMany);
 
-                	// Set many to many cascade flag
-                    if (containsCascadeType(manyToMany.cascade(), cascadeType)) {
-                    	EntityContext.addManyToManyCascade(entity.getClass(), manyToManyClass);
-                    }
+            	// Set many to many cascade flag
+                if (containsCascadeType(manyToMany.cascade(), cascadeType)) {
+                	EntityContext.addManyToManyCascade(entity.getClass(), manyToManyClass);
                 }
             }
         }
@@ -481,29 +490,36 @@ import com.jsmartdb.framework.annotation.Transient;
 	/*package*/ static void getManyToManyMap(final Entity entity, final CascadeType cascadeType, final Map<Class<?>, List<EntityBatch>> manyToManyMap) {
 		if (!EntityContext.isBlockCascade()) {
 
-            for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-                ManyToMany manyToMany = getManyToMany(field);
+            for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getManyToManys()) {
+                ManyToMany manyToMany = field.getManyToMany();
+            	Class<?> manyToManyClass = field.getGenericType();
 
-                if (manyToMany != null) {
-                	Class<?> manyToManyClass = getGenericType(field);
+            	Collection<Entity> collection = (Collection<Entity>) getValue(entity, field);
+            	if (isLazySkipped(collection, cascadeType)) {
+            		continue;
+            	}
 
-                	if (!manyToManyMap.containsKey(manyToManyClass)) {
-                		manyToManyMap.put(manyToManyClass, new ArrayList<EntityBatch>());
-                	}
+            	if (!manyToManyMap.containsKey(manyToManyClass)) {
+            		manyToManyMap.put(manyToManyClass, new ArrayList<EntityBatch>());
+            	}
 
-                	EntityBatch entityBatch = new EntityBatch(entity, (Collection<Entity>) getValue(entity, field));
-                	entityBatch.setManyToMany(manyToMany);
-                	manyToManyMap.get(manyToManyClass).add(entityBatch);
+            	EntityBatch entityBatch = new EntityBatch(entity, collection);
+            	entityBatch.setManyToMany(manyToMany);
+            	manyToManyMap.get(manyToManyClass).add(entityBatch);
 
-                	// Set many to many cascade flag
-                    if (containsCascadeType(manyToMany.cascade(), cascadeType)) {
-                    	EntityContext.addManyToManyCascade(entity.getClass(), manyToManyClass);
-                    }
+            	// Set many to many cascade flag
+                if (containsCascadeType(manyToMany.cascade(), cascadeType)) {
+                	EntityContext.addManyToManyCascade(entity.getClass(), manyToManyClass);
                 }
             }
         }
 	}
 
+	// Lazy collections not accessed yet hold no changes, deletes still load them to cascade
+	private static boolean isLazySkipped(final Collection<Entity> collection, final CascadeType cascadeType) {
+		return cascadeType != CascadeType.DELETE && EntityLazyLoader.isUnloaded(collection);
+	}
+
 	/*package*/ static List<Entity> getEntitiesToInsert(final Collection<Entity> entities) {
 		final List<Entity> insertEntities = new ArrayList<Entity>();
 		Iterator<Entity> updateEntities = entities.iterator();
@@ -548,7 +564,7 @@ import com.jsmartdb.framework.annotation.Transient;
 	}
 
 	@SuppressWarnings("unchecked")
-	/*package*/ static boolean containsObject(final Entity entity, final Field field, final Object object) {
+	/*package*/ static boolean containsObject(final Entity entity, final EntityField field, final Object object) {
 		final Collection<Entity> collection = (Collection<Entity>) getValue(entity, field);
 		if (collection != null) {
 			return collection.contains(object);
@@ -557,19 +573,12 @@ import com.jsmartdb.framework.annotation.Transient;
 	}
 
 	/*package*/ static void validateColumns(final Entity entity) {
-		for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-			if (isColumn(field)) {
+		for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getValidatedColumns()) {
+			int length = field.getColumn().length();
 
-				if (field.getType() == String.class) {
-					int length = getColumn(field).length();
-					if (length != Column.NO_LENGTH) {
-
-						String value = (String) getValue(entity, field);
-						if (value != null && value.length() > length) {
-							throw new RuntimeException("Length of string value " + value + "for variable " + field.getName() + " must be less or equal to " + length + "!");
-						}
-					}
-				}
+			String value = (String) getValue(entity, field);
+			if (value != null && value.length() > length) {
+				throw new RuntimeException("Length of string value " + value + "for variable " + field.getField().getName() + " must be less or equal to " + length + "!");
 			}
 		}
 	}
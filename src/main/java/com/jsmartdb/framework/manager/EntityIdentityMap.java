@@ -0,0 +1,49 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// First level cache of a user transaction, rows of the same entity class and id share a single instance.
+/*package*/ final class EntityIdentityMap {
+
+	private final Map<Class<?>, Map<Object, Entity>> entities = new HashMap<Class<?>, Map<Object, Entity>>();
+
+	/*package*/ Entity get(final Class<?> clazz, final Object key) {
+		Map<Object, Entity> classEntities = entities.get(clazz);
+		return classEntities != null ? classEntities.get(key) : null;
+	}
+
+	/*package*/ void put(final Class<?> clazz, final Object key, final Entity entity) {
+		Map<Object, Entity> classEntities = entities.get(clazz);
+		if (classEntities == null) {
+			classEntities = new HashMap<Object, Entity>();
+			entities.put(clazz, classEntities);
+		}
+		if (!classEntities.containsKey(key)) {
+			classEntities.put(key, entity);
+		}
+	}
+
+	/*package*/ void clear() {
+		entities.clear();
+	}
+
+}
@@ -90,6 +90,7 @@ import com.jsmartdb.framework.annotation.JoinId;
 				Column columnn = EntityHandler.getColumn(field);
 	    		if (columnn != null) {
 	    			EntityContext.getSelectBuilder().append(targetAlias + "." + columnn.name() + " as " + targetAlias + columnn.name() + ",");
+	    			EntityContext.addPlanColumn(targetAlias, columnn.name());
 	    			continue;
 	    		}
 			}
@@ -104,12 +105,14 @@ import com.jsmartdb.framework.annotation.JoinId;
     		Column columnn = EntityHandler.getColumn(field);
     		if (columnn != null) {
     			EntityContext.getSelectBuilder().append(targetAlias + "." + columnn.name() + " as " + targetAlias + columnn.name() + ",");
+    			EntityContext.addPlanColumn(targetAlias, columnn.name());
     			continue;
     		}
 
     		Id idn = EntityHandler.getId(field);
 			if (idn != null) {
 				EntityContext.getSelectBuilder().append(targetAlias + "." + idn.name() + " as " + targetAlias + idn.name() + ",");
+				EntityContext.addPlanColumn(targetAlias, idn.name());
     			continue;
     		}
     	}
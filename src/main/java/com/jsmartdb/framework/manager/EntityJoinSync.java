@@ -0,0 +1,238 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jsmartdb.framework.annotation.ManyToMany;
+
+/*
+ * Join table rows of synchronized ManyToMany collections. Current rows of all updated parents of a relation 
+ * are loaded in one query per chunk of parents, then missing rows are inserted and stale rows deleted in 
+ * one batch each.
+ */
+/*package*/ final class EntityJoinSync {
+
+	private static Logger LOGGER = Logger.getLogger(EntityJoinSync.class.getPackage().getName());
+
+	private static Boolean LOG_SQL = new Boolean(EntityPersistence.getInstance().getProperty(EntityPersistence.SQL_SHOW_SQL));
+
+	private static final int JOIN_COLUMN_INDEX = 1;
+
+	private static final int INVERSE_JOIN_COLUMN_INDEX = 2;
+
+	/*package*/ static boolean isSynchronized(final EntityBatch entityBatch) {
+		return entityBatch.getManyToMany().synchronize() && entityBatch.getCollection() != null;
+	}
+
+	/*package*/ static void synchronize(final Collection<EntityBatch> entityBatches) {
+		final Map<List<Object>, List<EntityBatch>> relations = new LinkedHashMap<List<Object>, List<EntityBatch>>();
+
+		for (EntityBatch entityBatch : entityBatches) {
+			List<Object> relationKey = Arrays.<Object>asList(entityBatch.getEntity().getClass(), entityBatch.getManyToMany());
+			List<EntityBatch> relationBatches = relations.get(relationKey);
+
+			if (relationBatches == null) {
+				relationBatches = new ArrayList<EntityBatch>();
+				relations.put(relationKey, relationBatches);
+			}
+			relationBatches.add(entityBatch);
+		}
+
+		try {
+			for (Map.Entry<List<Object>, List<EntityBatch>> relation : relations.entrySet()) {
+				synchronize((Class<?>) relation.getKey().get(0), (ManyToMany) relation.getKey().get(1), relation.getValue());
+			}
+		} catch (SQLException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private static void synchronize(final Class<?> ownerClazz, final ManyToMany manyToMany, final List<EntityBatch> entityBatches) throws SQLException {
+		EntityField ownerField = EntityMetadata.getMetadata(ownerClazz).getField(manyToMany.joinColumn().referer());
+		Class<?> joinedClazz = getJoinedClass(ownerClazz, manyToMany);
+		EntityField joinedField = EntityMetadata.getMetadata(joinedClazz).getField(manyToMany.inverseJoinColumn().referer());
+
+		// Rows the collections ask for by parent value
+		final Map<Object, Map<Object, Entity>> linkedRows = new LinkedHashMap<Object, Map<Object, Entity>>();
+		final Map<Object, Entity> owners = new HashMap<Object, Entity>();
+
+		for (EntityBatch entityBatch : entityBatches) {
+			Object ownerValue = EntityHandler.getRefererValue(entityBatch.getEntity(), ownerField);
+			if (ownerValue == null) {
+				continue;
+			}
+
+			Map<Object, Entity> joinedRows = linkedRows.get(ownerValue);
+			if (joinedRows == null) {
+				joinedRows = new LinkedHashMap<Object, Entity>();
+				linkedRows.put(ownerValue, joinedRows);
+				owners.put(ownerValue, entityBatch.getEntity());
+			}
+
+			for (Entity ent : entityBatch.getCollection()) {
+				Object joinedValue = ent != null ? EntityHandler.getRefererValue(ent, joinedField) : null;
+				if (joinedValue != null) {
+					joinedRows.put(joinedValue, ent);
+				}
+			}
+		}
+
+		if (linkedRows.isEmpty()) {
+			return;
+		}
+
+		final Map<Object, Set<Object>> currentRows = getCurrentRows(manyToMany, ownerField, joinedField, new ArrayList<Object>(linkedRows.keySet()));
+
+		final List<Entity[]> insertRows = new ArrayList<Entity[]>();
+		final List<Object[]> deleteRows = new ArrayList<Object[]>();
+
+		for (Map.Entry<Object, Map<Object, Entity>> linkedRow : linkedRows.entrySet()) {
+			Object ownerValue = linkedRow.getKey();
+			Set<Object> joinedValues = currentRows.get(ownerValue);
+
+			for (Map.Entry<Object, Entity> joinedRow : linkedRow.getValue().entrySet()) {
+				if (joinedValues == null || !joinedValues.contains(joinedRow.getKey())) {
+					insertRows.add(new Entity[] {owners.get(ownerValue), joinedRow.getValue()});
+				}
+			}
+
+			if (joinedValues != null) {
+				for (Object joinedValue : joinedValues) {
+					if (!linkedRow.getValue().containsKey(joinedValue)) {
+						deleteRows.add(new Object[] {ownerValue, joinedValue});
+					}
+				}
+			}
+		}
+
+		if (!deleteRows.isEmpty()) {
+			PreparedStatement pstmt = EntityUpdate.getDeleteJoin(manyToMany);
+			executeBatch(pstmt, deleteRows, null);
+		}
+
+		if (!insertRows.isEmpty()) {
+			PreparedStatement pstmt = EntityUpdate.getInsertJoin(manyToMany);
+			executeBatch(pstmt, insertRows, manyToMany);
+		}
+	}
+
+	private static Class<?> getJoinedClass(final Class<?> ownerClazz, final ManyToMany manyToMany) {
+		for (EntityField field : EntityMetadata.getMetadata(ownerClazz).getManyToManys()) {
+			if (field.getManyToMany().equals(manyToMany)) {
+				return field.getGenericType();
+			}
+		}
+		throw new RuntimeException("ManyToMany relation not mapped on " + ownerClazz.getName());
+	}
+
+	// Joined column values by parent value, parents are queried in chunks of batch operation size
+	private static Map<Object, Set<Object>> getCurrentRows(final ManyToMany manyToMany, final EntityField ownerField, 
+			final EntityField joinedField, final List<Object> ownerValues) throws SQLException {
+
+		final Map<Object, Set<Object>> currentRows = new HashMap<Object, Set<Object>>();
+		int chunkSize = Math.max(1, ConnectionFactory.BATCH_SIZE);
+
+		for (int i = 0; i < ownerValues.size(); i += chunkSize) {
+			List<Object> chunk = ownerValues.subList(i, Math.min(i + chunkSize, ownerValues.size()));
+
+			PreparedStatement pstmt = EntityContext.prepareStatement(buildSelect(manyToMany, chunk.size()), PreparedStatement.NO_GENERATED_KEYS);
+			try {
+				int paramIndex = 1;
+				for (Object ownerValue : chunk) {
+					pstmt.setObject(paramIndex++, ownerValue);
+				}
+
+				if (LOG_SQL) {
+					LOGGER.log(Level.INFO, pstmt.toString());
+	    		}
+
+				ResultSet rs = pstmt.executeQuery();
+				while (rs.next()) {
+					Object ownerValue = EntityResultSet.getResultSetValue(rs, JOIN_COLUMN_INDEX, ownerField.getType());
+					Object joinedValue = EntityResultSet.getResultSetValue(rs, INVERSE_JOIN_COLUMN_INDEX, joinedField.getType());
+
+					Set<Object> joinedValues = currentRows.get(ownerValue);
+					if (joinedValues == null) {
+						joinedValues = new HashSet<Object>();
+						currentRows.put(ownerValue, joinedValues);
+					}
+					joinedValues.add(joinedValue);
+				}
+				rs.close();
+
+			} finally {
+				EntityContext.closeStatement(pstmt);
+			}
+		}
+		return currentRows;
+	}
+
+	private static void executeBatch(final PreparedStatement pstmt, final List<? extends Object[]> rows, final ManyToMany manyToMany) throws SQLException {
+		if (pstmt == null) {
+			return;
+		}
+
+		try {
+			long batchCount = 0;
+			for (Object[] row : rows) {
+				if (manyToMany != null) {
+					EntityUpdate.putInsertJoinValues(pstmt, manyToMany, (Entity) row[0], (Entity) row[1]);
+				} else {
+					pstmt.setObject(JOIN_COLUMN_INDEX, row[0]);
+					pstmt.setObject(INVERSE_JOIN_COLUMN_INDEX, row[1]);
+				}
+				pstmt.addBatch();
+
+				if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == rows.size()) {
+					if (LOG_SQL) {
+						LOGGER.log(Level.INFO, pstmt.toString());
+		    		}
+					pstmt.executeBatch();
+				}
+			}
+		} finally {
+			EntityContext.closeStatement(pstmt);
+		}
+	}
+
+	private static String buildSelect(final ManyToMany manyToMany, final int size) {
+		StringBuilder builder = new StringBuilder("select " + manyToMany.joinColumn().column() + "," + manyToMany.inverseJoinColumn().column() 
+				+ " from " + manyToMany.joinTable() + EntityWhere.WHERE_STATEMENT + manyToMany.joinColumn().column() + " in (");
+
+		for (int i = 0; i < size; i++) {
+			builder.append("?,");
+		}
+		return builder.substring(0, builder.length() -1) + ")";
+	}
+
+}
@@ -0,0 +1,281 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.bind.DatatypeConverter;
+
+/*
+ * Opaque continuation token carrying the last seen order by and id values of a page. Values are written as 
+ * typed text fields and parsed back by the key field types, and the token is signed so clients cannot forge 
+ * the values placed on the where clause.
+ */
+/*package*/ final class EntityKeyset {
+
+	private static final String VERSION = "1";
+
+	private static final String FIELD_SEPARATOR = "|";
+
+	private static final String TAG_SEPARATOR = ":";
+
+	private static final String SIGNATURE_SEPARATOR = ".";
+
+	private static final String NANOS_SEPARATOR = "_";
+
+	private static final String CHARSET = "UTF-8";
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private static final int SECRET_SIZE = 32;
+
+	// Without a configured secret tokens are only valid within this JVM
+	private static final SecretKeySpec SECRET;
+
+	static {
+		byte[] secret = null;
+		try {
+			String tokenSecret = EntityPersistence.getInstance().getProperty(EntityPersistence.KEYSET_TOKEN_SECRET);
+			if (tokenSecret != null && !tokenSecret.isEmpty()) {
+				secret = tokenSecret.getBytes(CHARSET);
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+
+		if (secret == null) {
+			secret = new byte[SECRET_SIZE];
+			new SecureRandom().nextBytes(secret);
+		}
+		SECRET = new SecretKeySpec(secret, MAC_ALGORITHM);
+	}
+
+	private EntityKeyset() {
+		// DO NOTHING
+	}
+
+	/*package*/ static String encode(final Class<?> clazz, final EntityField keysetField, final Entity entity) {
+		try {
+			EntityField[] fields = getFields(clazz, keysetField);
+
+			StringBuilder payload = new StringBuilder(VERSION);
+			payload.append(FIELD_SEPARATOR).append(escape(clazz.getName()));
+			payload.append(FIELD_SEPARATOR).append(escape(keysetField != null ? keysetField.getColumnName() : ""));
+
+			for (EntityField field : fields) {
+				Object value = EntityHandler.getValue(entity, field);
+				if (value == null) {
+					throw new RuntimeException("Keyset pagination requires non null order by and id values!");
+				}
+				payload.append(FIELD_SEPARATOR).append(getTag(field.getType())).append(TAG_SEPARATOR).append(escape(format(value)));
+			}
+
+			byte[] bytes = payload.toString().getBytes(CHARSET);
+			return DatatypeConverter.printBase64Binary(bytes) + SIGNATURE_SEPARATOR + DatatypeConverter.printBase64Binary(sign(bytes));
+
+		} catch (RuntimeException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/*package*/ static Object[] decode(final Class<?> clazz, final EntityField keysetField, final String token) {
+		if (token == null) {
+			return null;
+		}
+		try {
+			int index = token.indexOf(SIGNATURE_SEPARATOR);
+			if (index < 0) {
+				throw new IllegalArgumentException("Signature is missing");
+			}
+
+			byte[] bytes = DatatypeConverter.parseBase64Binary(token.substring(0, index));
+			byte[] signature = DatatypeConverter.parseBase64Binary(token.substring(index + 1));
+
+			if (!MessageDigest.isEqual(sign(bytes), signature)) {
+				throw new IllegalArgumentException("Signature does not match");
+			}
+
+			EntityField[] fields = getFields(clazz, keysetField);
+			String[] parts = new String(bytes, CHARSET).split("\\" + FIELD_SEPARATOR, -1);
+
+			if (parts.length < 3 || !VERSION.equals(parts[0])) {
+				throw new IllegalArgumentException("Unexpected token layout");
+			}
+
+			String columnName = keysetField != null ? keysetField.getColumnName() : "";
+			if (!clazz.getName().equals(unescape(parts[1])) || !columnName.equals(unescape(parts[2]))) {
+				throw new RuntimeException("Continuation token does not belong to this query!");
+			}
+
+			if (parts.length != fields.length + 3) {
+				throw new IllegalArgumentException("Unexpected token layout");
+			}
+
+			Object[] values = new Object[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				String part = parts[i + 3];
+				int tagIndex = part.indexOf(TAG_SEPARATOR);
+
+				if (tagIndex < 0 || !getTag(fields[i].getType()).equals(part.substring(0, tagIndex))) {
+					throw new IllegalArgumentException("Unexpected value type");
+				}
+				values[i] = parse(fields[i].getType(), unescape(part.substring(tagIndex + 1)));
+			}
+			return values;
+
+		} catch (IllegalArgumentException ex) {
+			// Malformed Base64, numbers or layout
+			throw new RuntimeException("Continuation token is not valid!", ex);
+		} catch (RuntimeException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new RuntimeException("Continuation token is not valid!", ex);
+		}
+	}
+
+	/*package*/ static EntityField getIdField(final Class<?> clazz) {
+		EntityField[] ids = EntityMetadata.getMetadata(clazz).getIds();
+		if (ids.length != 1) {
+			throw new RuntimeException("Keyset pagination requires entity with a single Id!");
+		}
+		return ids[0];
+	}
+
+	private static EntityField[] getFields(final Class<?> clazz, final EntityField keysetField) {
+		EntityField idField = getIdField(clazz);
+		return keysetField != null ? new EntityField[] {keysetField, idField} : new EntityField[] {idField};
+	}
+
+	private static byte[] sign(final byte[] bytes) throws Exception {
+		Mac mac = Mac.getInstance(MAC_ALGORITHM);
+		mac.init(SECRET);
+		return mac.doFinal(bytes);
+	}
+
+	private static String escape(final String value) throws Exception {
+		return URLEncoder.encode(value, CHARSET);
+	}
+
+	private static String unescape(final String value) throws Exception {
+		return URLDecoder.decode(value, CHARSET);
+	}
+
+	// Type tag of supported key field types, primitives share the tag of their wrapper
+	private static String getTag(final Class<?> type) {
+		if (type == String.class || type == Character.class || type == char.class) {
+			return type == String.class ? "S" : "C";
+		} else if (type == Integer.class || type == int.class) {
+			return "I";
+		} else if (type == Long.class || type == long.class) {
+			return "J";
+		} else if (type == Short.class || type == short.class) {
+			return "H";
+		} else if (type == Byte.class || type == byte.class) {
+			return "B";
+		} else if (type == Double.class || type == double.class) {
+			return "D";
+		} else if (type == Float.class || type == float.class) {
+			return "F";
+		} else if (type == Boolean.class || type == boolean.class) {
+			return "Z";
+		} else if (type == BigDecimal.class) {
+			return "N";
+		} else if (type == BigInteger.class) {
+			return "G";
+		} else if (type == Timestamp.class) {
+			return "TS";
+		} else if (type == java.sql.Date.class) {
+			return "SD";
+		} else if (type == Time.class) {
+			return "ST";
+		} else if (type == Date.class) {
+			return "T";
+		}
+		throw new RuntimeException("Keyset pagination does not support key field of type " + type.getName() + "!");
+	}
+
+	private static String format(final Object value) {
+		if (value instanceof Timestamp) {
+			return ((Timestamp) value).getTime() + NANOS_SEPARATOR + ((Timestamp) value).getNanos();
+		} else if (value instanceof Date) {
+			return String.valueOf(((Date) value).getTime());
+		}
+		return value.toString();
+	}
+
+	private static Object parse(final Class<?> type, final String text) {
+		if (type == String.class) {
+			return text;
+		} else if (type == Character.class || type == char.class) {
+			if (text.length() != 1) {
+				throw new IllegalArgumentException("Unexpected character value");
+			}
+			return text.charAt(0);
+		} else if (type == Integer.class || type == int.class) {
+			return Integer.valueOf(text);
+		} else if (type == Long.class || type == long.class) {
+			return Long.valueOf(text);
+		} else if (type == Short.class || type == short.class) {
+			return Short.valueOf(text);
+		} else if (type == Byte.class || type == byte.class) {
+			return Byte.valueOf(text);
+		} else if (type == Double.class || type == double.class) {
+			return Double.valueOf(text);
+		} else if (type == Float.class || type == float.class) {
+			return Float.valueOf(text);
+		} else if (type == Boolean.class || type == boolean.class) {
+			if (!"true".equals(text) && !"false".equals(text)) {
+				throw new IllegalArgumentException("Unexpected boolean value");
+			}
+			return Boolean.valueOf(text);
+		} else if (type == BigDecimal.class) {
+			return new BigDecimal(text);
+		} else if (type == BigInteger.class) {
+			return new BigInteger(text);
+		} else if (type == Timestamp.class) {
+			int index = text.indexOf(NANOS_SEPARATOR);
+			if (index < 0) {
+				throw new IllegalArgumentException("Unexpected timestamp value");
+			}
+			Timestamp timestamp = new Timestamp(Long.parseLong(text.substring(0, index)));
+			timestamp.setNanos(Integer.parseInt(text.substring(index + 1)));
+			return timestamp;
+		} else if (type == java.sql.Date.class) {
+			return new java.sql.Date(Long.parseLong(text));
+		} else if (type == Time.class) {
+			return new Time(Long.parseLong(text));
+		} else if (type == Date.class) {
+			return new Date(Long.parseLong(text));
+		}
+		throw new RuntimeException("Keyset pagination does not support key field of type " + type.getName() + "!");
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+
+// Handler of lazy List and Set proxies, the relation is selected on the first method call.
+/*package*/ final class EntityLazyCollection implements InvocationHandler {
+
+	private final Entity entity;
+
+	private final EntityField field;
+
+	private Collection<Entity> collection;
+
+	/*package*/ EntityLazyCollection(Entity entity, EntityField field) {
+		this.entity = entity;
+		this.field = field;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		// Object methods answer without selecting, loaded collections answer them as the collection
+		if (collection == null && method.getDeclaringClass() == Object.class) {
+			if (method.getName().equals("equals")) {
+				return proxy == args[0];
+			}
+			if (method.getName().equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			if (method.getName().equals("toString")) {
+				return "[unloaded " + field.getField().getName() + "]";
+			}
+		}
+
+		if (collection == null) {
+			collection = EntityLazyLoader.newCollection(field, EntityLazyLoader.load(entity, field));
+
+			// Entity holds the loaded collection from now on, unless it was replaced meanwhile
+			if (EntityHandler.getValue(entity, field) == proxy) {
+				EntityHandler.setValue(entity, field, collection);
+			}
+		}
+
+		try {
+			return method.invoke(collection, args);
+
+		} catch (InvocationTargetException ex) {
+			throw ex.getTargetException();
+		}
+	}
+
+	/*package*/ boolean isLoaded() {
+		return collection != null;
+	}
+
+}
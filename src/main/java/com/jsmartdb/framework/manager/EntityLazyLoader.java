@@ -0,0 +1,172 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.jsmartdb.framework.annotation.ManyToMany;
+
+/*
+ * Lazy relations are left out of select joins. OneToMany and ManyToMany collections are List or Set proxies 
+ * which select their rows on first access within an open EntityContext. Entity classes cannot be proxied 
+ * without bytecode generation, so OneToOne references are selected on request by EntityManager selectRelation.
+ */
+/*package*/ final class EntityLazyLoader {
+
+	/*package*/ static void setLazyCollections(final Entity entity) {
+		for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getLazyCollections()) {
+			setLazyCollection(entity, field);
+		}
+	}
+
+	/*package*/ static void setLazyCollection(final Entity entity, final EntityField field) {
+		Object collection = Proxy.newProxyInstance(EntityLazyLoader.class.getClassLoader(), 
+				new Class<?>[] {field.getType()}, new EntityLazyCollection(entity, field));
+
+		EntityHandler.setValue(entity, field, collection);
+	}
+
+	// Lazy OneToOne references of a selected entity are null until selected, so updates leave them out while still null
+	/*package*/ static void setUnloadedReferences(final Entity entity) {
+		BitSet lazyUpdateFields = EntityMetadata.getMetadata(entity.getClass()).getLazyUpdateFields();
+		entity.unloaded = lazyUpdateFields.isEmpty() ? null : (BitSet) lazyUpdateFields.clone();
+	}
+
+	// Lazy collection not accessed yet, so it holds no changes to write
+	/*package*/ static boolean isUnloaded(final Object value) {
+		if (value != null && Proxy.isProxyClass(value.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(value);
+			return handler instanceof EntityLazyCollection && !((EntityLazyCollection) handler).isLoaded();
+		}
+		return false;
+	}
+
+	/*package*/ static Object loadRelation(final Entity entity, final String fieldName) {
+		EntityField field = EntityMetadata.getMetadata(entity.getClass()).getField(fieldName);
+		if (field == null || !isLoadable(field)) {
+			throw new RuntimeException("Field " + fieldName + " is not a loadable relation of " + entity.getClass().getName() + "!");
+		}
+
+		List<Entity> entities = load(entity, field);
+
+		if (field.getOneToOne() != null) {
+			Entity value = entities.isEmpty() ? null : entities.get(0);
+			EntityHandler.setValue(entity, field, value);
+			setLoadedReference(entity, field);
+			return value;
+		}
+
+		Collection<Entity> collection = newCollection(field, entities);
+		EntityHandler.setValue(entity, field, collection);
+		return collection;
+	}
+
+	private static void setLoadedReference(final Entity entity, final EntityField field) {
+		if (entity.unloaded != null) {
+			EntityField[] updateFields = EntityMetadata.getMetadata(entity.getClass()).getUpdateFields();
+			for (int i = entity.unloaded.nextSetBit(0); i >= 0; i = entity.unloaded.nextSetBit(i + 1)) {
+				if (updateFields[i] == field) {
+					entity.unloaded.clear(i);
+				}
+			}
+		}
+	}
+
+	// Relation rows are selected on a nested context, so query state of the current one is kept
+	/*package*/ static List<Entity> load(final Entity entity, final EntityField field) {
+		EntityContext context = EntityContext.borrowCurrentInstance();
+		if (context == null) {
+			throw new RuntimeException("Lazy relation " + field.getField().getName() + " of " + entity.getClass().getName() 
+					+ " cannot be loaded outside an open EntityContext!");
+		}
+
+		EntityContext previous = EntityContext.bindInstance(context);
+		try {
+			return select(entity, field);
+
+		} finally {
+			EntityContext.unbindInstance(previous);
+			EntityContext.closeInstance(context);
+		}
+	}
+
+	/*package*/ static Collection<Entity> newCollection(final EntityField field, final List<Entity> entities) {
+		if (field.getType() == Set.class) {
+			return new LinkedHashSet<Entity>(entities);
+		}
+		return new ArrayList<Entity>(entities);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Entity> select(final Entity entity, final EntityField field) {
+		final List<Object> values = new ArrayList<Object>();
+		final String condition;
+
+		if (field.getOneToMany() != null) {
+			values.add(EntityHandler.getRefererValue(entity, field.getJoinColumnField()));
+			condition = " = ?";
+
+		} else if (field.getManyToMany() != null) {
+			ManyToMany manyToMany = field.getManyToMany();
+			values.add(EntityHandler.getRefererValue(entity, field.getJoinColumnField()));
+
+			condition = EntitySelect.IN_STATEMENT + "(select " + manyToMany.inverseJoinColumn().column() + EntitySelect.FROM_STATEMENT 
+					+ manyToMany.joinTable() + EntityWhere.WHERE_STATEMENT + manyToMany.joinColumn().column() + " = ?)";
+
+		} else {
+			// OneToOne join column is on the owner table, matched by the owner ids
+			StringBuilder builder = new StringBuilder(EntitySelect.IN_STATEMENT + "(select " + field.getColumnName() 
+					+ EntitySelect.FROM_STATEMENT + EntityHandler.getTable(entity.getClass()).name() + EntityWhere.WHERE_STATEMENT);
+
+			for (EntityField id : EntityMetadata.getMetadata(entity.getClass()).getIds()) {
+				builder.append(id.getColumnName() + " = ?" + EntityWhere.AND_OPERATOR);
+				values.add(EntityHandler.getValue(entity, id));
+			}
+			condition = builder.substring(0, builder.length() - EntityWhere.AND_OPERATOR.length()) + ")";
+		}
+
+		// Owner not inserted yet
+		if (values.isEmpty() || values.contains(null)) {
+			return new ArrayList<Entity>();
+		}
+
+		Class<?> clazz = field.getOneToOne() != null ? field.getType() : field.getGenericType();
+
+		EntityRepository repository = new EntityRepository();
+		return (List<Entity>) repository.findRelated((Class<? extends Entity>) clazz, field.getRefererField().getColumnName(), condition, values);
+	}
+
+	private static boolean isLoadable(final EntityField field) {
+		if (field.getOneToOne() != null) {
+			return true;
+		}
+		if (field.getGenericType() == null) {
+			return false;
+		}
+		return field.getManyToMany() != null || (field.getOneToMany() != null && !EntityHandler.isJoinTable(field.getGenericType()));
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Default cache region, least recently used entries are evicted once the region is full.
+/*package*/ final class EntityLruCache implements EntityCache {
+
+	private final EntityCacheStatistics statistics = new EntityCacheStatistics();
+
+	private final long timeToLive;
+
+	private final Map<Object, CacheEntry> entries;
+
+	/*package*/ EntityLruCache(final int maxSize, final long timeToLive) {
+		this.timeToLive = timeToLive * 1000L;
+		this.entries = new LinkedHashMap<Object, CacheEntry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, CacheEntry> eldest) {
+				if (size() > maxSize) {
+					statistics.recordEviction();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	@Override
+	public synchronized Object get(final Object key) {
+		CacheEntry entry = entries.get(key);
+
+		if (entry != null && entry.isExpired()) {
+			entries.remove(key);
+			statistics.recordEviction();
+			entry = null;
+		}
+
+		if (entry == null) {
+			statistics.recordMiss();
+			return null;
+		}
+		statistics.recordHit();
+		return entry.value;
+	}
+
+	@Override
+	public synchronized void put(final Object key, final Object value) {
+		entries.put(key, new CacheEntry(value, timeToLive > 0 ? System.currentTimeMillis() + timeToLive : 0));
+	}
+
+	@Override
+	public synchronized void evict(final Object key) {
+		entries.remove(key);
+	}
+
+	@Override
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/*package*/ synchronized int size() {
+		return entries.size();
+	}
+
+	@Override
+	public EntityCacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	private static final class CacheEntry {
+
+		private final Object value;
+
+		private final long expiration;
+
+		private CacheEntry(final Object value, final long expiration) {
+			this.value = value;
+			this.expiration = expiration;
+		}
+
+		private boolean isExpired() {
+			return expiration > 0 && System.currentTimeMillis() > expiration;
+		}
+	}
+
+}
@@ -28,6 +28,8 @@ public interface EntityManager {
 
 	public void initTransaction();
 
+	public void initTransaction(boolean identityMap);
+
 	public void commitTransaction();
 
 	public void rollbackTransaction();
@@ -48,6 +50,10 @@ public interface EntityManager {
 
 	public void updateBatchEntity(Collection<? extends Entity> entities, boolean blockCascade);
  
+	public void upsertEntity(Entity entity);
+
+	public void upsertBatchEntity(Collection<? extends Entity> entities);
+
 	public void deleteEntity(Entity entity);
 
 	public void deleteEntity(Entity entity, boolean blockCascade);
@@ -128,6 +134,18 @@ public interface EntityManager {
 
 	public List<? extends Entity> selectEntity(QueryParam param, Integer first, Integer max, String orderBy, OrderType orderDir, Class<? extends Entity> ... blockJoinClasses);
 
+	public EntityPage<? extends Entity> selectEntityPage(Entity entity, String token, Integer max);
+
+	public EntityPage<? extends Entity> selectEntityPage(Entity entity, String token, Integer max, boolean blockJoin);
+
+	public EntityPage<? extends Entity> selectEntityPage(Entity entity, String token, Integer max, String orderBy, OrderType orderDir);
+
+	public EntityPage<? extends Entity> selectEntityPage(Entity entity, String token, Integer max, String orderBy, OrderType orderDir, boolean blockJoin);
+
+	public EntityPage<? extends Entity> selectEntityPage(QueryParam param, String token, Integer max);
+
+	public EntityPage<? extends Entity> selectEntityPage(QueryParam param, String token, Integer max, String orderBy, OrderType orderDir);
+
 	public Object selectSingleObject(QueryParam param);
 
 	public Object[] selectSingleArray(QueryParam param);
@@ -136,6 +154,20 @@ public interface EntityManager {
 
 	public List<Object[]> selectObject(QueryParam param, Integer first, Integer max);
 
+	public EntityIterator<? extends Entity> streamEntity(Entity entity);
+
+	public EntityIterator<? extends Entity> streamEntity(Entity entity, Integer fetchSize);
+
+	public EntityIterator<? extends Entity> streamEntity(QueryParam param);
+
+	public EntityIterator<? extends Entity> streamEntity(QueryParam param, Integer fetchSize);
+
+	public EntityIterator<Object[]> streamObject(QueryParam param);
+
+	public EntityIterator<Object[]> streamObject(QueryParam param, Integer fetchSize);
+
+	public Object selectRelation(Entity entity, String field);
+
 	public List<Object[]> executeNativeQuery(String query);
 
 	public List<Object[]> executeNativeQuery(String query, Object[] params);
@@ -27,6 +27,33 @@ public final class EntityManagerFactory {
 				new Class[] {EntityManager.class}, new EntityManagerProxy(new EntityManagerImpl()));
     }
 
+    // Instances share one pool of threads sized by async.pool.size, so they are cheap to create per caller
+    public static final AsyncEntityManager getNewAsyncInstance() {
+    	return new AsyncEntityManager(getNewInstance());
+    }
+
+    // Null for entities whose Table is not cacheable
+    public static final EntityCacheStatistics getCacheStatistics(Class<? extends Entity> entityClazz) {
+    	return EntityCacheManager.getStatistics(entityClazz);
+    }
+
+    public static final EntityCacheStatistics getQueryCacheStatistics() {
+    	return EntityQueryCache.getStatistics();
+    }
+
+    public static final EntityCacheStatistics getSelectCacheStatistics() {
+    	return EntitySelectCache.getStatistics();
+    }
+
+    public static final int getSelectCacheSize() {
+    	return EntitySelectCache.size();
+    }
+
+    public static final void clearCache() {
+    	EntityCacheManager.clear();
+    	EntityQueryCache.clear();
+    }
+
     private EntityManagerFactory() {
     	// DO NOTHING
     }
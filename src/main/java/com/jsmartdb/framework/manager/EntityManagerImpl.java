@@ -33,6 +33,11 @@ import com.jsmartdb.framework.types.OrderType;
 		EntityContext.initUserTransaction();
 	}
 
+	@Override
+	public final void initTransaction(boolean identityMap) {
+		EntityContext.initUserTransaction(identityMap);
+	}
+
 	@Override
 	public final void commitTransaction() {
 		EntityContext.closeUserTransaction(false);
@@ -87,6 +92,18 @@ import com.jsmartdb.framework.types.OrderType;
 		batchRepository.update(entities, blockCascade);
 	}
 
+    @Override
+    public final void upsertEntity(Entity entity) {
+    	EntityRepository repository = new EntityRepository();
+    	repository.upsert(entity);
+    }
+
+	@Override
+	public final void upsertBatchEntity(Collection<? extends Entity> entities) {
+		EntityBatchRepository batchRepository = new EntityBatchRepository();
+		batchRepository.upsert(entities);
+	}
+
     @Override
     public final void deleteEntity(Entity entity) {
     	deleteEntity(entity, false);
@@ -300,6 +317,38 @@ import com.jsmartdb.framework.types.OrderType;
         return (List<Entity>) repository.findBy(param, first, max, orderBy, orderDir, false, blockJoinClasses);
 	}
 
+	@Override
+	public final EntityPage<? extends Entity> selectEntityPage(Entity entity, String token, Integer max) {
+		return selectEntityPage(entity, token, max, null, null, false);
+	}
+
+	@Override
+	public final EntityPage<? extends Entity> selectEntityPage(Entity entity, String token, Integer max, boolean blockJoin) {
+		return selectEntityPage(entity, token, max, null, null, blockJoin);
+	}
+
+	@Override
+	public final EntityPage<? extends Entity> selectEntityPage(Entity entity, String token, Integer max, String orderBy, OrderType orderDir) {
+		return selectEntityPage(entity, token, max, orderBy, orderDir, false);
+	}
+
+	@Override
+	public final EntityPage<? extends Entity> selectEntityPage(Entity entity, String token, Integer max, String orderBy, OrderType orderDir, boolean blockJoin) {
+		EntityRepository repository = new EntityRepository();
+		return repository.findPage(entity, token, max, orderBy, orderDir, blockJoin);
+	}
+
+	@Override
+	public final EntityPage<? extends Entity> selectEntityPage(QueryParam param, String token, Integer max) {
+		return selectEntityPage(param, token, max, null, null);
+	}
+
+	@Override
+	public final EntityPage<? extends Entity> selectEntityPage(QueryParam param, String token, Integer max, String orderBy, OrderType orderDir) {
+		EntityRepository repository = new EntityRepository();
+		return repository.findPageBy(param, token, max, orderBy, orderDir, false);
+	}
+
 	@Override
 	public final Object selectSingleObject(QueryParam param) {
 		Object[] objects = selectSingleArray(param);
@@ -323,6 +372,45 @@ import com.jsmartdb.framework.types.OrderType;
         return (List<Object[]>) repository.findBy(param, first, max, null, null, false, (Class<? extends Entity>) null);
 	}
 
+	@Override
+	public final EntityIterator<? extends Entity> streamEntity(Entity entity) {
+		return streamEntity(entity, ConnectionFactory.FETCH_SIZE);
+	}
+
+	@Override
+	public final EntityIterator<? extends Entity> streamEntity(Entity entity, Integer fetchSize) {
+		EntityRepository repository = new EntityRepository();
+		return repository.stream(entity, fetchSize);
+	}
+
+	@Override
+	public final EntityIterator<? extends Entity> streamEntity(QueryParam param) {
+		return streamEntity(param, ConnectionFactory.FETCH_SIZE);
+	}
+
+	@Override
+	public final EntityIterator<? extends Entity> streamEntity(QueryParam param, Integer fetchSize) {
+		EntityRepository repository = new EntityRepository();
+		return (EntityIterator<? extends Entity>) repository.streamBy(param, fetchSize);
+	}
+
+	@Override
+	public final EntityIterator<Object[]> streamObject(QueryParam param) {
+		return streamObject(param, ConnectionFactory.FETCH_SIZE);
+	}
+
+	@Override
+	public final EntityIterator<Object[]> streamObject(QueryParam param, Integer fetchSize) {
+		EntityRepository repository = new EntityRepository();
+		return (EntityIterator<Object[]>) repository.streamBy(param, fetchSize);
+	}
+
+	@Override
+	public final Object selectRelation(Entity entity, String field) {
+		EntityRepository repository = new EntityRepository();
+		return repository.findRelation(entity, field);
+	}
+
 	@Override
 	public final List<Object[]> executeNativeQuery(String query) {
 		return executeNativeQuery(query, null);
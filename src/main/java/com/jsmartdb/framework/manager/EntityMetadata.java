@@ -0,0 +1,338 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jsmartdb.framework.types.TableType;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Table;
+
+// Immutable mapping model of an entity class, built once and shared by insert, update, delete, where and result set handling.
+/*package*/ final class EntityMetadata {
+
+	private static final EntityField[] NO_FIELDS = new EntityField[0];
+
+	private static final ClassValue<EntityMetadata> mappedMetadata = new ClassValue<EntityMetadata>() {
+
+		@Override
+		protected EntityMetadata computeValue(Class<?> clazz) {
+			return new EntityMetadata(clazz);
+		}
+	};
+
+	private final Class<?> clazz;
+
+	private final Table table;
+
+	private final boolean joinTable;
+
+	private final EntityField[] fields;
+
+	private final int fieldCount;
+
+	private final String aliasKey;
+
+	private final Map<String, EntityField> fieldsByName;
+
+	// Indexed as the mapped fields of the class, null for reserved fields
+	private final EntityField[] fieldsByIndex;
+
+	private final EntityField[] ids;
+
+	private final EntityField[] columns;
+
+	private final EntityField[] joinIds;
+
+	private final EntityField[] oneToOnes;
+
+	private final EntityField[] oneToManys;
+
+	private final EntityField[] manyToManys;
+
+	private final EntityField[] collections;
+
+	private final EntityField[] lazyCollections;
+
+	private final EntityField[] validatedColumns;
+
+	private final EntityField generatedField;
+
+	private final EntityField[] insertFields;
+
+	private final EntityField[] updateFields;
+
+	private final BitSet lazyUpdateFields;
+
+	private final EntityField[] updateKeyFields;
+
+	private final EntityField[] deleteFields;
+
+	private EntityMetadata(final Class<?> clazz) {
+		this.clazz = clazz;
+		this.table = clazz.getAnnotation(Table.class);
+		this.joinTable = table != null && table.type() == TableType.JOIN_TABLE;
+
+		List<EntityField> fieldList = new ArrayList<EntityField>();
+		List<EntityField> idList = new ArrayList<EntityField>();
+		List<EntityField> columnList = new ArrayList<EntityField>();
+		List<EntityField> joinIdList = new ArrayList<EntityField>();
+		List<EntityField> oneToOneList = new ArrayList<EntityField>();
+		List<EntityField> oneToManyList = new ArrayList<EntityField>();
+		List<EntityField> manyToManyList = new ArrayList<EntityField>();
+		List<EntityField> collectionList = new ArrayList<EntityField>();
+		List<EntityField> lazyCollectionList = new ArrayList<EntityField>();
+		List<EntityField> validatedList = new ArrayList<EntityField>();
+		List<EntityField> insertList = new ArrayList<EntityField>();
+		List<EntityField> updateList = new ArrayList<EntityField>();
+		List<EntityField> updateKeyList = new ArrayList<EntityField>();
+		List<EntityField> deleteList = new ArrayList<EntityField>();
+
+		this.fieldsByName = new HashMap<String, EntityField>();
+		EntityField generated = null;
+
+		Field[] declaredFields = EntityFieldsMapper.getFields(clazz);
+		this.fieldCount = declaredFields.length;
+		this.fieldsByIndex = new EntityField[declaredFields.length];
+		this.aliasKey = EntityAlias.getAliasKey(clazz);
+
+		for (int i = 0; i < declaredFields.length; i++) {
+			Field field = declaredFields[i];
+			EntityField entityField = new EntityField(clazz, field, i);
+			if (entityField.isReserved()) {
+				continue;
+			}
+
+			fieldsByName.put(field.getName(), entityField);
+			fieldsByIndex[i] = entityField;
+
+			if (entityField.isCollection()) {
+				collectionList.add(entityField);
+			}
+
+			if (entityField.isTransient()) {
+				continue;
+			}
+
+			fieldList.add(entityField);
+
+			if (entityField.isLazy() && entityField.isCollection()) {
+				lazyCollectionList.add(entityField);
+			}
+
+			if (entityField.getId() != null) {
+				idList.add(entityField);
+				if (generated == null && entityField.getId().generated()) {
+					generated = entityField;
+				}
+			}
+
+			if (entityField.getColumn() != null) {
+				columnList.add(entityField);
+				if (generated == null && entityField.getColumn().incremental()) {
+					generated = entityField;
+				}
+				if (field.getType() == String.class && entityField.getColumn().length() != Column.NO_LENGTH) {
+					validatedList.add(entityField);
+				}
+			}
+
+			if (entityField.getJoinId() != null) {
+				joinIdList.add(entityField);
+			}
+
+			if (entityField.getOneToOne() != null) {
+				oneToOneList.add(entityField);
+			}
+
+			if (entityField.getOneToMany() != null) {
+				oneToManyList.add(entityField);
+			}
+
+			if (entityField.getManyToMany() != null) {
+				manyToManyList.add(entityField);
+			}
+
+			if (joinTable) {
+				if (entityField.getJoinId() != null) {
+					insertList.add(entityField);
+					updateList.add(entityField);
+					updateKeyList.add(entityField);
+					deleteList.add(entityField);
+
+				} else if (entityField.getColumn() != null) {
+					insertList.add(entityField);
+					updateList.add(entityField);
+					deleteList.add(entityField);
+				}
+
+			} else if (entityField.getOneToMany() == null && entityField.getManyToMany() == null) {
+				if (entityField.getColumn() != null || entityField.getOneToOne() != null) {
+					insertList.add(entityField);
+					updateList.add(entityField);
+
+				} else if (entityField.getId() != null) {
+					insertList.add(entityField);
+					updateList.add(entityField);
+					updateKeyList.add(entityField);
+				}
+
+				if (entityField.getId() != null || entityField.getColumn() != null) {
+					deleteList.add(entityField);
+				}
+			}
+		}
+
+		this.generatedField = generated;
+		this.fields = fieldList.toArray(NO_FIELDS);
+		this.ids = idList.toArray(NO_FIELDS);
+		this.columns = columnList.toArray(NO_FIELDS);
+		this.joinIds = joinIdList.toArray(NO_FIELDS);
+		this.oneToOnes = oneToOneList.toArray(NO_FIELDS);
+		this.oneToManys = oneToManyList.toArray(NO_FIELDS);
+		this.manyToManys = manyToManyList.toArray(NO_FIELDS);
+		this.collections = collectionList.toArray(NO_FIELDS);
+		this.lazyCollections = lazyCollectionList.toArray(NO_FIELDS);
+		this.validatedColumns = validatedList.toArray(NO_FIELDS);
+		this.insertFields = insertList.toArray(NO_FIELDS);
+		this.updateFields = updateList.toArray(NO_FIELDS);
+
+		this.lazyUpdateFields = new BitSet(updateFields.length);
+		for (int i = 0; i < updateFields.length; i++) {
+			if (updateFields[i].isLazy() && updateFields[i].getOneToOne() != null) {
+				lazyUpdateFields.set(i);
+			}
+		}
+		this.updateKeyFields = updateKeyList.toArray(NO_FIELDS);
+		this.deleteFields = deleteList.toArray(NO_FIELDS);
+	}
+
+	/*package*/ static EntityMetadata getMetadata(final Class<?> clazz) {
+		return mappedMetadata.get(clazz);
+	}
+
+	/*package*/ Class<?> getEntityClass() {
+		return clazz;
+	}
+
+	/*package*/ Table getTable() {
+		return table;
+	}
+
+	/*package*/ boolean isJoinTable() {
+		return joinTable;
+	}
+
+	// Non static and non transient fields in declaration order
+	/*package*/ EntityField[] getFields() {
+		return fields;
+	}
+
+	/*package*/ int getFieldCount() {
+		return fieldCount;
+	}
+
+	/*package*/ String getAliasKey() {
+		return aliasKey;
+	}
+
+	/*package*/ EntityField getField(final String name) {
+		return fieldsByName.get(name);
+	}
+
+	/*package*/ EntityField getField(final int index) {
+		return fieldsByIndex[index];
+	}
+
+	/*package*/ EntityField[] getIds() {
+		return ids;
+	}
+
+	/*package*/ EntityField[] getColumns() {
+		return columns;
+	}
+
+	/*package*/ EntityField[] getJoinIds() {
+		return joinIds;
+	}
+
+	/*package*/ EntityField[] getOneToOnes() {
+		return oneToOnes;
+	}
+
+	/*package*/ EntityField[] getOneToManys() {
+		return oneToManys;
+	}
+
+	/*package*/ EntityField[] getManyToManys() {
+		return manyToManys;
+	}
+
+	// List and Set fields to be initialized on entity creation
+	/*package*/ EntityField[] getCollections() {
+		return collections;
+	}
+
+	// OneToMany and ManyToMany collections loaded on first access
+	/*package*/ EntityField[] getLazyCollections() {
+		return lazyCollections;
+	}
+
+	// String columns with length restriction
+	/*package*/ EntityField[] getValidatedColumns() {
+		return validatedColumns;
+	}
+
+	// Id generated or Column incremental field
+	/*package*/ EntityField getGeneratedField() {
+		return generatedField;
+	}
+
+	// Parameter order of insert statement values
+	/*package*/ EntityField[] getInsertFields() {
+		return insertFields;
+	}
+
+	// Parameter order of update statement set clause
+	/*package*/ EntityField[] getUpdateFields() {
+		return updateFields;
+	}
+
+	// Update fields of lazy OneToOne references, in update fields order
+	/*package*/ BitSet getLazyUpdateFields() {
+		return lazyUpdateFields;
+	}
+
+	// Parameter order of update statement where clause
+	/*package*/ EntityField[] getUpdateKeyFields() {
+		return updateKeyFields;
+	}
+
+	// Candidate fields of delete statement where clause, only non null values are used
+	/*package*/ EntityField[] getDeleteFields() {
+		return deleteFields;
+	}
+
+}
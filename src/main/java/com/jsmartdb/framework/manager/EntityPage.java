@@ -0,0 +1,48 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.util.List;
+
+// Page of a keyset select, the token resumes the select right after the last entity of this page.
+public final class EntityPage<T> {
+
+	private final List<T> entities;
+
+	private final String token;
+
+	/*package*/ EntityPage(List<T> entities, String token) {
+		this.entities = entities;
+		this.token = token;
+	}
+
+	public List<T> getEntities() {
+		return entities;
+	}
+
+	// Null when there is no next page
+	public String getToken() {
+		return token;
+	}
+
+	public boolean hasNext() {
+		return token != null;
+	}
+
+}
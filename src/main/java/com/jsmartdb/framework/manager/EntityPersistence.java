@@ -63,10 +63,40 @@ import javax.xml.bind.annotation.XmlRootElement;
 	
 	/*package*/ static final String CONNECTION_MAX_AGE = "connection.max.age";
 
+	/*package*/ static final String CONNECTION_MAX_CONCURRENT = "connection.max.concurrent";
+
 	/*package*/ static final String BATCH_OPERATION_SIZE = "batch.operation.size";
 
+	/*package*/ static final String BATCH_DELETE_IN_SIZE = "batch.delete.in.size";
+
+	/*package*/ static final String BATCH_INSERT_TYPE = "batch.insert.type";
+
+	/*package*/ static final String BATCH_INSERT_MAX_PARAMETERS = "batch.insert.max.parameters";
+
+	/*package*/ static final String FETCH_SIZE = "fetch.size";
+
+	/*package*/ static final String STATEMENT_CACHE_SIZE = "statement.cache.size";
+
+	/*package*/ static final String KEYSET_TOKEN_SECRET = "keyset.token.secret";
+
+	/*package*/ static final String IDENTITY_MAP = "identity.map";
+
+	/*package*/ static final String DIRTY_CHECKING = "dirty.checking";
+
+	/*package*/ static final String CACHE_PROVIDER = "cache.provider";
+
+	/*package*/ static final String QUERY_CACHE_SIZE = "query.cache.size";
+
+	/*package*/ static final String QUERY_CACHE_TIME_TO_LIVE = "query.cache.time.to.live";
+
+	/*package*/ static final String SELECT_CACHE_SIZE = "select.cache.size";
+
 	/*package*/ static final String TRANSACTION_ISOLATION_LEVEL = "transaction.isolation.level";
 
+	/*package*/ static final String ASYNC_POOL_SIZE = "async.pool.size";
+
+	/*package*/ static final String ASYNC_QUEUE_SIZE = "async.queue.size";
+
 	private static Logger LOGGER = Logger.getLogger(EntityPersistence.class.getPackage().getName());
 
 	private static EntityPersistence singleton;
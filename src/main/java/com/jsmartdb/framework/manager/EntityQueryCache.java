@@ -0,0 +1,167 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jsmartdb.framework.types.OrderType;
+
+// Results of cacheable QueryFilter selects, invalidated by version counters of the tables in the query join graph.
+// Results are stored as copies of the selected graphs or projected rows rather than ids, so hits run no further select 
+// even for entities without a second level cache region. The memory held is bounded by the count of cached results 
+// (query.cache.size) and their time to live, not by a byte budget, so filters returning large results should not be cacheable.
+/*package*/ final class EntityQueryCache {
+
+	// Maximum count of cached results, each holding every row of its select
+	private static int CACHE_SIZE = 1000;
+
+	private static long TIME_TO_LIVE = 0;
+
+	// Incremented by writes of unknown tables
+	private static final AtomicLong GLOBAL_VERSION = new AtomicLong();
+
+	private static final ClassValue<AtomicLong> VERSIONS = new ClassValue<AtomicLong>() {
+
+		@Override
+		protected AtomicLong computeValue(Class<?> clazz) {
+			return new AtomicLong();
+		}
+	};
+
+	private static final ClassValue<Class<?>[]> QUERY_CLASSES = new ClassValue<Class<?>[]>() {
+
+		@Override
+		protected Class<?>[] computeValue(Class<?> clazz) {
+			List<Class<?>> classes = new ArrayList<Class<?>>();
+			classes.add(clazz);
+			classes.addAll(EntityCacheManager.getJoinedClasses(clazz));
+			return classes.toArray(new Class<?>[classes.size()]);
+		}
+	};
+
+	private static final EntityCache CACHE;
+
+	static {
+		EntityPersistence persistence = EntityPersistence.getInstance();
+
+		String cacheSize = persistence.getProperty(EntityPersistence.QUERY_CACHE_SIZE);
+		if (cacheSize != null) {
+			try {
+				CACHE_SIZE = Integer.parseInt(cacheSize);
+			} catch (NumberFormatException ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		String timeToLive = persistence.getProperty(EntityPersistence.QUERY_CACHE_TIME_TO_LIVE);
+		if (timeToLive != null) {
+			try {
+				TIME_TO_LIVE = Long.parseLong(timeToLive);
+			} catch (NumberFormatException ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		CACHE = EntityCacheManager.createCache("query", CACHE_SIZE, TIME_TO_LIVE);
+	}
+
+	private EntityQueryCache() {
+		// DO NOTHING
+	}
+
+	// The select SQL and its bound values are fully determined by these parameters, table versions keep stale results from matching
+	/*package*/ static Object getKey(final QueryParam param, final Integer first, final Integer max, final String orderBy, 
+			final OrderType orderDir, final boolean blockJoin, final Class<?>[] blockJoinClasses) {
+
+		List<Object> key = new ArrayList<Object>();
+		key.add(param.getEntityClazz());
+		key.add(param.getFilterName());
+
+		for (String paramKey : param.getFilterParamKeys()) {
+			Object value = param.get(paramKey);
+			key.add(paramKey);
+			key.add(value instanceof Object[] ? Arrays.asList((Object[]) value) : value);
+		}
+
+		key.add(first);
+		key.add(max);
+		key.add(orderBy);
+		key.add(orderDir);
+		key.add(blockJoin);
+		key.add(blockJoinClasses != null ? Arrays.asList(blockJoinClasses) : null);
+
+		// Taken before the select runs, so writes committed meanwhile leave the stored result unreachable
+		for (Class<?> clazz : QUERY_CLASSES.get(param.getEntityClazz())) {
+			key.add(VERSIONS.get(clazz).get());
+		}
+		key.add(GLOBAL_VERSION.get());
+		return key;
+	}
+
+	@SuppressWarnings("unchecked")
+	/*package*/ static List<? extends Object> get(final Object key) {
+		List<? extends Object> objects = (List<? extends Object>) CACHE.get(key);
+		return objects != null ? copy(objects) : null;
+	}
+
+	/*package*/ static void put(final Object key, final List<? extends Object> objects) {
+		CACHE.put(key, copy(objects));
+	}
+
+	/*package*/ static void invalidate(final Set<Class<?>> classes) {
+		if (classes.contains(Entity.class)) {
+			GLOBAL_VERSION.incrementAndGet();
+			return;
+		}
+
+		// Cascades of a write may reach any class joined to it
+		for (Class<?> clazz : classes) {
+			VERSIONS.get(clazz).incrementAndGet();
+			for (Class<?> joinedClass : EntityCacheManager.getJoinedClasses(clazz)) {
+				VERSIONS.get(joinedClass).incrementAndGet();
+			}
+		}
+	}
+
+	/*package*/ static void clear() {
+		CACHE.clear();
+	}
+
+	/*package*/ static EntityCacheStatistics getStatistics() {
+		return CACHE.getStatistics();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<? extends Object> copy(final List<? extends Object> objects) {
+		if (!objects.isEmpty() && objects.get(0) instanceof Entity) {
+			return EntityCacheManager.copy((List<? extends Entity>) objects);
+		}
+
+		List<Object> rows = new ArrayList<Object>(objects.size());
+		for (Object row : objects) {
+			rows.add(row instanceof Object[] ? ((Object[]) row).clone() : row);
+		}
+		return rows;
+	}
+
+}
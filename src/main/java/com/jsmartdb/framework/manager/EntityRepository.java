@@ -23,7 +23,13 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,25 +45,33 @@ import com.jsmartdb.framework.annotation.QueryFilter;
 
 	private static Boolean LOG_SQL = new Boolean(EntityPersistence.getInstance().getProperty(EntityPersistence.SQL_SHOW_SQL));
 
-	private static final int EXECUTION_SUCCESS = 1;
-
 	private static final int GENERATED_KEY_INDEX = 1;
 
+	// Statements of the current insert, update or delete, executed once the entity graph is cascaded
+	private EntityWritePlan plan;
+
+	// Synchronized ManyToMany collections of the current update
+	private List<EntityBatch> joinBatches;
+
 	/*package*/ void insert(final Entity entity, boolean blockCascade) {
 		if (entity != null) {
+			EntityContext.addWrite(entity, CascadeType.INSERT);
 			EntityContext.setBlockCascade(blockCascade);
+			plan = new EntityWritePlan();
 			if (EntityHandler.isJoinTable(entity.getClass())) {
-				insertJoin(entity);
+				insertJoin(entity, 0);
 			} else {
-				insertDefault(entity);
+				insertDefault(entity, 0);
 			}
+			plan.execute();
 		} else {
 			throw new RuntimeException("Entity to be inserted cannot be null!");
 		}
 		EntityContext.clearBuildBlockedClasses();
 	}
 
-	private void insertDefault(final Entity entity) {
+	private int insertDefault(final Entity entity, final int after) {
+		int depth = after;
         if (entity != null) {
 
         	EntityHandler.validateColumns(entity);
@@ -66,27 +80,21 @@ import com.jsmartdb.framework.annotation.QueryFilter;
             final List<Entity> oneToOneList = EntityHandler.getOneToOneList(entity, CascadeType.INSERT);
             for (Entity ent : oneToOneList) {
             	if (ent != null) { 
-            		insertDefault(ent);
+            		depth = Math.max(depth, insertDefault(ent, 0));
             	}
             }
 
-            final PreparedStatement pstmt = EntityUpdate.getInsert(entity.getClass());
-            EntityUpdate.putInsertValues(pstmt, entity);
-
-            Class<?> generatedIdClass = EntityHandler.getGeneratedIdClass(entity);
-            Object generatedValue = executeUpdate(pstmt, generatedIdClass);
-            if (generatedIdClass != null) {
-            	EntityHandler.setGeneratedValue(entity, generatedValue);
-            }
+            depth = plan.insert(entity, depth);
 
             EntityHandler.setInternalId(entity);
 
         	// Cascade for OneToMany references
+            plan.resolveOneToMany(entity, CascadeType.INSERT);
             List<Collection<Entity>> oneToManyList = EntityHandler.getOneToManyList(entity, CascadeType.INSERT, false);
             for (Collection<Entity> collection : oneToManyList) {
             	for (Entity ent : collection) {
             		if (ent != null) {
-            			insertDefault(ent);
+            			insertDefault(ent, depth);
             		}
             	}
             }
@@ -96,10 +104,11 @@ import com.jsmartdb.framework.annotation.QueryFilter;
             for (EntityManyToMany entityManyToMany : manyToManyList) {
             	for (Entity ent : entityManyToMany.getCollection()) {
             		if (ent != null) {
+            			int joinDepth = depth;
             			if (EntityContext.isManyToManyCascade(entity.getClass(), ent.getClass())) {
-            				insertDefault(ent);
+            				joinDepth = Math.max(joinDepth, insertDefault(ent, 0));
             			}
-            			insertJoin(entityManyToMany.getManyToMany(), entity, ent);
+            			insertJoin(entityManyToMany.getManyToMany(), entity, ent, joinDepth);
             		}
             	}
             }
@@ -109,25 +118,28 @@ import com.jsmartdb.framework.annotation.QueryFilter;
             for (Collection<Entity> collection : oneToManyList) {
             	for (Entity ent : collection) {
             		if (ent != null) {
+            			int joinDepth = depth;
 
 	            		if (EntityContext.isManyToManyCascade(entity.getClass(), ent.getClass())) {
 	            			List<Entity> joinedEntityList = EntityHandler.getJoinedTos(ent, entity.getClass());
 
 	            			for (Entity joinedEntity : joinedEntityList) {
 	            				EntityContext.addBuildBlockedClass(joinedEntity.getClass());
-	            				insertDefault(joinedEntity);
+	            				joinDepth = Math.max(joinDepth, insertDefault(joinedEntity, 0));
 	            			}
 	            		}
 
 	            		EntityContext.addBuildBlockedClass(entity.getClass());
-	            		insertJoin(ent);
+	            		insertJoin(ent, joinDepth);
             		}
             	}
             }
         }
+        return depth;
     }
 
-	private void insertJoin(final Entity joinEntity) {
+	private int insertJoin(final Entity joinEntity, final int after) {
+		int depth = after;
 		if (joinEntity != null) {
 
 			EntityHandler.validateColumns(joinEntity);
@@ -136,40 +148,69 @@ import com.jsmartdb.framework.annotation.QueryFilter;
             final List<Entity> joinIdList = EntityHandler.getJoinIdList(joinEntity, CascadeType.INSERT);
             for (Entity ent : joinIdList) {
         		if (ent != null && !EntityContext.containsBuildBlockedClass(ent.getClass())) {
-        			insertDefault(ent);
+        			depth = Math.max(depth, insertDefault(ent, 0));
         		}
             }
 
-			final PreparedStatement pstmt = EntityUpdate.getInsertJoin(joinEntity.getClass());
-			EntityUpdate.putInsertJoinValues(pstmt, joinEntity);
-			executeUpdate(pstmt, null).equals(EXECUTION_SUCCESS);
+			depth = plan.insertJoin(joinEntity, depth);
 			EntityHandler.setInternalId(joinEntity);
 		}
+		return depth;
 	}
 
-	private void insertJoin(final ManyToMany manyToMany, final Entity entityOne, final Entity entityTwo) {
+	private int insertJoin(final ManyToMany manyToMany, final Entity entityOne, final Entity entityTwo, final int after) {
 		if (entityOne != null && entityTwo != null) {
-			final PreparedStatement pstmt = EntityUpdate.getInsertJoin(entityOne.getClass(), entityTwo.getClass());
-			EntityUpdate.putInsertJoinValues(pstmt, manyToMany, entityOne, entityTwo);
-			executeUpdate(pstmt, null).equals(EXECUTION_SUCCESS);
+			return plan.insertJoin(manyToMany, entityOne, entityTwo, after);
 		}
+		return after;
 	}
 
 	/*package*/ void update(final Entity entity, boolean blockCascade) {
 		if (entity != null) {
+			EntityContext.addWrite(entity, CascadeType.UPDATE);
 			EntityContext.setBlockCascade(blockCascade);
+			plan = new EntityWritePlan();
+			joinBatches = new ArrayList<EntityBatch>();
 			if (EntityHandler.isJoinTable(entity.getClass())) {
-				updateJoin(entity);
+				updateJoin(entity, 0);
 			} else {
-				updateDefault(entity);
+				updateDefault(entity, 0);
 			}
+			plan.execute();
+			EntityJoinSync.synchronize(joinBatches);
 		} else {
 			throw new RuntimeException("Entity to be updated cannot be null!");
 		}
 		EntityContext.clearBuildBlockedClasses();
 	}
 
-	private void updateDefault(final Entity entity) {
+	// Insert or update of the entity row only, related entities are referenced by their keys but not cascaded
+	/*package*/ void upsert(final Entity entity) {
+		if (entity != null) {
+			EntityContext.addWrite(entity, CascadeType.UPDATE);
+			EntityHandler.validateColumns(entity);
+
+			// Only rows inserted without their generated value return it
+			EntityField generatedField = EntityMetadata.getMetadata(entity.getClass()).getGeneratedField();
+			Class<?> generatedIdClass = generatedField != null && EntityHandler.getValue(entity, generatedField) == null ? generatedField.getType() : null;
+
+			final PreparedStatement pstmt = EntityUpdate.getUpsert(entity.getClass(), generatedIdClass != null);
+			EntityUpdate.putUpsertValues(pstmt, entity);
+
+			Object generatedValue = executeUpdate(pstmt, generatedIdClass);
+			if (generatedIdClass != null) {
+				EntityHandler.setGeneratedValue(entity, generatedValue);
+			}
+
+			EntityHandler.setInternalId(entity);
+			EntityHandler.setWriteSnapshot(entity);
+		} else {
+			throw new RuntimeException("Entity to be upserted cannot be null!");
+		}
+	}
+
+	private int updateDefault(final Entity entity, final int after) {
+		int depth = after;
         if (entity != null) {
 
         	EntityHandler.validateColumns(entity);
@@ -179,26 +220,26 @@ import com.jsmartdb.framework.annotation.QueryFilter;
             for (Entity ent : oneToOneList) {
             	if (ent != null) {
 	                if (ent.internalId == null) {
-	                    insertDefault(ent);
+	                    depth = Math.max(depth, insertDefault(ent, 0));
 	                } else {
-	                    updateDefault(ent);
+	                    depth = Math.max(depth, updateDefault(ent, 0));
 	                }
             	}
             }
 
-            final PreparedStatement pstmt = EntityUpdate.getUpdate(entity.getClass());
-            EntityUpdate.putUpdateValues(pstmt, entity);
-            executeUpdate(pstmt, null).equals(EXECUTION_SUCCESS);
+            // Entities unchanged since their snapshot are not written
+            depth = plan.update(entity, depth);
 
         	// Cascade for OneToMany references
+            plan.resolveOneToMany(entity, CascadeType.UPDATE);
         	List<Collection<Entity>> oneToManyList = EntityHandler.getOneToManyList(entity, CascadeType.UPDATE, false);
             for (Collection<Entity> collection : oneToManyList) {
             	for (Entity ent : collection) {
             		if (ent != null) {
 	            		if (ent.internalId == null) {
-	            			insertDefault(ent);
+	            			insertDefault(ent, depth);
 	            		} else {
-	            			updateDefault(ent);
+	            			updateDefault(ent, depth);
 	            		}
             		}
             	}
@@ -207,13 +248,19 @@ import com.jsmartdb.framework.annotation.QueryFilter;
             // Cascade for ManyToMany references
             final List<EntityManyToMany> manyToManyList = EntityHandler.getManyToManyList(entity, CascadeType.UPDATE);
             for (EntityManyToMany entityManyToMany : manyToManyList) {
+            	EntityBatch joinBatch = new EntityBatch(entity, entityManyToMany.getCollection());
+            	joinBatch.setManyToMany(entityManyToMany.getManyToMany());
+            	if (EntityJoinSync.isSynchronized(joinBatch)) {
+            		joinBatches.add(joinBatch);
+            	}
+
                 for (Entity ent : entityManyToMany.getCollection()) {
                 	if (ent != null) {
                         if (EntityContext.isManyToManyCascade(entity.getClass(), ent.getClass())) {
                             if (ent.internalId == null) {
-                                insertDefault(ent);
+                                insertDefault(ent, depth);
                             } else {
-                                updateDefault(ent);
+                                updateDefault(ent, depth);
                             }
                         }
                 	}
@@ -225,27 +272,30 @@ import com.jsmartdb.framework.annotation.QueryFilter;
             for (Collection<Entity> collection : oneToManyList) {
             	for (Entity ent : collection) {
             		if (ent != null) {
+            			int joinDepth = depth;
 
 	            		if (EntityContext.isManyToManyCascade(entity.getClass(), ent.getClass())) {
 	            			List<Entity> joinedEntityList = EntityHandler.getJoinedTos(ent, entity.getClass());
 
 	            			for (Entity joinedEntity : joinedEntityList) {
 	            				if (joinedEntity.internalId == null) {
-		            				insertDefault(joinedEntity);
+	            					joinDepth = Math.max(joinDepth, insertDefault(joinedEntity, 0));
 		            			} else {
-		            				updateDefault(joinedEntity);
+		            				joinDepth = Math.max(joinDepth, updateDefault(joinedEntity, 0));
 		            			}
 	            			}
                         }
 	            		EntityContext.addBuildBlockedClass(entity.getClass());
-	            		updateJoin(ent);
+	            		updateJoin(ent, joinDepth);
             		}
             	}
             }
         }
+        return depth;
     }
 
-	private void updateJoin(final Entity joinEntity) {
+	private int updateJoin(final Entity joinEntity, final int after) {
+		int depth = after;
 		if (joinEntity != null) {
 
 			EntityHandler.validateColumns(joinEntity);
@@ -255,34 +305,38 @@ import com.jsmartdb.framework.annotation.QueryFilter;
             for (Entity ent : joinIdList) {
             	if (ent != null && !EntityContext.containsBuildBlockedClass(ent.getClass())) {
 	                if (ent.internalId == null) {
-	                    insertDefault(ent);
+	                    depth = Math.max(depth, insertDefault(ent, 0));
 	                } else {
-	                    updateDefault(ent);
+	                    depth = Math.max(depth, updateDefault(ent, 0));
 	                }
             	}
             }
 
-			final PreparedStatement pstmt = EntityUpdate.getUpdateJoin(joinEntity.getClass());
-			EntityUpdate.putUpdateJoinValues(pstmt, joinEntity);
-			executeUpdate(pstmt, null).equals(EXECUTION_SUCCESS);
+			depth = plan.updateJoin(joinEntity, depth);
 		}
+		return depth;
 	}
 
 	/*package*/ void delete(final Entity entity, boolean blockCascade) {
 		if (entity != null) {
+			EntityContext.addWrite(entity, CascadeType.DELETE);
 			EntityContext.setBlockCascade(blockCascade);
+			plan = new EntityWritePlan();
 			if (EntityHandler.isJoinTable(entity.getClass())) {
-				deleteJoin(entity);
+				deleteJoin(entity, 0);
 			} else {
-				deleteDefault(entity);
+				deleteDefault(entity, 0);
 			}
+			plan.execute();
 		} else {
 			throw new RuntimeException("Entity to be deleted cannot be null!");
 		}
 		EntityContext.clearBuildBlockedClasses();
 	}
 
-	private void deleteDefault(final Entity entity) {
+	// Related rows are deleted before the entity row, OneToOne references after it
+	private int deleteDefault(final Entity entity, final int after) {
+		int depth = after;
         if (entity != null) {
         	
         	EntityHandler.validateColumns(entity);
@@ -292,7 +346,7 @@ import com.jsmartdb.framework.annotation.QueryFilter;
             for (Collection<Entity> collection : oneToManyList) {
             	for (Entity ent : collection) {
             		if (ent != null) {
-            			deleteDefault(ent);
+            			depth = Math.max(depth, deleteDefault(ent, 0));
             		}
             	}
             }
@@ -302,9 +356,11 @@ import com.jsmartdb.framework.annotation.QueryFilter;
             for (EntityManyToMany entityManyToMany : manyToManyList) {
             	for (Entity ent : entityManyToMany.getCollection()) {
             		if (ent != null) {
-	            		deleteJoin(entityManyToMany.getManyToMany(), entity, ent);
+	            		int joinDepth = deleteJoin(entityManyToMany.getManyToMany(), entity, ent, 0);
+	            		depth = Math.max(depth, joinDepth);
+
 	            		if (EntityContext.isManyToManyCascade(entity.getClass(), ent.getClass())) {
-	            			deleteDefault(ent);
+	            			deleteDefault(ent, joinDepth);
 	            		}
             		}
             	}
@@ -316,13 +372,14 @@ import com.jsmartdb.framework.annotation.QueryFilter;
             	for (Entity ent : collection) {
             		if (ent != null) {
             			EntityContext.addBuildBlockedClass(entity.getClass());
-	            		deleteJoin(ent);
+	            		int joinDepth = deleteJoin(ent, 0);
+	            		depth = Math.max(depth, joinDepth);
 
 	            		if (EntityContext.isManyToManyCascade(entity.getClass(), ent.getClass())) {
 	            			List<Entity> joinedEntityList = EntityHandler.getJoinedTos(ent, entity.getClass());
 
 	            			for (Entity joinedEntity : joinedEntityList) {
-	            				deleteDefault(joinedEntity);
+	            				deleteDefault(joinedEntity, joinDepth);
 	            			}
 	            		}
             		}
@@ -330,45 +387,43 @@ import com.jsmartdb.framework.annotation.QueryFilter;
             }
 
             // Delete current object
-            final PreparedStatement pstmt = EntityUpdate.getDelete(entity);
-            EntityUpdate.putDeleteValues(pstmt, entity);
-            executeUpdate(pstmt, null).equals(EXECUTION_SUCCESS);
+            depth = plan.delete(entity, depth);
 
             // Cascade for OneToOne references
             final List<Entity> oneToOneList = EntityHandler.getOneToOneList(entity, CascadeType.DELETE);
             for (Entity ent : oneToOneList) {
             	if (ent != null) {
-            		deleteDefault(ent);
+            		deleteDefault(ent, depth);
             	}
             }
         }
+        return depth;
     }
 
-	private void deleteJoin(final Entity joinEntity) {
+	private int deleteJoin(final Entity joinEntity, final int after) {
+		int depth = after;
 		if (joinEntity != null) {
 
 			EntityHandler.validateColumns(joinEntity);
 
-			final PreparedStatement pstmt = EntityUpdate.getDeleteJoin(joinEntity);
-			EntityUpdate.putDeleteJoinValues(pstmt, joinEntity);
-			executeUpdate(pstmt, null).equals(EXECUTION_SUCCESS);
+			depth = plan.deleteJoin(joinEntity, depth);
 
 			// Cascade for JoinId references
             final List<Entity> joinIdList = EntityHandler.getJoinIdList(joinEntity, CascadeType.DELETE);
             for (Entity ent : joinIdList) {
             	if (ent != null && !EntityContext.containsBuildBlockedClass(ent.getClass())) {
-            		deleteDefault(ent);
+            		deleteDefault(ent, depth);
             	}
             }
 		}
+		return depth;
 	}
 
-	private void deleteJoin(final ManyToMany manyToMany, final Entity entityOne, final Entity entityTwo) {
+	private int deleteJoin(final ManyToMany manyToMany, final Entity entityOne, final Entity entityTwo, final int after) {
 		if (entityOne != null && entityTwo != null) {
-			final PreparedStatement pstmt = EntityUpdate.getDeleteJoin(entityOne.getClass(), entityTwo.getClass());
-			EntityUpdate.putDeleteJoinValues(pstmt, manyToMany, entityOne, entityTwo);
-			executeUpdate(pstmt, null).equals(EXECUTION_SUCCESS);
+			return plan.deleteJoin(manyToMany, entityOne, entityTwo, after);
 		}
+		return after;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -381,6 +436,14 @@ import com.jsmartdb.framework.annotation.QueryFilter;
 
 		validateFindParameters(first, max, orderBy, blockJoinClasses);
 
+		// Entity selected by id is answered by the transaction identity map or the second level cache
+		if ((first == null || first == 0) && (max == null || max > 0)) {
+			final Entity cached = findCached(entity, blockJoin, blockJoinClasses);
+			if (cached != null) {
+				return new ArrayList<Entity>(Collections.singletonList(cached));
+			}
+		}
+
 		EntityContext.setFirstResult(first);
 		EntityContext.setMaxResult(max);
 		EntityContext.setOrderBy(orderBy);
@@ -393,6 +456,52 @@ import com.jsmartdb.framework.annotation.QueryFilter;
 		return executeQuery(pstmt, entity.getClass());
 	}
 
+	/*package*/ Object findRelation(final Entity entity, final String field) {
+		if (entity == null) {
+			throw new RuntimeException("Entity to be selected cannot be null!");
+		}
+		return EntityLazyLoader.loadRelation(entity, field);
+	}
+
+	// Rows of a lazy relation, the condition holds its own parameters in values order
+	/*package*/ List<? extends Entity> findRelated(final Class<? extends Entity> clazz, final String column, final String condition, final List<Object> values) {
+		final PreparedStatement pstmt = EntitySelect.getRelationSelectQuery(clazz, column, condition, values);
+
+		return executeQuery(pstmt, clazz);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Entity findCached(final Entity entity, final boolean blockJoin, final Class<? extends Entity> ... blockJoinClasses) {
+		final EntityIdentityMap identityMap = EntityContext.getIdentityMap();
+		final boolean cacheable = EntityCacheManager.isCacheable(entity.getClass());
+		if (identityMap == null && !cacheable) {
+			return null;
+		}
+
+		final Object key = EntityHandler.getIdCriteriaKey(entity);
+		if (key == null) {
+			return null;
+		}
+
+		Entity cached = identityMap != null ? identityMap.get(entity.getClass(), key) : null;
+
+		if (cached == null && cacheable && !blockJoin && !EntityContext.isCacheDirty()) {
+			if (blockJoinClasses != null) {
+				for (Class<? extends Entity> blockJoinClass : blockJoinClasses) {
+					if (blockJoinClass != null) {
+						return null;
+					}
+				}
+			}
+
+			cached = EntityCacheManager.get(entity.getClass(), key);
+			if (cached != null && identityMap != null) {
+				identityMap.put(entity.getClass(), key, cached);
+			}
+		}
+		return cached;
+	}
+
     @SuppressWarnings("unchecked")
     /*package*/ List<? extends Object> findBy(final QueryParam param, final Integer first, final Integer max, 
     		final String orderBy, final OrderType orderDir, final boolean blockJoin, final Class<? extends Entity> ... blockJoinClasses) {
@@ -412,9 +521,134 @@ import com.jsmartdb.framework.annotation.QueryFilter;
 
     	final QueryFilter filter = EntityHandler.getQueryFilter(param);
 
+    	// Identity mapped transactions keep their own instances, so only plain contexts use the query cache
+    	final boolean cacheable = filter.cacheable() && EntityContext.getIdentityMap() == null && !EntityContext.isCacheDirty();
+
+    	final Object cacheKey = cacheable ? EntityQueryCache.getKey(param, first, max, orderBy, orderDir, blockJoin, blockJoinClasses) : null;
+
+    	if (cacheable) {
+    		final List<? extends Object> cached = EntityQueryCache.get(cacheKey);
+    		if (cached != null) {
+    			return cached;
+    		}
+    	}
+
     	final PreparedStatement pstmt = EntitySelect.getCustomSelectQuery(param.getEntityClazz(), filter, param);
 
-        return filter.select().trim().isEmpty() ? executeQuery(pstmt, param.getEntityClazz()) : executeQuery(pstmt);
+    	final List<? extends Object> objects = filter.select().trim().isEmpty() ? executeQuery(pstmt, param.getEntityClazz()) : executeQuery(pstmt);
+
+    	if (cacheable) {
+    		EntityQueryCache.put(cacheKey, objects);
+    	}
+        return objects;
+    }
+
+	@SuppressWarnings("unchecked")
+	/*package*/ EntityPage<? extends Entity> findPage(final Entity entity, final String token, final Integer max, 
+			final String orderBy, final OrderType orderDir, final boolean blockJoin) {
+
+		if (entity == null) {
+			throw new RuntimeException("Entity to be selected cannot be null!");
+		}
+
+		validateFindParameters(null, max, orderBy, (Class<? extends Entity>[]) null);
+
+		EntityContext.setMaxResult(max);
+		EntityContext.setOrderBy(orderBy);
+		EntityContext.setOrderDir(orderDir);
+		EntityContext.setBlockJoin(blockJoin);
+
+		return executePage(entity, null, token, max);
+	}
+
+	@SuppressWarnings("unchecked")
+	/*package*/ EntityPage<? extends Entity> findPageBy(final QueryParam param, final String token, final Integer max, 
+			final String orderBy, final OrderType orderDir, final boolean blockJoin) {
+
+		if (param == null || !param.isValid()) {
+			throw new RuntimeException("QueryParam is not valid!");
+		}
+
+		validateFindParameters(null, max, orderBy, (Class<? extends Entity>[]) null);
+
+		EntityContext.setMaxResult(max);
+		EntityContext.setOrderBy(orderBy);
+		EntityContext.setOrderDir(orderDir);
+		EntityContext.setBlockJoin(blockJoin);
+
+		if (!EntityHandler.getQueryFilter(param).select().trim().isEmpty()) {
+			throw new RuntimeException("Keyset pagination is not supported for QueryFilter with custom select!");
+		}
+
+		return executePage(null, param, token, max);
+	}
+
+	@SuppressWarnings("unchecked")
+	private EntityPage<? extends Entity> executePage(final Entity entity, final QueryParam param, final String token, final Integer max) {
+		if (max == null || max <= 0 || max == Integer.MAX_VALUE) {
+			throw new RuntimeException("Max must be greater than zero for keyset pagination!");
+		}
+
+		final Class<? extends Entity> entityClazz = entity != null ? entity.getClass() : param.getEntityClazz();
+
+		final EntityField keysetField = EntitySelect.getKeysetField(entityClazz);
+		final PreparedStatement pstmt;
+		try {
+			EntityContext.setKeyset(true, EntityKeyset.decode(entityClazz, keysetField, token));
+
+			if (entity != null) {
+				pstmt = EntitySelect.getSelectQuery(entity);
+			} else {
+				pstmt = EntitySelect.getCustomSelectQuery(entityClazz, EntityHandler.getQueryFilter(param), param);
+			}
+		} finally {
+			EntityContext.setKeyset(false, null);
+		}
+
+		final List<? extends Entity> entities = executeQuery(pstmt, entityClazz);
+
+		String nextToken = null;
+		if (entities.size() == max) {
+			nextToken = EntityKeyset.encode(entityClazz, keysetField, entities.get(entities.size() - 1));
+		}
+		return new EntityPage<Entity>((List<Entity>) entities, nextToken);
+	}
+
+	/*package*/ EntityIterator<? extends Entity> stream(final Entity entity, final Integer fetchSize) {
+		if (entity == null) {
+			throw new RuntimeException("Entity to be selected cannot be null!");
+		}
+
+		// Rows of a root are emitted together only if the select orders them next to each other
+		final PreparedStatement pstmt;
+		try {
+			EntityContext.setIdOrder(true);
+			pstmt = EntitySelect.getSelectQuery(entity);
+		} finally {
+			EntityContext.setIdOrder(false);
+		}
+
+		return executeStream(pstmt, entity.getClass(), fetchSize);
+	}
+
+    /*package*/ EntityIterator<? extends Object> streamBy(final QueryParam param, final Integer fetchSize) {
+    	if (param == null || !param.isValid()) {
+    		throw new RuntimeException("QueryParam is not valid!");
+    	}
+
+    	final QueryFilter filter = EntityHandler.getQueryFilter(param);
+
+    	final boolean selectEntities = filter.select().trim().isEmpty();
+
+    	final PreparedStatement pstmt;
+    	try {
+    		EntityContext.setIdOrder(selectEntities);
+    		pstmt = EntitySelect.getCustomSelectQuery(param.getEntityClazz(), filter, param);
+    	} finally {
+    		EntityContext.setIdOrder(false);
+    	}
+
+    	return executeStream(pstmt, selectEntities ? param.getEntityClazz() : null, fetchSize);
     }
 
     @SuppressWarnings("unchecked")
@@ -453,6 +687,10 @@ import com.jsmartdb.framework.annotation.QueryFilter;
     	}
 
 		final PreparedStatement pstmt = EntityUpdate.getNative(query);
+
+		if (!query.toLowerCase().startsWith(EntitySelect.SELECT_STATEMENT)) {
+			EntityContext.addWrite(null, null);
+		}
 		EntityUpdate.putNativeValues(pstmt, params);
 
 		if (query.toLowerCase().startsWith(EntitySelect.SELECT_STATEMENT)) {
@@ -485,7 +723,7 @@ import com.jsmartdb.framework.annotation.QueryFilter;
 
 	        } finally {
 	        	try {
-	        		pstmt.close();
+	        		EntityContext.closeStatement(pstmt);
 	        	} catch (SQLException ex) {
 	        		throw new RuntimeException(ex);
 	        	}
@@ -526,6 +764,35 @@ import com.jsmartdb.framework.annotation.QueryFilter;
         return objects;
     }
 
+    private <T> EntityIterator<T> executeStream(final PreparedStatement pstmt, final Class<? extends Entity> entityClazz, final Integer fetchSize) {
+    	final ResultSet rs;
+    	try {
+    		if (LOG_SQL) {
+    			LOGGER.log(Level.INFO, pstmt.toString());
+    		}
+
+    		if (fetchSize != null) {
+    			pstmt.setFetchSize(fetchSize);
+    		}
+
+    		rs = pstmt.executeQuery();
+
+    	} catch (SQLException ex) {
+    		try {
+    			pstmt.close();
+    		} catch (SQLException e) {
+    			// DO NOTHING
+    		}
+    		throw new RuntimeException(ex);
+    	}
+
+    	final EntityColumnPlan plan = EntityContext.getColumnPlan();
+    	final String alias = entityClazz != null ? EntityAlias.getAlias(EntityMetadata.getMetadata(entityClazz)) : null;
+
+    	// The iterator owns the context and its connection from now on
+    	return new EntityResultIterator<T>(EntityContext.detachCurrentInstance(), pstmt, rs, entityClazz, plan, alias);
+    }
+
     private List<? extends Entity> executeQuery(final PreparedStatement pstmt, final Class<? extends Entity> entityClazz) {
         final List<Entity> entities = new ArrayList<Entity>();
 
@@ -535,30 +802,83 @@ import com.jsmartdb.framework.annotation.QueryFilter;
         			LOGGER.log(Level.INFO, pstmt.toString());
         		}
 
+                final EntityIdentityMap identityMap = EntityContext.getIdentityMap();
+                final boolean completeGraph = EntityContext.isCompleteGraph();
+                final Set<Object> managedKeys = new HashSet<Object>();
+
+                // Complete graphs of cacheable entities are copied to the second level cache once all rows are read
+                final Map<Object, Entity> cacheEntities = completeGraph && EntityCacheManager.isCacheable(entityClazz) 
+                		&& !EntityContext.isCacheDirty() ? new LinkedHashMap<Object, Entity>() : null;
+
+                // Taken before the select runs, so rows written meanwhile are not stored
+                final long cacheGeneration = cacheEntities != null ? EntityCacheManager.getGeneration(entityClazz) : 0;
+
                 final ResultSet rs = pstmt.executeQuery();
 
-                String alias = null;
+                final EntityColumnPlan plan = EntityContext.getColumnPlan();
+                final EntityRowIndex rowIndex = new EntityRowIndex();
+                final String alias = EntityAlias.getAlias(EntityMetadata.getMetadata(entityClazz));
                 Entity lastEntity = null;
 
-                // While to manage result set rows and joins
+                EntityContext.setRowIndex(rowIndex);
+
+                // While to manage result set rows and joins, rows of the same entity may not be adjacent
                 while (rs.next()) {
                 	EntityContext.clearBuildBlockedClasses();
 
-                	if (lastEntity != null) {
-                		alias = EntityAlias.getAlias(lastEntity.getClass());
+                	Object key = EntityResultSet.getEntityKey(entityClazz, rs, plan, alias);
+                	Entity entity = key != null ? rowIndex.get(alias, null, key) : null;
+
+                	// Rows of entities already managed by the transaction are not mapped again
+                	if (entity == null && key != null && identityMap != null) {
+                		entity = identityMap.get(entityClazz, key);
+                		if (entity != null) {
+                			entities.add(entity);
+                			rowIndex.put(alias, null, key, entity);
+                			managedKeys.add(key);
+                			continue;
+                		}
+                	}
+
+                	if (entity != null && managedKeys.contains(key)) {
+                		continue;
                 	}
 
-                	if (EntityResultSet.reuseEntity(lastEntity, rs, alias)) {
-                		EntityResultSet.setJoinResultSet(lastEntity, rs);
+                	// Entities without primary key can only be reused from the previous row
+                	if (entity == null && key == null && EntityResultSet.reuseEntity(lastEntity, rs, plan, alias)) {
+                		entity = lastEntity;
+                	}
+
+                	if (entity != null) {
+                		EntityResultSet.setJoinResultSet(entity, rs, plan);
                 	} else {
-                		lastEntity = EntityResultSet.createEntity(entityClazz, rs);
+                		lastEntity = EntityResultSet.createEntity(entityClazz, rs, plan, alias);
                 		entities.add(lastEntity);
+
+                		if (key != null) {
+                			rowIndex.put(alias, null, key, lastEntity);
+
+                			if (identityMap != null && completeGraph) {
+                				identityMap.put(entityClazz, key, lastEntity);
+                			}
+
+                			if (cacheEntities != null) {
+                				cacheEntities.put(key, lastEntity);
+                			}
+                		}
+                	}
+                }
+
+                if (cacheEntities != null) {
+                	for (Entry<Object, Entity> cacheEntity : cacheEntities.entrySet()) {
+                		EntityCacheManager.put(cacheEntity.getValue(), cacheEntity.getKey(), cacheGeneration);
                 	}
                 }
             } catch (Exception ex) {
             	throw new RuntimeException(ex);
 
             } finally {
+            	EntityContext.setRowIndex(null);
             	try {
 	            	pstmt.close();
             	} catch (SQLException ex) {
@@ -0,0 +1,156 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+
+/*package*/ final class EntityResultIterator<T> implements EntityIterator<T> {
+
+	private final EntityContext context;
+
+	private final PreparedStatement pstmt;
+
+	private final ResultSet rs;
+
+	private final Class<? extends Entity> entityClazz;
+
+	private final EntityColumnPlan plan;
+
+	private final String alias;
+
+	private T nextValue;
+
+	private boolean rowPending;
+
+	private Object rowKey;
+
+	private boolean closed;
+
+	/*package*/ EntityResultIterator(final EntityContext context, final PreparedStatement pstmt, final ResultSet rs, 
+			final Class<? extends Entity> entityClazz, final EntityColumnPlan plan, final String alias) {
+		this.context = context;
+		this.pstmt = pstmt;
+		this.rs = rs;
+		this.entityClazz = entityClazz;
+		this.plan = plan;
+		this.alias = alias;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (nextValue == null && !closed) {
+			final EntityContext previous = EntityContext.bindInstance(context);
+			try {
+				nextValue = entityClazz != null ? readEntity() : readObject();
+
+			} catch (Exception ex) {
+				close();
+				throw new RuntimeException(ex);
+
+			} finally {
+				EntityContext.unbindInstance(previous);
+			}
+
+			if (nextValue == null) {
+				close();
+			}
+		}
+		return nextValue != null;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T value = nextValue;
+		nextValue = null;
+		return value;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Entities cannot be removed from a select!");
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			try {
+				pstmt.close();
+			} catch (SQLException ex) {
+				throw new RuntimeException(ex);
+			} finally {
+				EntityContext.closeInstance(context);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T readObject() throws SQLException {
+		if (rs.next()) {
+			Object[] object = new Object[rs.getMetaData().getColumnCount()];
+
+			for (int i = 0; i < object.length; i++) {
+				object[i] = rs.getObject(i + 1, SQLTypes.getSQLTypes());
+			}
+			return (T) object;
+		}
+		return null;
+	}
+
+	// A root entity is emitted once a row of another root is reached, stream selects order by the root ids to keep its join rows adjacent
+	@SuppressWarnings("unchecked")
+	private T readEntity() throws Exception {
+		Entity entity = null;
+		Object entityKey = null;
+
+		EntityContext.setRowIndex(new EntityRowIndex());
+
+		while (rowPending || fetchRow()) {
+			EntityContext.clearBuildBlockedClasses();
+
+			if (entity == null) {
+				entity = EntityResultSet.createEntity(entityClazz, rs, plan, alias);
+				entityKey = rowKey;
+
+			} else if (entityKey != null ? entityKey.equals(rowKey) : EntityResultSet.reuseEntity(entity, rs, plan, alias)) {
+				EntityResultSet.setJoinResultSet(entity, rs, plan);
+
+			} else {
+				break;
+			}
+			rowPending = false;
+		}
+
+		EntityContext.setRowIndex(null);
+		return (T) entity;
+	}
+
+	private boolean fetchRow() throws SQLException {
+		rowPending = rs.next();
+		rowKey = rowPending ? EntityResultSet.getEntityKey(entityClazz, rs, plan, alias) : null;
+		return rowPending;
+	}
+
+}
@@ -18,15 +18,13 @@
 
 package com.jsmartdb.framework.manager;
 
-import java.lang.reflect.Field;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.jsmartdb.framework.types.JoinType;
-import com.jsmartdb.framework.types.TableType;
 
-import com.jsmartdb.framework.annotation.Column;
-import com.jsmartdb.framework.annotation.Id;
 import com.jsmartdb.framework.annotation.JoinId;
 import com.jsmartdb.framework.annotation.ManyToMany;
 import com.jsmartdb.framework.annotation.OneToMany;
@@ -34,51 +32,37 @@ import com.jsmartdb.framework.annotation.OneToOne;
 
 /*package*/ final class EntityResultSet {
 
-	/*package*/ static boolean reuseEntity(final Entity entity, final ResultSet rs, final String alias) throws Exception {
+	/*package*/ static boolean reuseEntity(final Entity entity, final ResultSet rs, final EntityColumnPlan plan, final String alias) throws Exception {
 		boolean entityMatch = false;
 		if (entity != null) {
-			for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
+			EntityMetadata metadata = EntityMetadata.getMetadata(entity.getClass());
+			int[] indexes = plan.getIndexes(alias, metadata);
 
-				if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field)) {
-					String columnName = null;
-	
-					Id id = EntityHandler.getId(field);
-					if (id != null) {
-						columnName = alias + id.name();
+			for (EntityField field : metadata.getFields()) {
+
+				if (field.isValueColumn()) {
+					entityMatch = true;
+
+					Object entityValue = EntityHandler.getValue(entity, field);
+					Object resultSetValue = getResultSetValue(rs, indexes, field);
+
+					if ((entityValue == null && resultSetValue != null) || (entityValue != null && resultSetValue == null)) {
+						return false;
 					}
-	
-					Column column = EntityHandler.getColumn(field);
-					if (column != null) {
-						columnName = alias + column.name();
+
+					if (!entityValue.equals(resultSetValue)) {
+						return false;
 					}
-	
-					if (columnName != null) {
-						entityMatch = true;
-	
-						Object entityValue = EntityHandler.getValue(entity, field);
-						Object resultSetValue = getResultSetValue(rs, columnName, field.getClass());
-	
-						if ((entityValue == null && resultSetValue != null) || (entityValue != null && resultSetValue == null)) {
-							return false;
-						}
-	
-						if (!entityValue.equals(resultSetValue)) {
+
+				} else if (field.getJoinId() != null) {
+					Entity joinEntity = (Entity) EntityHandler.getValue(entity, field);
+
+					if (joinEntity != null) {
+						String joinAlias = EntityAlias.getAlias(field);
+
+						if (!reuseEntity(joinEntity, rs, plan, joinAlias)) {
 							return false;
 						}
-	
-					} else {
-						JoinId joinId = EntityHandler.getJoinId(field);
-						if (joinId != null) {
-							Entity joinEntity = (Entity) EntityHandler.getValue(entity, field);
-	
-							if (joinEntity != null) {
-								String joinAlias = EntityAlias.getAlias(entity.getClass(), joinEntity.getClass().getName(), field.getName());
-
-								if (!reuseEntity(joinEntity, rs, joinAlias)) {
-									return false;
-								}
-							}
-				        }
 					}
 				}
 			}
@@ -86,12 +70,35 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		return entityMatch;
 	}
 
-	/*package*/ static Entity createEntity(final Class<? extends Entity> clazz, final ResultSet rs) {
+	/*package*/ static Object getEntityKey(final Class<?> clazz, final ResultSet rs, final EntityColumnPlan plan, final String alias) throws SQLException {
+		EntityMetadata metadata = EntityMetadata.getMetadata(clazz);
+		EntityField[] ids = metadata.getIds();
+		int[] indexes = plan.getIndexes(alias, metadata);
+
+		if (ids.length == 1) {
+			return getResultSetValue(rs, indexes, ids[0]);
+		}
+
+		if (ids.length > 1) {
+			List<Object> key = new ArrayList<Object>(ids.length);
+			for (EntityField id : ids) {
+				Object value = getResultSetValue(rs, indexes, id);
+				if (value == null) {
+					return null;
+				}
+				key.add(value);
+			}
+			return key;
+		}
+		return null;
+	}
+
+	/*package*/ static Entity createEntity(final Class<? extends Entity> clazz, final ResultSet rs, final EntityColumnPlan plan, final String alias) {
     	Entity entity = null;
     	try {
     		entity = clazz.newInstance();
     		EntityHandler.setInternalId(entity);
-        	setResultSet(entity, rs, EntityAlias.getAlias(clazz));
+        	setResultSet(entity, rs, plan, alias);
 
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
@@ -99,92 +106,84 @@ import com.jsmartdb.framework.annotation.OneToOne;
     	return entity;
     }
 
-	/*package*/ static void setResultSet(final Entity entity, final ResultSet rs, final String alias) {
+	/*package*/ static void setResultSet(final Entity entity, final ResultSet rs, final EntityColumnPlan plan, final String alias) {
 		try {
-			if (EntityHandler.isJoinTable(entity.getClass())) {
+			EntityMetadata metadata = EntityMetadata.getMetadata(entity.getClass());
+			if (metadata.isJoinTable()) {
 				EntityContext.addBuildBlockedClass(entity.getClass());
 			}
 
-			for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-
-				if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field)) {
-					String columnName = null;
+			int[] indexes = plan.getIndexes(alias, metadata);
 
-					Id id = EntityHandler.getId(field);
-					if (id != null) {
-						columnName = alias + id.name();
-					}
-
-					Column column = EntityHandler.getColumn(field);
-					if (column != null) {
-						columnName = alias + column.name();
-					}
+			for (EntityField field : metadata.getFields()) {
 
-					if (columnName != null) {
-						EntityHandler.setValue(entity, field, getResultSetValue(rs, columnName, field.getClass()));
+				if (field.isValueColumn()) {
+					field.getReader().readInto(rs, getColumnIndex(indexes, field), entity, field.getAccessor());
 
-					} else {
-						setJoinResultSet(entity, field, rs);
-					}
+				} else {
+					setJoinResultSet(entity, field, rs, plan);
 				}
 			}
+			EntityLazyLoader.setLazyCollections(entity);
+			EntityLazyLoader.setUnloadedReferences(entity);
+			EntityHandler.setSnapshot(entity);
 		} catch (SQLException ex) {
 			throw new RuntimeException(ex);
 		}
 	}
 
-	/*package*/ static void setJoinResultSet(final Entity entity, final ResultSet rs) {
+	/*package*/ static void setJoinResultSet(final Entity entity, final ResultSet rs, final EntityColumnPlan plan) {
 		if (!EntityContext.isBlockJoin()) {
-			for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
+			for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getFields()) {
 
-				if (!EntityHandler.isReserved(field) && !EntityHandler.isId(field) && !EntityHandler.isColumn(field) && !EntityHandler.isTransient(field)) {
-					setJoinResultSet(entity, field, rs);
+				if (!field.isValueColumn()) {
+					setJoinResultSet(entity, field, rs, plan);
 				}
 			}
 		}
 	}
 
-	private static boolean setJoinResultSet(final Entity entity, final Field field, final ResultSet rs) {
+	private static boolean setJoinResultSet(final Entity entity, final EntityField field, final ResultSet rs, final EntityColumnPlan plan) {
 		if (!EntityContext.isBlockJoin()) {
 
-		    OneToOne oneToOne = EntityHandler.getOneToOne(field);
+		    OneToOne oneToOne = field.getOneToOne();
 		    if (oneToOne != null && !EntityContext.getJoinBlockClasses().contains(field.getType())) {
-		    	if (oneToOne.join().type() != JoinType.NO_JOIN) {
-		    		setJoinResultSet(entity, field, oneToOne, rs);
+		    	if (oneToOne.join().type() != JoinType.NO_JOIN && !field.isLazy()) {
+		    		setJoinResultSet(entity, field, oneToOne, rs, plan);
 		    	}
 		        return true;
 		    }
 
-		    OneToMany oneToMany = EntityHandler.getOneToMany(field);
+		    OneToMany oneToMany = field.getOneToMany();
 	        if (oneToMany != null) {
-	        	Class<?> oneToManyClass = EntityHandler.getGenericType(field);
+	        	Class<?> oneToManyClass = field.getGenericType();
 
 	        	if (!EntityContext.getJoinBlockClasses().contains(oneToManyClass) && !EntityContext.containsBuildBlockedClass(oneToManyClass)) {
-		        	if (oneToMany.join().type() != JoinType.NO_JOIN) {
-		        		setJoinResultSet(entity, field, oneToMany, oneToManyClass, rs);
+		        	if (oneToMany.join().type() != JoinType.NO_JOIN && !field.isLazy()) {
+		        		setJoinResultSet(entity, field, oneToMany, oneToManyClass, rs, plan);
 		        	}
 		            return true;
 	        	}
 	        }
 
-	        ManyToMany manyToMany = EntityHandler.getManyToMany(field);
+	        ManyToMany manyToMany = field.getManyToMany();
 	        if (manyToMany != null) {
-	        	Class<?> manyToManyClass = EntityHandler.getGenericType(field);
+	        	Class<?> manyToManyClass = field.getGenericType();
 
 	        	if (!EntityContext.getJoinBlockClasses().contains(manyToManyClass)) {
-		        	if (manyToMany.join().type() != JoinType.NO_JOIN) {
-		        		setJoinResultSet(entity, field, manyToMany, manyToManyClass, rs);
+		        	if (manyToMany.join().type() != JoinType.NO_JOIN && !field.isLazy()) {
+		        		setJoinResultSet(entity, field, manyToMany, manyToManyClass, rs, plan);
 		        	}
 		            return true;
 	        	}
 	        }
 
-	        JoinId joinId = EntityHandler.getJoinId(field);
+	        JoinId joinId = field.getJoinId();
 	        if (joinId != null) {
 	        	if (!EntityContext.containsBuildBlockedClass(field.getType())) {
-	        		setJoinResultSet(entity, field, joinId, rs);
+	        		setJoinResultSet(entity, field, joinId, rs, plan);
 	        	} else {
-	        		EntityContext.setBlockedField(field);
+	        		EntityContext.setBlockedField(field.getField());
 	        	}
 		        return true;
 	        }
@@ -192,19 +191,20 @@ import com.jsmartdb.framework.annotation.OneToOne;
         return false;
 	}
 
-	private static void setJoinResultSet(final Entity entity, final Field field, final JoinId joinId, final ResultSet rs) {
+	private static void setJoinResultSet(final Entity entity, final EntityField field, final JoinId joinId, final ResultSet rs, final EntityColumnPlan plan) {
 		try {
-	        String alias = EntityAlias.getAlias(entity.getClass(), field.getType().getName(), field.getName());
+	        String alias = EntityAlias.getAlias(field);
 	        if (alias != null) {
-		        Field refererField = EntityFieldsMapper.getField(field.getType(), joinId.referer());
+		        EntityField refererField = field.getRefererField();
+		        int[] indexes = plan.getIndexes(alias, EntityMetadata.getMetadata(field.getType()));
 	
-		        if (rs.getObject(alias + EntityHandler.getRefererName(refererField), SQLTypes.getSQLTypes()) != null) {
+		        if (rs.getObject(getColumnIndex(indexes, refererField), SQLTypes.getSQLTypes()) != null) {
 	
 	            	if (EntityHandler.getValue(entity, field) == null) {
 	            		Entity obj = (Entity) field.getType().newInstance();
 	            		EntityHandler.setInternalId(obj);
 	
-	            		setResultSet(obj, rs, alias);
+	            		setResultSet(obj, rs, plan, alias);
 	                    EntityHandler.setValue(entity, field, obj);
 	
 	                    EntityContext.setBuildJoinedField(true);
@@ -222,13 +222,14 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		}
 	}
 
-	private static void setJoinResultSet(final Entity entity, final Field field, final OneToOne oneToOne, final ResultSet rs) {
+	private static void setJoinResultSet(final Entity entity, final EntityField field, final OneToOne oneToOne, final ResultSet rs, final EntityColumnPlan plan) {
 	    try {
-	        String alias = EntityAlias.getAlias(entity.getClass(), field.getType().getName(), field.getName());
+	        String alias = EntityAlias.getAlias(field);
 	        if (alias != null) {
-		        Field refererField = EntityFieldsMapper.getField(field.getType(), oneToOne.joinColumn().referer());
+		        EntityField refererField = field.getRefererField();
+		        int[] indexes = plan.getIndexes(alias, EntityMetadata.getMetadata(field.getType()));
 	
-	            if (rs.getObject(alias + EntityHandler.getRefererName(refererField), SQLTypes.getSQLTypes()) != null) {
+	            if (rs.getObject(getColumnIndex(indexes, refererField), SQLTypes.getSQLTypes()) != null) {
 	
 	            	Entity obj = (Entity) EntityHandler.getValue(entity, field);
 	
@@ -236,11 +237,11 @@ import com.jsmartdb.framework.annotation.OneToOne;
 	            		obj = (Entity) field.getType().newInstance();
 	            		EntityHandler.setInternalId(obj);
 	
-	            		setResultSet(obj, rs, alias);
+	            		setResultSet(obj, rs, plan, alias);
 	                    EntityHandler.setValue(entity, field, obj);
 	
 	            	} else {
-	            		setJoinResultSet(obj, rs);
+	            		setJoinResultSet(obj, rs, plan);
 	            	}
 	            }
 	        }
@@ -255,28 +256,31 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		}
 	}
 
-	private static void setJoinResultSet(final Entity entity, final Field field, final OneToMany oneToMany, final Class<?> oneToManyClass, final ResultSet rs) {
+	private static void setJoinResultSet(final Entity entity, final EntityField field, final OneToMany oneToMany, final Class<?> oneToManyClass, final ResultSet rs, final EntityColumnPlan plan) {
 		try {
-			if (EntityHandler.getTable(oneToManyClass).type() == TableType.DEFAULT_TABLE) {
+			if (!EntityHandler.isJoinTable(oneToManyClass)) {
 
-				String alias = EntityAlias.getAlias(entity.getClass(), oneToManyClass.getName(), field.getName());
+				String alias = EntityAlias.getAlias(field);
 				if (alias != null) {
-					Field nameField = EntityFieldsMapper.getField(oneToManyClass, EntityHandler.getFirstIdName(oneToManyClass));
+					EntityMetadata oneToManyMetadata = EntityMetadata.getMetadata(oneToManyClass);
+					EntityField nameField = oneToManyMetadata.getIds()[0];
 	
-				    Object id = rs.getObject(alias + EntityHandler.getFirstIdName(oneToManyClass), SQLTypes.getSQLTypes());
+				    Object id = rs.getObject(getColumnIndex(plan.getIndexes(alias, oneToManyMetadata), nameField), SQLTypes.getSQLTypes());
 	
 				    if (id != null) {
-						Entity obj = EntityHandler.getCollectionValue(entity, field, id, nameField);
+				    	EntityRowIndex rowIndex = EntityContext.getRowIndex();
+						Entity obj = rowIndex.get(alias, entity, id);
 	
 						if (obj == null) {
 							obj = (Entity) oneToManyClass.newInstance();
 							EntityHandler.setInternalId(obj);
 	
-							setResultSet(obj, rs, alias);
+							setResultSet(obj, rs, plan, alias);
 							EntityHandler.addValue(entity, field, obj);
+							rowIndex.put(alias, entity, id, obj);
 	
 						} else {
-							setJoinResultSet(obj, rs);
+							setJoinResultSet(obj, rs, plan);
 						}
 					}
 				}
@@ -285,11 +289,11 @@ import com.jsmartdb.framework.annotation.OneToOne;
 				Entity obj = (Entity) oneToManyClass.newInstance();
 				EntityHandler.setInternalId(obj);
 
-				String alias = EntityAlias.getAlias(entity.getClass(), oneToManyClass.getName(), field.getName());
+				String alias = EntityAlias.getAlias(field);
 				if (alias != null) {
 					EntityContext.addBuildBlockedClass(entity.getClass());
 	
-					setResultSet(obj, rs, alias);
+					setResultSet(obj, rs, plan, alias);
 	
 					if (EntityContext.isBuildJoinedField()) {
 						EntityHandler.setValue(obj, EntityContext.getBuildBlockedField(), entity);
@@ -311,26 +315,28 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		}
 	}
 
-	private static void setJoinResultSet(final Entity entity, final Field field, final ManyToMany manyToMany, final Class<?> manyToManyClass, final ResultSet rs) {
+	private static void setJoinResultSet(final Entity entity, final EntityField field, final ManyToMany manyToMany, final Class<?> manyToManyClass, final ResultSet rs, final EntityColumnPlan plan) {
 		try {
-			String alias = EntityAlias.getAlias(entity.getClass(), manyToManyClass.getName(), field.getName());
+			String alias = EntityAlias.getAlias(field);
 			if (alias != null) {
-				Field refererField = EntityFieldsMapper.getField(manyToManyClass, manyToMany.inverseJoinColumn().referer());
+				EntityField refererField = field.getRefererField();
 	
-				Object id = rs.getObject(alias + EntityHandler.getRefererName(refererField), SQLTypes.getSQLTypes());
+				Object id = rs.getObject(getColumnIndex(plan.getIndexes(alias, EntityMetadata.getMetadata(manyToManyClass)), refererField), SQLTypes.getSQLTypes());
 	
 				if (id != null) {
-					Entity obj = EntityHandler.getCollectionValue(entity, field, id, refererField);
+					EntityRowIndex rowIndex = EntityContext.getRowIndex();
+					Entity obj = rowIndex.get(alias, entity, id);
 	
 					if (obj == null) {
 						obj = (Entity) manyToManyClass.newInstance();
 						EntityHandler.setInternalId(obj);
 	
-						setResultSet(obj, rs, alias);
+						setResultSet(obj, rs, plan, alias);
 						EntityHandler.addValue(entity, field, obj);
+						rowIndex.put(alias, entity, id, obj);
 	
 					} else {
-						setJoinResultSet(obj, rs);
+						setJoinResultSet(obj, rs, plan);
 					}
 				}
 			}
@@ -345,52 +351,19 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		}
 	}
 
-	/*package*/ static Object getResultSetValue(final ResultSet rs, final int columnIndex, final Class<?> fieldClass) throws SQLException {
-		if (fieldClass == Byte.class) {
-        	return new Byte(rs.getByte(columnIndex));
-
-        } else if (fieldClass == Short.class) {
-        	return new Short(rs.getShort(columnIndex));
-
-        } else if (fieldClass == Integer.class) {
-        	return new Integer(rs.getInt(columnIndex));
-
-        } else if (fieldClass == Long.class) {
-        	return new Long(rs.getLong(columnIndex));
-
-        } else if (fieldClass == Float.class) {
-        	return new Float(rs.getFloat(columnIndex));
-
-        } else if (fieldClass == Double.class) {
-        	return new Double(rs.getDouble(columnIndex));
-
-        } else {
-        	return rs.getObject(columnIndex, SQLTypes.getSQLTypes());
-        }
+	private static int getColumnIndex(final int[] indexes, final EntityField field) throws SQLException {
+		if (!EntityColumnPlan.containsColumn(indexes, field)) {
+			throw new SQLException("Column " + field.getColumnName() + " is not present on select!");
+		}
+		return indexes[field.getIndex()];
 	}
 
-	/*package*/ static Object getResultSetValue(final ResultSet rs, final String columnName, final Class<?> fieldClass) throws SQLException {
-		if (fieldClass == Byte.class) {
-        	return new Byte(rs.getByte(columnName));
-
-        } else if (fieldClass == Short.class) {
-        	return new Short(rs.getShort(columnName));
-
-        } else if (fieldClass == Integer.class) {
-        	return new Integer(rs.getInt(columnName));
-
-        } else if (fieldClass == Long.class) {
-        	return new Long(rs.getLong(columnName));
-
-        } else if (fieldClass == Float.class) {
-        	return new Float(rs.getFloat(columnName));
-
-        } else if (fieldClass == Double.class) {
-        	return new Double(rs.getDouble(columnName));
+	private static Object getResultSetValue(final ResultSet rs, final int[] indexes, final EntityField field) throws SQLException {
+		return field.getReader().read(rs, getColumnIndex(indexes, field));
+	}
 
-        } else {
-        	return rs.getObject(columnName, SQLTypes.getSQLTypes());
-        }
+	/*package*/ static Object getResultSetValue(final ResultSet rs, final int columnIndex, final Class<?> fieldClass) throws SQLException {
+		return EntityColumnReader.create(fieldClass).read(rs, columnIndex);
 	}
 
 }
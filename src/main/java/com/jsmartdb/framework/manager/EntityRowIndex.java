@@ -0,0 +1,73 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Entities materialised by a select, keyed by alias, owner instance and primary key.
+/*package*/ final class EntityRowIndex {
+
+	private final Map<String, Map<RowKey, Entity>> aliasEntities = new HashMap<String, Map<RowKey, Entity>>();
+
+	/*package*/ Entity get(final String alias, final Entity owner, final Object key) {
+		Map<RowKey, Entity> entities = aliasEntities.get(alias);
+		if (entities != null) {
+			return entities.get(new RowKey(owner, key));
+		}
+		return null;
+	}
+
+	/*package*/ void put(final String alias, final Entity owner, final Object key, final Entity entity) {
+		Map<RowKey, Entity> entities = aliasEntities.get(alias);
+		if (entities == null) {
+			entities = new HashMap<RowKey, Entity>();
+			aliasEntities.put(alias, entities);
+		}
+		entities.put(new RowKey(owner, key), entity);
+	}
+
+	// Owner is compared by identity so children are never shared between parents
+	private static final class RowKey {
+
+		private final Entity owner;
+
+		private final Object key;
+
+		private RowKey(final Entity owner, final Object key) {
+			this.owner = owner;
+			this.key = key;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(owner) + key.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof RowKey) {
+				RowKey that = (RowKey) obj;
+				return owner == that.owner && key.equals(that.key);
+			}
+			return false;
+		}
+	}
+
+}
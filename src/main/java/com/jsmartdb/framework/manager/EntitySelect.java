@@ -65,17 +65,33 @@ import com.jsmartdb.framework.annotation.Table;
 
 	/*package*/ static PreparedStatement getSelectQuery(Entity entity) {
 		try {
-		    String targetTable = EntityHandler.getTable(entity.getClass()).name();
-	
-		    String targetAlias = targetTable + EntityContext.getAliasCounter();
-	
-		    EntityAlias.setAlias(entity.getClass(), targetAlias);
-	
-		    EntityContext.getJoinBuilder().append(targetTable + " as " + targetAlias);
+			List<Object> joinKey = EntitySelectCache.getJoinKey(entity.getClass());
+
+			if (joinKey == null || !EntitySelectCache.restoreJoin(joinKey)) {
+			    String targetTable = EntityHandler.getTable(entity.getClass()).name();
+		
+			    String targetAlias = targetTable + EntityContext.getAliasCounter();
+		
+			    EntityAlias.setAlias(entity.getClass(), targetAlias);
 	
-		    getDefaultSelect(entity.getClass(), entity.getClass(), EntityFieldsMapper.getFields(entity.getClass()), null, targetAlias);
+			    EntityContext.initColumnPlan();
+		
+			    EntityContext.getJoinBuilder().append(targetTable + " as " + targetAlias);
+		
+			    getDefaultSelect(entity.getClass(), entity.getClass(), EntityFieldsMapper.getFields(entity.getClass()), null, targetAlias);
+
+			    if (joinKey != null) {
+			    	EntitySelectCache.putJoin(joinKey);
+			    }
+			}
 	
-		    EntityWhere.getDefaultWhere(entity, EntityFieldsMapper.getFields(entity.getClass()));
+		    EntityWhere.getDefaultWhere(entity, EntityMetadata.getMetadata(entity.getClass()).getFields());
+
+		    List<Object> selectKey = joinKey != null ? EntitySelectCache.getSelectKey(joinKey) : null;
+
+		    if (selectKey != null && EntitySelectCache.restoreSelect(selectKey)) {
+		    	return getPreparedStatement();
+		    }
 	
 		    if (EntityContext.containsMaxResult()) {
 	
@@ -89,6 +105,12 @@ import com.jsmartdb.framework.annotation.Table;
 		    }
 	
 		    getOrderBy(entity.getClass(), EntityContext.getJoinBuilder(), EntityContext.getOrderBuilder());
+
+		    EntityContext.setCompleteGraph(isCompleteGraph(entity.getClass()));
+
+		    if (selectKey != null) {
+		    	EntitySelectCache.putSelect(selectKey);
+		    }
 	
 			return getPreparedStatement();
 		} catch (Exception ex) {
@@ -96,6 +118,58 @@ import com.jsmartdb.framework.annotation.Table;
 		}
 	}
 
+	// Select of clazz rows whose column meets the condition, used to load lazy relations
+	/*package*/ static PreparedStatement getRelationSelectQuery(Class<?> clazz, String column, String condition, List<Object> values) {
+		try {
+			String targetTable = EntityHandler.getTable(clazz).name();
+
+			String targetAlias = targetTable + EntityContext.getAliasCounter();
+
+			EntityAlias.setAlias(clazz, targetAlias);
+
+			EntityContext.initColumnPlan();
+
+			EntityContext.getJoinBuilder().append(targetTable + " as " + targetAlias);
+
+			getDefaultSelect(clazz, clazz, EntityFieldsMapper.getFields(clazz), null, targetAlias);
+
+			EntityContext.getWhereBuilder().append(targetAlias + "." + column + condition);
+			EntityContext.addAllBuilderValue(values);
+
+			getOrderBy(clazz, EntityContext.getJoinBuilder(), EntityContext.getOrderBuilder());
+
+			EntityContext.setCompleteGraph(isCompleteGraph(clazz));
+
+			return getPreparedStatement();
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	// Whether selected roots carry their whole join graph, so the identity map may hand them to later selects
+	private static boolean isCompleteGraph(Class<?> entityClazz) {
+		if (EntityContext.isBlockJoin()) {
+			return false;
+		}
+
+		// Default select overloads register a null block class
+		for (Class<?> joinBlockClass : EntityContext.getJoinBlockClasses()) {
+			if (joinBlockClass != null) {
+				return false;
+			}
+		}
+
+		String targetAlias = EntityAlias.getAlias(entityClazz);
+
+		// Where restrictions on joined aliases filter the joined rows as well
+		for (String alias : EntityContext.getAliases().values()) {
+			if (!alias.equals(targetAlias) && EntityContext.getWhereBuilder().indexOf(alias + ".") >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private static PreparedStatement getPreparedStatement() {
 		PreparedStatement pstmt = null;
 		try {
@@ -111,7 +185,10 @@ import com.jsmartdb.framework.annotation.Table;
 		return pstmt;
 	}
 
+	// Fields are the mapped fields of fieldClazz, so its metadata holds their descriptors at the same index
 	private static void getDefaultSelect(Class<?> entityClazz, Class<?> fieldClazz, Field[] fields, String matchField, String alias) throws Exception {
+		final EntityMetadata metadata = EntityMetadata.getMetadata(fieldClazz);
+
 		for (int i = 0; i < fields.length; i++) {
         	Field field = fields[i];
 
@@ -130,18 +207,27 @@ import com.jsmartdb.framework.annotation.Table;
         	Column column = EntityHandler.getColumn(field);
             if (column != null) {
             	EntityContext.getSelectBuilder().append(alias + "." + column.name() + (matchField == null ? " as " + alias + column.name() + "," : ","));
+            	if (matchField == null) {
+            		EntityContext.addPlanColumn(alias, column.name());
+            	}
             	continue;
             }
 
         	Id id = EntityHandler.getId(field);
             if (id != null) {
             	EntityContext.getSelectBuilder().append(alias + "." + id.name() + (matchField == null ? " as " + alias + id.name() + "," : ","));
+            	if (matchField == null) {
+            		EntityContext.addPlanColumn(alias, id.name());
+            	}
             	continue;
             }
 
             JoinId joinId = EntityHandler.getJoinId(field);
             if (joinId != null) {
             	EntityContext.getSelectBuilder().append(alias + "." + joinId.column() + (matchField == null ? " as " + alias + joinId.column() + "," : ","));
+            	if (matchField == null) {
+            		EntityContext.addPlanColumn(alias, joinId.column());
+            	}
             }
 
         	if (!EntityContext.isBlockJoin()) {
@@ -173,7 +259,7 @@ import com.jsmartdb.framework.annotation.Table;
                 OneToOne oneToOne = EntityHandler.getOneToOne(field);
                 if (oneToOne != null && !EntityContext.getJoinBlockClasses().contains(field.getType())) {
 
-                	if (oneToOne.join().type() != JoinType.NO_JOIN) {
+                	if (oneToOne.join().type() != JoinType.NO_JOIN && !metadata.getField(i).isLazy()) {
 
                 		Field[] oneToOneFields = EntityFieldsMapper.getFields(field.getType());
 
@@ -201,7 +287,7 @@ import com.jsmartdb.framework.annotation.Table;
 
                 	if (!EntityContext.getJoinBlockClasses().contains(oneToManyClass)) {
 
-                		if (oneToMany.join().type() != JoinType.NO_JOIN) {
+                		if (oneToMany.join().type() != JoinType.NO_JOIN && !metadata.getField(i).isLazy()) {
 
                 			String targetTable = EntityHandler.getTable(oneToManyClass).name();
                 			String targetAlias = targetTable + EntityContext.getAliasCounter();
@@ -278,7 +364,7 @@ import com.jsmartdb.framework.annotation.Table;
 
                 	if (!EntityContext.getJoinBlockClasses().contains(manyToManyClass)) {
 
-	                	if (manyToMany.join().type() != JoinType.NO_JOIN) {
+	                	if (manyToMany.join().type() != JoinType.NO_JOIN && !metadata.getField(i).isLazy()) {
 	
 	                    	String targetTableOne = manyToMany.joinTable();
 	                    	String targetTableTwo = EntityHandler.getTable(manyToManyClass).name();
@@ -357,6 +443,11 @@ import com.jsmartdb.framework.annotation.Table;
 
 		getOrderBy(entityClazz, innerJoinBuilder, innderOrderByBuilder);
 
+		if (EntityContext.isKeysetPaging() && EntityContext.getKeysetValues() != null) {
+			innerWhereBuilder.append(innerWhereBuilder.length() > 0 ? EntityWhere.AND_OPERATOR : EntityWhere.WHERE_STATEMENT);
+			innerWhereBuilder.append(getKeysetWhere(entityClazz));
+		}
+
 		innerSelectBuilder.append(innerWhereBuilder.toString() + innderOrderByBuilder);
 
 		if (EntityContext.containsMaxResult()) {
@@ -377,6 +468,8 @@ import com.jsmartdb.framework.annotation.Table;
 		    String targetAlias = targetTable + EntityContext.getAliasCounter();  
 	
 		    EntityAlias.setAlias(entityClazz, targetAlias);
+
+		    EntityContext.initColumnPlan();
 	
 		    EntityContext.getJoinBuilder().append(targetTable + " as " + targetAlias);
 	
@@ -402,6 +495,8 @@ import com.jsmartdb.framework.annotation.Table;
 		    }
 	
 		    getOrderBy(entityClazz, EntityContext.getJoinBuilder(), EntityContext.getOrderBuilder());
+
+		    EntityContext.setCompleteGraph(isCompleteGraph(entityClazz));
 	
 			return getPreparedStatement();
 		} catch (Exception ex) {
@@ -444,21 +539,85 @@ import com.jsmartdb.framework.annotation.Table;
 
 		String orderBy = EntityAlias.getMatchColumn(entityClazz, EntityFieldsMapper.getFields(entityClazz), EntityContext.getOrderBy(), EntityAlias.getAlias(entityClazz), joinBuilder);
 
+		// Keyset pages need a total order, so the id breaks ties of the order by column, streams need all ids to keep rows of a root adjacent
+		List<String> orderIds = new ArrayList<String>();
+		if (EntityContext.isKeysetPaging()) {
+			orderIds.add(EntityAlias.getAlias(entityClazz) + "." + EntityHandler.getFirstIdName(entityClazz));
+		} else if (EntityContext.isIdOrder()) {
+			for (EntityField id : EntityMetadata.getMetadata(entityClazz).getIds()) {
+				orderIds.add(EntityAlias.getAlias(entityClazz) + "." + id.getColumnName());
+			}
+		}
+
 		if (orderBy != null && !orderBy.trim().isEmpty()) {
 			orderByBuilder.append(orderBy + " ");
 		} else if (!targetTable.orderBy().trim().isEmpty()) {
 			orderByBuilder.append(EntityAlias.getAlias(entityClazz) + "." + targetTable.orderBy() + " ");
+		} else if (!orderIds.isEmpty()) {
+			orderByBuilder.append(orderIds.get(0) + " ");
 		} else {
 			orderByBuilder.replace(0, orderByBuilder.length(), "");
 		}
 
 		if (orderByBuilder.length() != 0) {
-			if (EntityContext.containsOrderDir()) {
-				orderByBuilder.append((EntityContext.getOrderDir() == OrderType.ASCENDING ? "asc" : "desc") + " ");
-			} else {
-				orderByBuilder.append((targetTable.orderDir() == OrderType.ASCENDING ? "asc" : "desc") + " ");
+			String orderDir = isAscendingOrder(targetTable) ? "asc" : "desc";
+			orderByBuilder.append(orderDir + " ");
+
+			for (String orderId : orderIds) {
+				if (orderByBuilder.indexOf(orderId + " ") < 0) {
+					orderByBuilder.append(SEPARATOR + orderId + " " + orderDir + " ");
+				}
+			}
+		}
+	}
+
+	private static boolean isAscendingOrder(Table targetTable) {
+		if (EntityContext.containsOrderDir()) {
+			return EntityContext.getOrderDir() == OrderType.ASCENDING;
+		}
+		return targetTable.orderDir() == OrderType.ASCENDING;
+	}
+
+	// Seek predicate placing the inner select right after the last row of the previous page
+	private static String getKeysetWhere(Class<?> entityClazz) {
+		String alias = EntityAlias.getAlias(entityClazz);
+		String operator = isAscendingOrder(EntityHandler.getTable(entityClazz)) ? " > " : " < ";
+
+		EntityField keysetField = getKeysetField(entityClazz);
+		String keysetId = alias + "." + EntityHandler.getFirstIdName(entityClazz);
+
+		if (keysetField != null) {
+			return "(" + alias + "." + keysetField.getColumnName() + SEPARATOR + keysetId + ")" + operator + "(?, ?)";
+		}
+		return keysetId + operator + "?";
+	}
+
+	// Column of the selected entity ordering the keyset pages, null when pages are ordered by id only
+	/*package*/ static EntityField getKeysetField(Class<?> entityClazz) {
+		EntityMetadata metadata = EntityMetadata.getMetadata(entityClazz);
+		EntityField idField = EntityKeyset.getIdField(entityClazz);
+		EntityField keysetField = null;
+
+		String orderBy = EntityContext.getOrderBy();
+		String tableOrderBy = metadata.getTable().orderBy().trim();
+
+		if (orderBy != null && !orderBy.trim().isEmpty()) {
+			keysetField = metadata.getField(orderBy.trim());
+			if (keysetField == null || !keysetField.isValueColumn()) {
+				throw new RuntimeException("Keyset pagination requires orderBy to be a column of " + entityClazz.getSimpleName() + "!");
+			}
+		} else if (!tableOrderBy.isEmpty()) {
+			for (EntityField field : metadata.getFields()) {
+				if (field.isValueColumn() && field.getColumnName().equals(tableOrderBy)) {
+					keysetField = field;
+					break;
+				}
+			}
+			if (keysetField == null) {
+				throw new RuntimeException("Keyset pagination requires Table orderBy to be a column of " + entityClazz.getSimpleName() + "!");
 			}
 		}
+		return keysetField != idField ? keysetField : null;
 	}
 
-}
\ No newline at end of file
+}
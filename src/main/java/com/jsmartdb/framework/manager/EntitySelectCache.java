@@ -0,0 +1,156 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.jsmartdb.framework.manager;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Rendered select statements keyed by query shape, so repeated selects only collect and bind where values.
+/*package*/ final class EntitySelectCache {
+
+	private static int CACHE_SIZE = 1000;
+
+	// Select list, joins and aliases of an entity graph
+	private static final EntityLruCache JOIN_PLANS;
+
+	// Complete statements including where, inner select and order by
+	private static final EntityLruCache SELECT_PLANS;
+
+	static {
+		String cacheSize = EntityPersistence.getInstance().getProperty(EntityPersistence.SELECT_CACHE_SIZE);
+		if (cacheSize != null) {
+			try {
+				CACHE_SIZE = Integer.parseInt(cacheSize);
+			} catch (NumberFormatException ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		JOIN_PLANS = new EntityLruCache(CACHE_SIZE, 0);
+		SELECT_PLANS = new EntityLruCache(CACHE_SIZE, 0);
+	}
+
+	/*
+	 * Aliases are numbered by the context counter, so only selects built on a fresh context render the same text.
+	 * Returns null when the current select cannot be cached.
+	 */
+	/*package*/ static List<Object> getJoinKey(Class<?> entityClazz) {
+		if (CACHE_SIZE <= 0 || EntityContext.getAliasCount() != 0 || !EntityContext.getAliases().isEmpty()) {
+			return null;
+		}
+
+		Set<Class<?>> blockClasses = new HashSet<Class<?>>(EntityContext.getJoinBlockClasses());
+		blockClasses.remove(null);
+		return Arrays.<Object>asList(entityClazz, EntityContext.isBlockJoin(), blockClasses);
+	}
+
+	// Where text holds columns and placeholders only, values are collected apart
+	/*package*/ static List<Object> getSelectKey(List<Object> joinKey) {
+		return Arrays.<Object>asList(joinKey, EntityContext.getWhereBuilder().toString(), EntityContext.getOrderBy(), EntityContext.getOrderDir(), 
+				EntityContext.getFirstResult(), EntityContext.getMaxResult(), EntityContext.isKeysetPaging(), EntityContext.getKeysetValues() != null, 
+				EntityContext.isIdOrder());
+	}
+
+	/*package*/ static boolean restoreJoin(List<Object> joinKey) {
+		return restore((SelectPlan) JOIN_PLANS.get(joinKey));
+	}
+
+	/*package*/ static void putJoin(List<Object> joinKey) {
+		JOIN_PLANS.put(joinKey, new SelectPlan(false));
+	}
+
+	/*package*/ static boolean restoreSelect(List<Object> selectKey) {
+		return restore((SelectPlan) SELECT_PLANS.get(selectKey));
+	}
+
+	/*package*/ static void putSelect(List<Object> selectKey) {
+		SELECT_PLANS.put(selectKey, new SelectPlan(true));
+	}
+
+	/*package*/ static EntityCacheStatistics getStatistics() {
+		return SELECT_PLANS.getStatistics();
+	}
+
+	/*package*/ static int size() {
+		return SELECT_PLANS.size();
+	}
+
+	/*package*/ static void clear() {
+		JOIN_PLANS.clear();
+		SELECT_PLANS.clear();
+	}
+
+	private static boolean restore(SelectPlan plan) {
+		if (plan == null) {
+			return false;
+		}
+
+		replace(EntityContext.getSelectBuilder(), plan.select);
+		replace(EntityContext.getJoinBuilder(), plan.join);
+
+		if (plan.where != null) {
+			replace(EntityContext.getWhereBuilder(), plan.where);
+			replace(EntityContext.getOrderBuilder(), plan.order);
+			EntityContext.setCompleteGraph(plan.completeGraph);
+		}
+
+		EntityContext.getAliases().putAll(plan.aliases);
+		EntityContext.setAliasCount(plan.aliasCount);
+		EntityContext.setColumnPlan(plan.columnPlan);
+		return true;
+	}
+
+	private static void replace(StringBuilder builder, String value) {
+		builder.replace(0, builder.length(), value);
+	}
+
+	private static final class SelectPlan {
+
+		private final String select;
+
+		private final String join;
+
+		private final String where;
+
+		private final String order;
+
+		private final boolean completeGraph;
+
+		private final Map<String, String> aliases;
+
+		private final int aliasCount;
+
+		private final EntityColumnPlan columnPlan;
+
+		private SelectPlan(boolean complete) {
+			this.select = EntityContext.getSelectBuilder().toString();
+			this.join = EntityContext.getJoinBuilder().toString();
+			this.where = complete ? EntityContext.getWhereBuilder().toString() : null;
+			this.order = complete ? EntityContext.getOrderBuilder().toString() : null;
+			this.completeGraph = complete && EntityContext.isCompleteGraph();
+			this.aliases = new HashMap<String, String>(EntityContext.getAliases());
+			this.aliasCount = EntityContext.getAliasCount();
+			this.columnPlan = EntityContext.getColumnPlan();
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Statements of a context keyed by generated keys flag and sql, least recently used ones are closed once the cache is full.
+// Statements evicted while handed out are closed when released instead.
+/*package*/ final class EntityStatementCache {
+
+	private final Map<String, PreparedStatement> statements;
+
+	private final Set<PreparedStatement> cached = Collections.newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+
+	private final Set<PreparedStatement> inUse = Collections.newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+
+	/*package*/ EntityStatementCache(final int maxSize) {
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() > maxSize) {
+					cached.remove(eldest.getValue());
+					if (!inUse.contains(eldest.getValue())) {
+						close(eldest.getValue());
+					}
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/*package*/ PreparedStatement get(final String key) {
+		PreparedStatement pstmt = statements.get(key);
+		if (pstmt != null) {
+			inUse.add(pstmt);
+		}
+		return pstmt;
+	}
+
+	/*package*/ void put(final String key, final PreparedStatement pstmt) {
+		cached.add(pstmt);
+		inUse.add(pstmt);
+		statements.put(key, pstmt);
+	}
+
+	// Whether the released statement is no longer cached and must be closed by the caller
+	/*package*/ boolean release(final PreparedStatement pstmt) {
+		inUse.remove(pstmt);
+		return !cached.contains(pstmt);
+	}
+
+	/*package*/ void close() {
+		for (PreparedStatement pstmt : statements.values()) {
+			close(pstmt);
+		}
+		statements.clear();
+		cached.clear();
+		inUse.clear();
+	}
+
+	private static void close(final PreparedStatement pstmt) {
+		try {
+			pstmt.close();
+		} catch (SQLException ex) {
+			// DO NOTHING
+		}
+	}
+
+}
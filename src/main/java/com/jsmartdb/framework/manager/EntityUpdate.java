@@ -18,71 +18,126 @@
 
 package com.jsmartdb.framework.manager;
 
-import java.lang.reflect.Field;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.jsmartdb.framework.types.InsertType;
 
-import com.jsmartdb.framework.annotation.Column;
 import com.jsmartdb.framework.annotation.Id;
-import com.jsmartdb.framework.annotation.JoinId;
 import com.jsmartdb.framework.annotation.ManyToMany;
-import com.jsmartdb.framework.annotation.OneToOne;
 
 /*package*/ final class EntityUpdate {
 
-	private static final Map<String, String> INSERT_PSTMT_CACHE = new HashMap<String, String>();
+	private static final ClassValue<String> INSERT_PSTMT_CACHE = new ClassValue<String>() {
+
+		@Override
+		protected String computeValue(Class<?> clazz) {
+			return buildInsert(EntityMetadata.getMetadata(clazz), 1);
+		}
+	};
+
+	private static final String DIALECT = EntityPersistence.getInstance().getProperty(EntityPersistence.SQL_DIALECT);
+
+	private static final ClassValue<String> UPSERT_PSTMT_CACHE = new ClassValue<String>() {
+
+		@Override
+		protected String computeValue(Class<?> clazz) {
+			return buildUpsert(EntityMetadata.getMetadata(clazz), DIALECT);
+		}
+	};
+
+	// Multi row insert statements by number of rows
+	private static final ClassValue<ConcurrentMap<Integer, String>> INSERT_ROWS_PSTMT_CACHE = new ClassValue<ConcurrentMap<Integer, String>>() {
+
+		@Override
+		protected ConcurrentMap<Integer, String> computeValue(Class<?> clazz) {
+			return new ConcurrentHashMap<Integer, String>();
+		}
+	};
+
+	// Rows per batch insert statement, one for single row batches
+	private static final ClassValue<Integer> INSERT_ROWS = new ClassValue<Integer>() {
+
+		@Override
+		protected Integer computeValue(Class<?> clazz) {
+			EntityMetadata metadata = EntityMetadata.getMetadata(clazz);
+
+			InsertType insertType = metadata.getTable().insertType();
+			if (insertType == InsertType.DEFAULT_INSERT) {
+				insertType = ConnectionFactory.INSERT_TYPE;
+			}
+
+			if (insertType != InsertType.MULTI_ROW_INSERT || metadata.getInsertFields().length == 0) {
+				return 1;
+			}
+			return Math.max(1, ConnectionFactory.INSERT_MAX_PARAMETERS / metadata.getInsertFields().length);
+		}
+	};
+
+	private static final ClassValue<String> UPDATE_PSTMT_CACHE = new ClassValue<String>() {
+
+		@Override
+		protected String computeValue(Class<?> clazz) {
+			EntityMetadata metadata = EntityMetadata.getMetadata(clazz);
+
+			BitSet updateMask = new BitSet(metadata.getUpdateFields().length);
+			updateMask.set(0, metadata.getUpdateFields().length);
+			return buildUpdate(metadata, updateMask);
+		}
+	};
+
+	// Update statements by changed update fields of the entity class
+	private static final ClassValue<ConcurrentMap<BitSet, String>> UPDATE_MASK_PSTMT_CACHE = new ClassValue<ConcurrentMap<BitSet, String>>() {
+
+		@Override
+		protected ConcurrentMap<BitSet, String> computeValue(Class<?> clazz) {
+			return new ConcurrentHashMap<BitSet, String>();
+		}
+	};
+
+	private static final ClassValue<ConcurrentMap<Class<?>, String>> INSERT_JOIN_PSTMT_CACHE = new ClassValue<ConcurrentMap<Class<?>, String>>() {
+
+		@Override
+		protected ConcurrentMap<Class<?>, String> computeValue(Class<?> clazz) {
+			return new ConcurrentHashMap<Class<?>, String>();
+		}
+	};
+
+	// Delete statements by non null delete fields of the entity class
+	private static final ClassValue<ConcurrentMap<BitSet, String>> DELETE_PSTMT_CACHE = new ClassValue<ConcurrentMap<BitSet, String>>() {
 
-	private static final Map<String, String> UPDATE_PSTMT_CACHE = new HashMap<String, String>();
+		@Override
+		protected ConcurrentMap<BitSet, String> computeValue(Class<?> clazz) {
+			return new ConcurrentHashMap<BitSet, String>();
+		}
+	};
+
+	// Key delete statements by number of entities in the in list
+	private static final ClassValue<ConcurrentMap<Integer, String>> DELETE_IN_PSTMT_CACHE = new ClassValue<ConcurrentMap<Integer, String>>() {
+
+		@Override
+		protected ConcurrentMap<Integer, String> computeValue(Class<?> clazz) {
+			return new ConcurrentHashMap<Integer, String>();
+		}
+	};
 
 	private static final String AND_OPERATOR = " and ";
 
 	/*package*/ static PreparedStatement getInsert(Class<?> clazz) {
 		PreparedStatement pstmt = null;
 		try {
-			if (EntityFieldsMapper.getFields(clazz).length > 0) {
+			EntityMetadata metadata = EntityMetadata.getMetadata(clazz);
+			if (metadata.getFields().length > 0) {
 
-				String sql = INSERT_PSTMT_CACHE.get(clazz.getName());
+				String sql = INSERT_PSTMT_CACHE.get(clazz);
 
-				if (sql == null) {
-					StringBuilder builder1 = new StringBuilder("insert into " + EntityHandler.getTable(clazz).name() + " (");
-					StringBuilder builder2 = new StringBuilder(" values (");
-	
-					for (Field field : EntityFieldsMapper.getFields(clazz)) {
-						if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field) && !EntityHandler.isOneToMany(field) && !EntityHandler.isManyToMany(field)) {
-	
-							Column column = EntityHandler.getColumn(field);
-							if (column != null) {
-								builder1.append(column.name() + ",");
-								builder2.append("?,");
-								continue;
-							}
-	
-							OneToOne oneToOne = EntityHandler.getOneToOne(field);
-							if (oneToOne != null) {
-								builder1.append(oneToOne.joinColumn().column() + ",");
-								builder2.append("?,");
-								continue;
-							}
-	
-							Id id = EntityHandler.getId(field);
-							if (id != null) {
-								builder1.append(id.name() + ",");
-								builder2.append("?,");
-								continue;
-							}
-						}
-					}
-	
-					sql = builder1.substring(0, builder1.length() -1) + ")" + builder2.substring(0, builder2.length() -1) + ")";
-	
-					INSERT_PSTMT_CACHE.put(clazz.getName(), sql);
-				}
-
-				pstmt = EntityContext.getConnection().prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
+				pstmt = EntityContext.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
 			}
 
 		} catch (SQLException ex) {
@@ -91,81 +146,95 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		return pstmt;
 	}
 
+	/*package*/ static int getInsertRows(Class<?> clazz) {
+		return INSERT_ROWS.get(clazz);
+	}
+
+	/*package*/ static PreparedStatement getInsert(Class<?> clazz, int rows) {
+		if (rows == 1) {
+			return getInsert(clazz);
+		}
+
+		try {
+			ConcurrentMap<Integer, String> insertRowsCache = INSERT_ROWS_PSTMT_CACHE.get(clazz);
+			String sql = insertRowsCache.get(rows);
+
+			if (sql == null) {
+				sql = buildInsert(EntityMetadata.getMetadata(clazz), rows);
+				String cached = insertRowsCache.putIfAbsent(rows, sql);
+				if (cached != null) {
+					sql = cached;
+				}
+			}
+
+			return EntityContext.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
+
+		} catch (SQLException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
 	/*package*/ static void putInsertValues(PreparedStatement pstmt, Entity entity) {
+		putInsertValues(pstmt, entity, 1);
+	}
+
+	// Values of every entity row in sequence for multi row inserts
+	/*package*/ static void putInsertValues(PreparedStatement pstmt, List<? extends Entity> entities) {
+		int paramIndex = 1;
+		for (Entity entity : entities) {
+			paramIndex = putInsertValues(pstmt, entity, paramIndex);
+		}
+	}
+
+	private static int putInsertValues(PreparedStatement pstmt, Entity entity, int paramIndex) {
 		try {
 			if (pstmt != null) {
-				int paramIndex = 1;
-	
-				for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-					if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field) && !EntityHandler.isOneToMany(field) && !EntityHandler.isManyToMany(field)) {
-	
-						Column column = EntityHandler.getColumn(field);
-						if (column != null) {
-							pstmt.setObject(paramIndex++, EntityHandler.getValue(entity, field));
-							continue;
-						}
-	
-						OneToOne oneToOne = EntityHandler.getOneToOne(field);
-						if (oneToOne != null) {
-							Entity ent = (Entity) EntityHandler.getValue(entity, field);
-							pstmt.setObject(paramIndex++, ent != null ? EntityHandler.getRefererValue(ent, EntityFieldsMapper.getField(ent.getClass(), oneToOne.joinColumn().referer())) : null);
-							continue;
-						}
-
-						Id id = EntityHandler.getId(field);
-						if (id != null) {
-							if (id.sequence().isEmpty()) {
-								pstmt.setObject(paramIndex++, EntityHandler.getValue(entity, field));
-							} else {
-								pstmt.setObject(paramIndex++, id.sequence() + ".nextval");
-							}
-							continue;
-						}
-
+				for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getInsertFields()) {
+					Id id = field.getId();
+					if (id != null && field.getColumn() == null && field.getOneToOne() == null && !id.sequence().isEmpty()) {
+						pstmt.setObject(paramIndex++, id.sequence() + ".nextval");
+					} else {
+						pstmt.setObject(paramIndex++, getStatementValue(entity, field));
 					}
 				}
 			}
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
 		}
+		return paramIndex;
 	}
 
-	/*package*/ static PreparedStatement getInsertJoin(Class<?> clazz) {
+	/*package*/ static PreparedStatement getUpsert(Class<?> clazz, boolean generatedKeys) {
 		PreparedStatement pstmt = null;
 		try {
-			if (EntityFieldsMapper.getFields(clazz).length > 0) {
+			EntityMetadata metadata = EntityMetadata.getMetadata(clazz);
+			if (metadata.getFields().length > 0) {
 
-				String sql = INSERT_PSTMT_CACHE.get(clazz.getName());
+				String sql = UPSERT_PSTMT_CACHE.get(clazz);
 
-				if (sql == null) {
-					StringBuilder builder1 = new StringBuilder("insert into " + EntityHandler.getTable(clazz).name() + " (");
-					StringBuilder builder2 = new StringBuilder(" values (");
-	
-					for (Field field : EntityFieldsMapper.getFields(clazz)) {
-						if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field)) {
-	
-							JoinId joinId = EntityHandler.getJoinId(field);
-							if (joinId != null) {
-								builder1.append(joinId.column() + ",");
-								builder2.append("?,");
-								continue;
-							}
-	
-							Column column = EntityHandler.getColumn(field);
-							if (column != null) {
-								builder1.append(column.name() + ",");
-								builder2.append("?,");
-								continue;
-							}
-						}
-					}
-	
-					sql = builder1.substring(0, builder1.length() -1) + ")" + builder2.substring(0, builder2.length() -1) + ")";
-	
-					INSERT_PSTMT_CACHE.put(clazz.getName(), sql);
-				}
+				pstmt = EntityContext.prepareStatement(sql, generatedKeys ? PreparedStatement.RETURN_GENERATED_KEYS : PreparedStatement.NO_GENERATED_KEYS);
+			}
+
+		} catch (SQLException ex) {
+			throw new RuntimeException(ex);
+		}
+		return pstmt;
+	}
+
+	// Conflicting rows are updated with the inserted values, so upsert binds the insert values only
+	/*package*/ static void putUpsertValues(PreparedStatement pstmt, Entity entity) {
+		putInsertValues(pstmt, entity);
+	}
+
+	/*package*/ static PreparedStatement getInsertJoin(Class<?> clazz) {
+		PreparedStatement pstmt = null;
+		try {
+			EntityMetadata metadata = EntityMetadata.getMetadata(clazz);
+			if (metadata.getFields().length > 0) {
 
-				pstmt = EntityContext.getConnection().prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
+				String sql = INSERT_PSTMT_CACHE.get(clazz);
+
+				pstmt = EntityContext.prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
 			}
 
 		} catch (SQLException ex) {
@@ -179,22 +248,8 @@ import com.jsmartdb.framework.annotation.OneToOne;
 			if (pstmt != null) {
 				int paramIndex = 1;
 	
-				for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-					if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field)) {
-	
-						JoinId joinId = EntityHandler.getJoinId(field);
-						if (joinId != null) {
-							Entity ent = (Entity) EntityHandler.getValue(entity, field);
-							pstmt.setObject(paramIndex++, EntityHandler.getRefererValue(ent, EntityFieldsMapper.getField(ent.getClass(), joinId.referer())));
-							continue;
-						}
-	
-						Column column = EntityHandler.getColumn(field);
-						if (column != null) {
-							pstmt.setObject(paramIndex++, EntityHandler.getValue(entity, field));
-							continue;
-						}
-					}
+				for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getInsertFields()) {
+					pstmt.setObject(paramIndex++, getStatementValue(entity, field));
 				}
 			}
 		} catch (Exception ex) {
@@ -205,18 +260,21 @@ import com.jsmartdb.framework.annotation.OneToOne;
 	/*package*/ static PreparedStatement getInsertJoin(Class<?> classOne, Class<?> classTwo) {
 		PreparedStatement pstmt = null;
 		try {
-			String sqlKey = classOne.getName() + classTwo.getName();
-			String sql = INSERT_PSTMT_CACHE.get(sqlKey);
+			ConcurrentMap<Class<?>, String> joinCache = INSERT_JOIN_PSTMT_CACHE.get(classOne);
+			String sql = joinCache.get(classTwo);
 
 			if (sql == null) {
-				ManyToMany manyToMany = EntityHandler.getManyToMany(EntityFieldsMapper.getFields(classOne), classTwo);
+				ManyToMany manyToMany = EntityHandler.getManyToMany(classOne, classTwo);
 				if (manyToMany != null) {
-					sql = "insert into " + manyToMany.joinTable() + " (" + manyToMany.joinColumn().column() + "," + manyToMany.inverseJoinColumn().column() + ") values (?,?)";
-					INSERT_PSTMT_CACHE.put(sqlKey, sql);
+					sql = buildInsertJoin(manyToMany);
+					String cached = joinCache.putIfAbsent(classTwo, sql);
+					if (cached != null) {
+						sql = cached;
+					}
 				}
 			}
 
-			pstmt = EntityContext.getConnection().prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
+			pstmt = EntityContext.prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
 
 		} catch (SQLException ex) {
 			throw new RuntimeException(ex);
@@ -224,13 +282,26 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		return pstmt;
 	}
 
+	// Insert into the join table of the given relation, owners may have more than one relation to the same class
+	/*package*/ static PreparedStatement getInsertJoin(ManyToMany manyToMany) {
+		try {
+			return EntityContext.prepareStatement(buildInsertJoin(manyToMany), PreparedStatement.NO_GENERATED_KEYS);
+		} catch (SQLException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private static String buildInsertJoin(ManyToMany manyToMany) {
+		return "insert into " + manyToMany.joinTable() + " (" + manyToMany.joinColumn().column() + "," + manyToMany.inverseJoinColumn().column() + ") values (?,?)";
+	}
+
 	/*package*/ static void putInsertJoinValues(PreparedStatement pstmt, ManyToMany manyToMany, Entity entityOne, Entity entityTwo) {
 		try {
 			if (pstmt != null) {
 				pstmt.setObject(1, EntityHandler.getRefererValue(entityOne, 
-						EntityFieldsMapper.getField(entityOne.getClass(), manyToMany.joinColumn().referer())));
+						EntityMetadata.getMetadata(entityOne.getClass()).getField(manyToMany.joinColumn().referer())));
 				pstmt.setObject(2, EntityHandler.getRefererValue(entityTwo, 
-						EntityFieldsMapper.getField(entityTwo.getClass(), manyToMany.inverseJoinColumn().referer())));
+						EntityMetadata.getMetadata(entityTwo.getClass()).getField(manyToMany.inverseJoinColumn().referer())));
 			}
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
@@ -240,44 +311,12 @@ import com.jsmartdb.framework.annotation.OneToOne;
 	/*package*/ static PreparedStatement getUpdate(Class<?> clazz) {
 		PreparedStatement pstmt = null;
 		try {
-			if (EntityFieldsMapper.getFields(clazz).length > 0) {
-
-	            String sql = UPDATE_PSTMT_CACHE.get(clazz.getName());
+			EntityMetadata metadata = EntityMetadata.getMetadata(clazz);
+			if (metadata.getFields().length > 0) {
 
-	            if (sql == null) {
-					StringBuilder builder1 = new StringBuilder("update " + EntityHandler.getTable(clazz).name() + " set ");
-					StringBuilder builder2 = new StringBuilder(EntityWhere.WHERE_STATEMENT);
+	            String sql = UPDATE_PSTMT_CACHE.get(clazz);
 
-					for (Field field : EntityFieldsMapper.getFields(clazz)) {
-						if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field) && !EntityHandler.isOneToMany(field) && !EntityHandler.isManyToMany(field)) {
-
-							Column column = EntityHandler.getColumn(field);
-							if (column != null) {
-								builder1.append(column.name() + "= ?,");
-								continue;
-							}
-
-							OneToOne oneToOne = EntityHandler.getOneToOne(field);
-							if (oneToOne != null) {
-								builder1.append(oneToOne.joinColumn().column() + "= ?,");
-								continue;
-							}
-	
-							Id id = EntityHandler.getId(field);
-							if (id != null) {
-								builder1.append(id.name() + "= ?,");
-								builder2.append(id.name() + "= ?" + AND_OPERATOR);
-								continue;
-							}
-						}
-					}
-	
-					sql = builder1.substring(0, builder1.length() -1) + builder2.substring(0, builder2.length() - AND_OPERATOR.length());
-	
-					UPDATE_PSTMT_CACHE.put(clazz.getName(), sql);
-	            }
-
-				pstmt = EntityContext.getConnection().prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
+				pstmt = EntityContext.prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
 			}
 		} catch (SQLException ex) {
 			throw new RuntimeException(ex);
@@ -289,37 +328,15 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		try {
 			if (pstmt != null) {
 				int paramIndex = 1;
-				List<Object> updateValues = new ArrayList<Object>();
-				
-				for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-					if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field) && !EntityHandler.isOneToMany(field) && !EntityHandler.isManyToMany(field)) {
-
-						Column column = EntityHandler.getColumn(field);
-						if (column != null) {
-							pstmt.setObject(paramIndex++, EntityHandler.getValue(entity, field));
-							continue;
-						}
-
-						OneToOne oneToOne = EntityHandler.getOneToOne(field);
-						if (oneToOne != null) {
-							Entity ent = (Entity) EntityHandler.getValue(entity, field);
-							pstmt.setObject(paramIndex++, ent != null ? EntityHandler.getRefererValue(ent, EntityFieldsMapper.getField(ent.getClass(), oneToOne.joinColumn().referer())) : null);
-							continue;
-						}
-
-						Id id = EntityHandler.getId(field);
-						if (id != null) {
-							Object value = EntityHandler.getValue(entity, field);
-							pstmt.setObject(paramIndex++, value);
-							updateValues.add(value);
-							continue;
-						}
-					}
+				EntityMetadata metadata = EntityMetadata.getMetadata(entity.getClass());
+
+				for (EntityField field : metadata.getUpdateFields()) {
+					pstmt.setObject(paramIndex++, getStatementValue(entity, field));
 				}
 
 				// Set primary key value in where clause
-				for (Object value : updateValues) {
-					pstmt.setObject(paramIndex++, value);
+				for (EntityField field : metadata.getUpdateKeyFields()) {
+					pstmt.setObject(paramIndex++, getStatementValue(entity, field));
 				}
 			}
 		} catch (Exception ex) {
@@ -327,78 +344,75 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		}
 	}
 
-	/*package*/ static PreparedStatement getUpdateJoin(Class<?> clazz) {
+	/*package*/ static PreparedStatement getUpdate(Class<?> clazz, BitSet updateMask) {
 		PreparedStatement pstmt = null;
 		try {
-			if (EntityFieldsMapper.getFields(clazz).length > 0) {
-
-				String sql = UPDATE_PSTMT_CACHE.get(clazz.getName());
-
-				if (sql == null) {
-					StringBuilder builder1 = new StringBuilder("update " + EntityHandler.getTable(clazz).name() + " set ");
-					StringBuilder builder2 = new StringBuilder(EntityWhere.WHERE_STATEMENT);
-
-					for (Field field : EntityFieldsMapper.getFields(clazz)) {
-						if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field)) {
-
-							Column column = EntityHandler.getColumn(field);
-							if (column != null) {
-								builder1.append(column.name() + "= ?,");
-								continue;
-							}
-
-							JoinId joinId = EntityHandler.getJoinId(field);
-							if (joinId != null) {
-								builder1.append(joinId.column() + "= ?,");
-								builder2.append(joinId.column() + "= ?" + AND_OPERATOR);
-								continue;
-							}
-						}
-					}
+			EntityMetadata metadata = EntityMetadata.getMetadata(clazz);
+			if (updateMask.cardinality() == metadata.getUpdateFields().length) {
+				return getUpdate(clazz);
+			}
 
-					sql = builder1.substring(0, builder1.length() -1) + builder2.substring(0, builder2.length() - AND_OPERATOR.length());
+			ConcurrentMap<BitSet, String> updateCache = UPDATE_MASK_PSTMT_CACHE.get(clazz);
+			String sql = updateCache.get(updateMask);
 
-					UPDATE_PSTMT_CACHE.put(clazz.getName(), sql);
+			if (sql == null) {
+				sql = buildUpdate(metadata, updateMask);
+				String cached = updateCache.putIfAbsent((BitSet) updateMask.clone(), sql);
+				if (cached != null) {
+					sql = cached;
 				}
-
-				pstmt = EntityContext.getConnection().prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
 			}
 
+			pstmt = EntityContext.prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
+
 		} catch (SQLException ex) {
 			throw new RuntimeException(ex);
 		}
 		return pstmt;
 	}
 
-	/*package*/ static void putUpdateJoinValues(PreparedStatement pstmt, Entity entity) {
+	// Bit set for every update field changed since the entity snapshot, in update fields order. All fields are set for entities without snapshot, 
+	// except lazy OneToOne references neither selected nor assigned
+	/*package*/ static BitSet getUpdateMask(Entity entity) {
+		EntityField[] updateFields = EntityMetadata.getMetadata(entity.getClass()).getUpdateFields();
+		BitSet updateMask = new BitSet(updateFields.length);
+
+		Object[] snapshot = EntityHandler.getSnapshot(entity);
+		if (snapshot == null || snapshot.length != updateFields.length) {
+			updateMask.set(0, updateFields.length);
+
+			if (entity.unloaded != null) {
+				for (int i = entity.unloaded.nextSetBit(0); i >= 0; i = entity.unloaded.nextSetBit(i + 1)) {
+					if (EntityHandler.getValue(entity, updateFields[i]) == null) {
+						updateMask.clear(i);
+					}
+				}
+			}
+			return updateMask;
+		}
+
+		for (int i = 0; i < updateFields.length; i++) {
+			if (isChanged(getStatementValue(entity, updateFields[i]), snapshot[i])) {
+				updateMask.set(i);
+			}
+		}
+		return updateMask;
+	}
+
+	/*package*/ static void putUpdateValues(PreparedStatement pstmt, Entity entity, BitSet updateMask) {
 		try {
 			if (pstmt != null) {
 				int paramIndex = 1;
-				List<Object> updateValues = new ArrayList<Object>();
-
-				for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-					if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field)) {
-
-						Column column = EntityHandler.getColumn(field);
-						if (column != null) {
-							pstmt.setObject(paramIndex++, EntityHandler.getValue(entity, field));
-							continue;
-						}
-
-						JoinId joinId = EntityHandler.getJoinId(field);
-						if (joinId != null) {
-							Entity ent = (Entity) EntityHandler.getValue(entity, field);
-							Object value = EntityHandler.getRefererValue(ent, EntityFieldsMapper.getField(ent.getClass(), joinId.referer()));
-							pstmt.setObject(paramIndex++, value);
-							updateValues.add(value);
-							continue;
-						}
-					}
+				EntityMetadata metadata = EntityMetadata.getMetadata(entity.getClass());
+
+				EntityField[] updateFields = metadata.getUpdateFields();
+				for (int i = updateMask.nextSetBit(0); i >= 0; i = updateMask.nextSetBit(i + 1)) {
+					pstmt.setObject(paramIndex++, getStatementValue(entity, updateFields[i]));
 				}
 
 				// Set primary key value in where clause
-				for (Object value : updateValues) {
-					pstmt.setObject(paramIndex++, value);
+				for (EntityField field : metadata.getUpdateKeyFields()) {
+					pstmt.setObject(paramIndex++, getStatementValue(entity, field));
 				}
 			}
 		} catch (Exception ex) {
@@ -406,37 +420,65 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		}
 	}
 
+	// Statement values of update fields, mutable values are copied so in place changes are still detected
+	/*package*/ static Object[] getSnapshot(Entity entity) {
+		EntityField[] updateFields = EntityMetadata.getMetadata(entity.getClass()).getUpdateFields();
+		Object[] snapshot = new Object[updateFields.length];
+
+		for (int i = 0; i < updateFields.length; i++) {
+			Object value = getStatementValue(entity, updateFields[i]);
+
+			if (value instanceof byte[]) {
+				value = ((byte[]) value).clone();
+			} else if (value instanceof Date) {
+				value = ((Date) value).clone();
+			}
+			snapshot[i] = value;
+		}
+		return snapshot;
+	}
+
+	private static boolean isChanged(Object value, Object snapshotValue) {
+		if (value instanceof byte[] && snapshotValue instanceof byte[]) {
+			return !Arrays.equals((byte[]) value, (byte[]) snapshotValue);
+		}
+		return value != null ? !value.equals(snapshotValue) : snapshotValue != null;
+	}
+
+	/*package*/ static PreparedStatement getUpdateJoin(Class<?> clazz) {
+		return getUpdate(clazz);
+	}
+
+	/*package*/ static void putUpdateJoinValues(PreparedStatement pstmt, Entity entity) {
+		putUpdateValues(pstmt, entity);
+	}
+
 	/*package*/ static PreparedStatement getDelete(Entity entity) {
+		return getDelete(entity.getClass(), getDeleteMask(entity));
+	}
+
+	/*package*/ static PreparedStatement getDelete(Class<?> clazz, BitSet deleteMask) {
 		PreparedStatement pstmt = null;
 		try {
-			if (EntityFieldsMapper.getFields(entity.getClass()).length > 0) {
-
-				StringBuilder builder1 = new StringBuilder("delete from " + EntityHandler.getTable(entity.getClass()).name());
-				StringBuilder builder2 = new StringBuilder();
-
-				for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-					if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field)) {
-
-						Id id = EntityHandler.getId(field);
-						if (id != null && EntityHandler.getValue(entity, field) != null) {
-							builder2.append(id.name() + "= ?" + AND_OPERATOR);
-							continue;
-						}
-		
-						Column column = EntityHandler.getColumn(field);
-						if (column != null && EntityHandler.getValue(entity, field) != null) {
-							builder2.append(column.name() + "= ?" + AND_OPERATOR);
-							continue;
-						}
-					}
-				}
+			EntityMetadata metadata = EntityMetadata.getMetadata(clazz);
+			if (metadata.getFields().length > 0) {
 
-				if (builder2.length() == 0) {
+				if (deleteMask.isEmpty()) {
 					throw new RuntimeException("Object to be deleted must have at least one attribute non transient filled!");
 				}
 
-				String sql = builder1.append(EntityWhere.WHERE_STATEMENT) + builder2.substring(0, builder2.length() - AND_OPERATOR.length());
-				pstmt = EntityContext.getConnection().prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
+				ConcurrentMap<BitSet, String> deleteCache = DELETE_PSTMT_CACHE.get(clazz);
+				String sql = deleteCache.get(deleteMask);
+
+				if (sql == null) {
+					sql = buildDelete(metadata, deleteMask);
+					String cached = deleteCache.putIfAbsent((BitSet) deleteMask.clone(), sql);
+					if (cached != null) {
+						sql = cached;
+					}
+				}
+
+				pstmt = EntityContext.prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
 			}
 
 		} catch (SQLException ex) {
@@ -445,31 +487,27 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		return pstmt;
 	}
 
+	// Bit set for every delete field holding a value, in delete fields order
+	/*package*/ static BitSet getDeleteMask(Entity entity) {
+		EntityField[] deleteFields = EntityMetadata.getMetadata(entity.getClass()).getDeleteFields();
+		BitSet deleteMask = new BitSet(deleteFields.length);
+
+		for (int i = 0; i < deleteFields.length; i++) {
+			if (EntityHandler.getValue(entity, deleteFields[i]) != null) {
+				deleteMask.set(i);
+			}
+		}
+		return deleteMask;
+	}
+
 	/*package*/ static void putDeleteValues(PreparedStatement pstmt, Entity entity) {
 		try {
 			if (pstmt != null) {
 				int paramIndex = 1;
-				
-				for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-					if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field)) {
-
-						Id id = EntityHandler.getId(field);
-						if (id != null) {
-							Object value = EntityHandler.getValue(entity, field);
-							if (value != null) {
-								pstmt.setObject(paramIndex++, value);
-							}
-							continue;
-						}
-
-						Column column = EntityHandler.getColumn(field);
-						if (column != null) {
-							Object value = EntityHandler.getValue(entity, field);
-							if (value != null) {
-								pstmt.setObject(paramIndex++, value);
-							}
-							continue;
-						}
+
+				for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getDeleteFields()) {
+					if (EntityHandler.getValue(entity, field) != null) {
+						pstmt.setObject(paramIndex++, getStatementValue(entity, field));
 					}
 				}
 			}
@@ -478,89 +516,74 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		}
 	}
 
-	/*package*/ static PreparedStatement getDeleteJoin(Entity entity) {
-		PreparedStatement pstmt = null;
-		try {
-			if (EntityFieldsMapper.getFields(entity.getClass()).length > 0) {
-
-				StringBuilder builder1 = new StringBuilder("delete from " + EntityHandler.getTable(entity.getClass()).name());
-				StringBuilder builder2 = new StringBuilder();
-
-				for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-					if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field)) {
+	// Whether the entity can be deleted by its Id fields, or JoinId fields for join tables
+	/*package*/ static boolean isKeyDelete(Entity entity) {
+		EntityField[] keyFields = EntityMetadata.getMetadata(entity.getClass()).getUpdateKeyFields();
+		if (keyFields.length == 0) {
+			return false;
+		}
 
-						JoinId joinId = EntityHandler.getJoinId(field);
-						if (joinId != null && EntityHandler.getValue(entity, field) != null) {
-							builder2.append(joinId.column() + "= ?" + AND_OPERATOR);
-							continue;
-						}
+		for (EntityField field : keyFields) {
+			if (getStatementValue(entity, field) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-						Column column = EntityHandler.getColumn(field);
-						if (column != null && EntityHandler.getValue(entity, field) != null) {
-							builder2.append(column.name() + "= ?" + AND_OPERATOR);
-							continue;
-						}
-					}
-				}
+	/*package*/ static PreparedStatement getDeleteIn(Class<?> clazz, int size) {
+		try {
+			ConcurrentMap<Integer, String> deleteInCache = DELETE_IN_PSTMT_CACHE.get(clazz);
+			String sql = deleteInCache.get(size);
 
-				if (builder2.length() == 0) {
-					throw new RuntimeException("Object to be deleted must have at least one attribute non transient filled!");
+			if (sql == null) {
+				sql = buildDeleteIn(EntityMetadata.getMetadata(clazz), size);
+				String cached = deleteInCache.putIfAbsent(size, sql);
+				if (cached != null) {
+					sql = cached;
 				}
-
-				String sql = builder1.append(EntityWhere.WHERE_STATEMENT) + builder2.substring(0, builder2.length() - AND_OPERATOR.length());
-				pstmt = EntityContext.getConnection().prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
 			}
 
+			return EntityContext.prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
+
 		} catch (SQLException ex) {
 			throw new RuntimeException(ex);
 		}
-		return pstmt;
 	}
 
-	/*package*/ static void putDeleteJoinValues(PreparedStatement pstmt, Entity entity) {
+	/*package*/ static void putDeleteInValues(PreparedStatement pstmt, List<? extends Entity> entities) {
 		try {
-			if (pstmt != null) {
-				int paramIndex = 1;
+			int paramIndex = 1;
 
-				for (Field field : EntityFieldsMapper.getFields(entity.getClass())) {
-					if (!EntityHandler.isReserved(field) && !EntityHandler.isTransient(field)) {
-
-						JoinId joinId = EntityHandler.getJoinId(field);
-						if (joinId != null) {
-							Entity ent = (Entity) EntityHandler.getValue(entity, field);
-							if (ent != null) {
-								pstmt.setObject(paramIndex++, EntityHandler.getRefererValue(ent, EntityFieldsMapper.getField(ent.getClass(), joinId.referer())));
-							}
-							continue;
-						}
-
-						Column column = EntityHandler.getColumn(field);
-						if (column != null) {
-							Object value = EntityHandler.getValue(entity, field);
-							if (value != null) {
-								pstmt.setObject(paramIndex++, value);
-							}
-							continue;
-						}
-					}
+			for (Entity entity : entities) {
+				for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getUpdateKeyFields()) {
+					pstmt.setObject(paramIndex++, getStatementValue(entity, field));
 				}
 			}
-		} catch (Exception ex) {
+		} catch (SQLException ex) {
 			throw new RuntimeException(ex);
 		}
 	}
 
+	/*package*/ static PreparedStatement getDeleteJoin(Entity entity) {
+		return getDelete(entity);
+	}
+
+	/*package*/ static void putDeleteJoinValues(PreparedStatement pstmt, Entity entity) {
+		putDeleteValues(pstmt, entity);
+	}
+
 	/*package*/ static PreparedStatement getDeleteJoin(Class<?> classOne, Class<?> classTwo) {
 		PreparedStatement pstmt = null;
 		try {
             String sql = null;
 
-			ManyToMany manyToMany = EntityHandler.getManyToMany(EntityFieldsMapper.getFields(classOne), classTwo);
+			ManyToMany manyToMany = EntityHandler.getManyToMany(classOne, classTwo);
 			if (manyToMany != null) {
-				sql = "delete from " + manyToMany.joinTable() + EntityWhere.WHERE_STATEMENT + manyToMany.joinColumn().column() + "= ?" + AND_OPERATOR + manyToMany.inverseJoinColumn().column() + "= ?";
+				sql = buildDeleteJoin(manyToMany);
 			}
 
-			pstmt = EntityContext.getConnection().prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
+			pstmt = EntityContext.prepareStatement(sql, PreparedStatement.NO_GENERATED_KEYS);
 
 		} catch (SQLException ex) {
 			throw new RuntimeException(ex);
@@ -568,13 +591,25 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		return pstmt;
 	}
 
+	/*package*/ static PreparedStatement getDeleteJoin(ManyToMany manyToMany) {
+		try {
+			return EntityContext.prepareStatement(buildDeleteJoin(manyToMany), PreparedStatement.NO_GENERATED_KEYS);
+		} catch (SQLException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private static String buildDeleteJoin(ManyToMany manyToMany) {
+		return "delete from " + manyToMany.joinTable() + EntityWhere.WHERE_STATEMENT + manyToMany.joinColumn().column() + "= ?" + AND_OPERATOR + manyToMany.inverseJoinColumn().column() + "= ?";
+	}
+
 	/*package*/ static void putDeleteJoinValues(PreparedStatement pstmt, ManyToMany manyToMany, Entity entityOne, Entity entityTwo) {
 		try {
 			if (pstmt != null) {
 				pstmt.setObject(1, EntityHandler.getRefererValue(entityOne, 
-						EntityFieldsMapper.getField(entityOne.getClass(), manyToMany.joinColumn().referer())));
+						EntityMetadata.getMetadata(entityOne.getClass()).getField(manyToMany.joinColumn().referer())));
 				pstmt.setObject(2, EntityHandler.getRefererValue(entityTwo, 
-						EntityFieldsMapper.getField(entityTwo.getClass(), manyToMany.inverseJoinColumn().referer())));
+						EntityMetadata.getMetadata(entityTwo.getClass()).getField(manyToMany.inverseJoinColumn().referer())));
 			}
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
@@ -607,4 +642,128 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		}
 	}
 
+	private static String buildInsert(EntityMetadata metadata, int rows) {
+		StringBuilder builder1 = new StringBuilder("insert into " + metadata.getTable().name() + " (");
+		StringBuilder builder2 = new StringBuilder("(");
+
+		for (EntityField field : metadata.getInsertFields()) {
+			builder1.append(field.getColumnName() + ",");
+			builder2.append("?,");
+		}
+
+		String rowValues = builder2.substring(0, builder2.length() -1) + ")";
+		StringBuilder builder3 = new StringBuilder(" values ");
+
+		for (int i = 0; i < rows; i++) {
+			builder3.append(rowValues + ",");
+		}
+
+		return builder1.substring(0, builder1.length() -1) + ")" + builder3.substring(0, builder3.length() -1);
+	}
+
+	// Insert statement updating the non key columns when a row with the same Id or JoinId values exists
+	/*package*/ static String buildUpsert(EntityMetadata metadata, String dialect) {
+		List<EntityField> keyFields = Arrays.asList(metadata.getUpdateKeyFields());
+		if (keyFields.isEmpty()) {
+			throw new RuntimeException("Entity to be upserted must have Id or JoinId fields mapped!");
+		}
+
+		boolean mySql = EntityPersistence.DIALECTS[0].equals(dialect);
+		boolean postgreSql = EntityPersistence.DIALECTS[1].equals(dialect);
+
+		if (!mySql && !postgreSql) {
+			throw new RuntimeException("Upsert is supported for " + Arrays.toString(EntityPersistence.DIALECTS) + " dialects only!");
+		}
+
+		StringBuilder builder1 = new StringBuilder();
+		StringBuilder builder2 = new StringBuilder();
+
+		for (EntityField field : keyFields) {
+			builder1.append(field.getColumnName() + ",");
+		}
+
+		for (EntityField field : metadata.getInsertFields()) {
+			if (!keyFields.contains(field)) {
+				builder2.append(field.getColumnName() + "=" + (mySql ? "values(" + field.getColumnName() + ")," : "excluded." + field.getColumnName() + ","));
+			}
+		}
+
+		String insert = buildInsert(metadata, 1);
+
+		if (mySql) {
+			// No op assignment keeps rows without other columns untouched
+			String updates = builder2.length() > 0 ? builder2.substring(0, builder2.length() -1) : keyFields.get(0).getColumnName() + "=" + keyFields.get(0).getColumnName();
+			return insert + " on duplicate key update " + updates;
+		}
+
+		String conflict = insert + " on conflict (" + builder1.substring(0, builder1.length() -1) + ") do ";
+		return builder2.length() > 0 ? conflict + "update set " + builder2.substring(0, builder2.length() -1) : conflict + "nothing";
+	}
+
+	private static String buildUpdate(EntityMetadata metadata, BitSet updateMask) {
+		StringBuilder builder1 = new StringBuilder("update " + metadata.getTable().name() + " set ");
+		StringBuilder builder2 = new StringBuilder(EntityWhere.WHERE_STATEMENT);
+
+		EntityField[] updateFields = metadata.getUpdateFields();
+		for (int i = updateMask.nextSetBit(0); i >= 0; i = updateMask.nextSetBit(i + 1)) {
+			builder1.append(updateFields[i].getColumnName() + "= ?,");
+		}
+
+		for (EntityField field : metadata.getUpdateKeyFields()) {
+			builder2.append(field.getColumnName() + "= ?" + AND_OPERATOR);
+		}
+
+		return builder1.substring(0, builder1.length() -1) + builder2.substring(0, builder2.length() - AND_OPERATOR.length());
+	}
+
+	private static String buildDelete(EntityMetadata metadata, BitSet deleteMask) {
+		StringBuilder builder1 = new StringBuilder("delete from " + metadata.getTable().name());
+		StringBuilder builder2 = new StringBuilder();
+
+		EntityField[] deleteFields = metadata.getDeleteFields();
+		for (int i = deleteMask.nextSetBit(0); i >= 0; i = deleteMask.nextSetBit(i + 1)) {
+			builder2.append(deleteFields[i].getColumnName() + "= ?" + AND_OPERATOR);
+		}
+
+		return builder1.append(EntityWhere.WHERE_STATEMENT) + builder2.substring(0, builder2.length() - AND_OPERATOR.length());
+	}
+
+	// Single keys use id in (?,?), composite keys use (a,b) in ((?,?),(?,?))
+	private static String buildDeleteIn(EntityMetadata metadata, int size) {
+		EntityField[] keyFields = metadata.getUpdateKeyFields();
+
+		StringBuilder builder1 = new StringBuilder();
+		StringBuilder builder2 = new StringBuilder();
+
+		for (EntityField field : keyFields) {
+			builder1.append(field.getColumnName() + ",");
+			builder2.append("?,");
+		}
+
+		String keyColumns = builder1.substring(0, builder1.length() -1);
+		String keyValues = builder2.substring(0, builder2.length() -1);
+
+		if (keyFields.length > 1) {
+			keyColumns = "(" + keyColumns + ")";
+			keyValues = "(" + keyValues + ")";
+		}
+
+		StringBuilder builder3 = new StringBuilder("delete from " + metadata.getTable().name() + EntityWhere.WHERE_STATEMENT + keyColumns + " in (");
+
+		for (int i = 0; i < size; i++) {
+			builder3.append(keyValues + ",");
+		}
+
+		return builder3.substring(0, builder3.length() -1) + ")";
+	}
+
+	// Value bound for a statement column, OneToOne and JoinId relations bind the referenced column of the related entity
+	private static Object getStatementValue(Entity entity, EntityField field) {
+		if (field.getJoinId() != null || field.getOneToOne() != null) {
+			Entity ent = (Entity) EntityHandler.getValue(entity, field);
+			return ent != null ? EntityHandler.getRefererValue(ent, field.getRefererField()) : null;
+		}
+		return EntityHandler.getValue(entity, field);
+	}
+
 }
@@ -21,20 +21,12 @@ package com.jsmartdb.framework.manager;
 import java.lang.reflect.Field;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.regex.Matcher;
-
-import org.apache.commons.lang.StringUtils;
 
 import com.jsmartdb.framework.types.JoinType;
-import com.jsmartdb.framework.types.TableType;
 
-import com.jsmartdb.framework.annotation.Column;
-import com.jsmartdb.framework.annotation.Id;
 import com.jsmartdb.framework.annotation.JoinId;
 import com.jsmartdb.framework.annotation.ManyToMany;
 import com.jsmartdb.framework.annotation.OneToMany;
@@ -52,14 +44,10 @@ import com.jsmartdb.framework.annotation.OneToOne;
 	 * No recursive method to get object values to place in where clause, just one join level
 	 */
 	@SuppressWarnings("unchecked")
-	public static void getDefaultWhere(Entity entity, Field[] fields) {
+	public static void getDefaultWhere(Entity entity, EntityField[] fields) {
 		
         for (int i = 0; i < fields.length; i++) {
-        	Field field = fields[i];
-
-        	if (EntityHandler.isReserved(field) || EntityHandler.isTransient(field)) {
-        		continue;
-        	}
+        	EntityField field = fields[i];
 
         	if (buildFieldWhere(entity, EntityAlias.getAlias(entity.getClass()), field)) {
         		continue;
@@ -67,50 +55,50 @@ import com.jsmartdb.framework.annotation.OneToOne;
 
         	if (!EntityContext.isBlockJoin()) {
 
-        		JoinId joinId = EntityHandler.getJoinId(field);
+        		JoinId joinId = field.getJoinId();
         		if (joinId != null && !EntityContext.getJoinBlockClasses().contains(field.getType())) {
         			if (joinId.join().type() != JoinType.NO_JOIN) {
 
 	            		Entity obj = (Entity) EntityHandler.getValue(entity, field);
 	            		if (obj != null) {
-	            			String alias = EntityAlias.getAlias(entity.getClass(), field.getType().getName(), field.getName());
-	            			buildFieldsWhere(obj, alias, EntityFieldsMapper.getFields(field.getType()));
+	            			String alias = EntityAlias.getAlias(entity.getClass(), field.getType().getName(), field.getField().getName());
+	            			buildFieldsWhere(obj, alias, EntityMetadata.getMetadata(field.getType()).getFields());
 	            		}
 	            	}
         			continue;
         		}
 
-	        	OneToOne oneToOne = EntityHandler.getOneToOne(field);
+	        	OneToOne oneToOne = field.getOneToOne();
 	            if (oneToOne != null && !EntityContext.getJoinBlockClasses().contains(field.getType())) {
-	            	if (oneToOne.join().type() != JoinType.NO_JOIN) {
+	            	if (oneToOne.join().type() != JoinType.NO_JOIN && !field.isLazy()) {
 
 	            		Entity obj = (Entity) EntityHandler.getValue(entity, field);
 	            		if (obj != null) {
-	            			String alias = EntityAlias.getAlias(entity.getClass(), field.getType().getName(), field.getName());
-	            			buildFieldsWhere(obj, alias, EntityFieldsMapper.getFields(field.getType()));
+	            			String alias = EntityAlias.getAlias(entity.getClass(), field.getType().getName(), field.getField().getName());
+	            			buildFieldsWhere(obj, alias, EntityMetadata.getMetadata(field.getType()).getFields());
 	            		}
 	            	}
 	                continue;
 	            }
 
-	            OneToMany oneToMany = EntityHandler.getOneToMany(field);
+	            OneToMany oneToMany = field.getOneToMany();
                 if (oneToMany != null) {
-                	Class<?> oneToManyClass = EntityHandler.getGenericType(field);
+                	Class<?> oneToManyClass = field.getGenericType();
                 	
                 	if (!EntityContext.getJoinBlockClasses().contains(oneToManyClass)) {
-                		if (oneToMany.join().type() != JoinType.NO_JOIN) {
+                		if (oneToMany.join().type() != JoinType.NO_JOIN && !field.isLazy()) {
 
-	                		if (EntityHandler.getTable(oneToManyClass).type() == TableType.DEFAULT_TABLE) {
+	                		if (!EntityHandler.isJoinTable(oneToManyClass)) {
 	                    		Collection<Entity> collection = (Collection<Entity>) EntityHandler.getValue(entity, field);
 	
 	    	            		if (collection != null && !collection.isEmpty()) {
 	    	            			EntityContext.getWhereBuilder().append("(");
-	    	            			String alias = EntityAlias.getAlias(entity.getClass(), oneToManyClass.getName(), field.getName());
+	    	            			String alias = EntityAlias.getAlias(entity.getClass(), oneToManyClass.getName(), field.getField().getName());
 	
 	    	            			for (Entity obj : collection) {
 	    	            				EntityContext.getWhereBuilder().append("(");
 	
-	    	            				buildFieldsWhere(obj, alias, EntityFieldsMapper.getFields(oneToManyClass));
+	    	            				buildFieldsWhere(obj, alias, EntityMetadata.getMetadata(oneToManyClass).getFields());
 	
 	    	            				EntityContext.getWhereBuilder().replace(EntityContext.getWhereBuilder().length() - AND_OPERATOR.length(), 
 	    	            						EntityContext.getWhereBuilder().length(), "").append(")" + OR_OPERATOR);
@@ -126,13 +114,13 @@ import com.jsmartdb.framework.annotation.OneToOne;
 	    	            		if (collection != null && !collection.isEmpty()) {
 	    	            			EntityContext.getWhereBuilder().append("(");
 
-	    	            			String alias = EntityAlias.getAlias(entity.getClass(), oneToManyClass.getName(), field.getName());
+	    	            			String alias = EntityAlias.getAlias(entity.getClass(), oneToManyClass.getName(), field.getField().getName());
 	
 	    	            			for (Entity obj : collection) {
 	    	            				EntityContext.getWhereBuilder().append("(");
 	
-	    	            				for (Field fieldy : EntityFieldsMapper.getFields(oneToManyClass)) {
-	    	            					JoinId joinIdn = EntityHandler.getJoinId(fieldy);
+	    	            				for (EntityField fieldy : EntityMetadata.getMetadata(oneToManyClass).getFields()) {
+	    	            					JoinId joinIdn = fieldy.getJoinId();
 	    	            					
 	    	            					if (buildFieldWhere(obj, alias, fieldy)) {
 	    	            						continue;
@@ -143,9 +131,9 @@ import com.jsmartdb.framework.annotation.OneToOne;
 
 	    		                    			if (joinObj != null) {
 	    		                    				EntityContext.getWhereBuilder().append("(");
-	    		                    				String joinAlias = EntityAlias.getAlias(oneToManyClass, fieldy.getType().getName(), fieldy.getName());
+	    		                    				String joinAlias = EntityAlias.getAlias(oneToManyClass, fieldy.getType().getName(), fieldy.getField().getName());
 
-	    		                    				buildFieldsWhere(joinObj, joinAlias, EntityFieldsMapper.getFields(fieldy.getType()));
+	    		                    				buildFieldsWhere(joinObj, joinAlias, EntityMetadata.getMetadata(fieldy.getType()).getFields());
 
 	    		                    				EntityContext.getWhereBuilder().replace(EntityContext.getWhereBuilder().length() - AND_OPERATOR.length(), 
 	    		                    						EntityContext.getWhereBuilder().length(), "").append(")" + OR_OPERATOR);
@@ -165,21 +153,21 @@ import com.jsmartdb.framework.annotation.OneToOne;
 	                }
                 }
 
-                ManyToMany manyToMany = EntityHandler.getManyToMany(field);
+                ManyToMany manyToMany = field.getManyToMany();
                 if (manyToMany != null) {
-                	Class<?> manyToManyClass = EntityHandler.getGenericType(field);
+                	Class<?> manyToManyClass = field.getGenericType();
 
                 	if (!EntityContext.getJoinBlockClasses().contains(manyToManyClass)) {
-	                	if (manyToMany.join().type() != JoinType.NO_JOIN) {
+	                	if (manyToMany.join().type() != JoinType.NO_JOIN && !field.isLazy()) {
 	                		Collection<Entity> collection = (Collection<Entity>) EntityHandler.getValue(entity, field);
 	
 		            		if (collection != null && !collection.isEmpty()) {
 		            			EntityContext.getWhereBuilder().append("(");
-		            			String alias = EntityAlias.getAlias(entity.getClass(), manyToManyClass.getName(), field.getName());
+		            			String alias = EntityAlias.getAlias(entity.getClass(), manyToManyClass.getName(), field.getField().getName());
 	
 		            			for (Entity obj : collection) {
 		            				EntityContext.getWhereBuilder().append("(");
-		            				buildFieldsWhere(obj, alias, EntityFieldsMapper.getFields(manyToManyClass));
+		            				buildFieldsWhere(obj, alias, EntityMetadata.getMetadata(manyToManyClass).getFields());
 
 		            				EntityContext.getWhereBuilder().replace(EntityContext.getWhereBuilder().length() - AND_OPERATOR.length(), 
 		            						EntityContext.getWhereBuilder().length(), "").append(")" + OR_OPERATOR);
@@ -204,47 +192,7 @@ import com.jsmartdb.framework.annotation.OneToOne;
 
 	public static void getCustomWhere(Class<?> entityClazz, Field[] fields, QueryParam param) {
 
-		String customWhere = EntityContext.getWhereBuilder().toString();
-		Map<Integer, Object> paramValues = new TreeMap<Integer, Object>();
-
-    	for (String key : param.getFilterParamKeys()) {
-    		int index = 0;
-    		for (int i = 0; i < StringUtils.countMatches(customWhere, key); i++) {
-    			index = customWhere.indexOf(key, index);
-    			paramValues.put(index, param.get(key));
-    		}
-    	}
-
-    	EntityContext.addAllBuilderValue(paramValues.values());
-
-    	for (String key : param.getFilterParamKeys()) {
-    		customWhere = customWhere.replaceAll(key, " ? ");
-    	}
-
-    	String[] matches = customWhere.split(" ");
-    	Map<String, String> queryMap = new HashMap<String, String>();
-
-    	for (String match : matches) {
-    		if (match.trim().isEmpty()) {
-    			continue;
-    		}
-    		Matcher matcher = EntitySelect.SQL_FUNCTION_PATTERN.matcher(match);
-			if (matcher.find()) {
-				match = matcher.group();
-				match = match.replace("(", "").replace(")", "");
-			}
-
-    		String value = EntityAlias.getMatchColumn(entityClazz, fields, match, EntityAlias.getAlias(entityClazz), EntityContext.getJoinBuilder());
-    		if (value != null) {
-    			queryMap.put(match, value);
-    		}
-    	}
-
-    	for (String key : queryMap.keySet()) {
-    		customWhere = customWhere.replace(key, queryMap.get(key));
-    	}
-
-    	EntityContext.getWhereBuilder().replace(0, EntityContext.getWhereBuilder().length(), customWhere);
+		EntityWhereTemplate.applyTemplate(entityClazz, fields, param);
 
         if (EntityContext.getWhereBuilder().length() <= WHERE_STATEMENT.length()) {
         	EntityContext.getWhereBuilder().replace(EntityContext.getWhereBuilder().length() - WHERE_STATEMENT.length(), EntityContext.getWhereBuilder().length(), "");
@@ -255,55 +203,43 @@ import com.jsmartdb.framework.annotation.OneToOne;
 		List<Object> whereBuilderValues = EntityContext.getBuilderValues();
 		if (containsInnerSelect) {
 			whereBuilderValues.addAll(whereBuilderValues);
+
+			if (EntityContext.isKeysetPaging() && EntityContext.getKeysetValues() != null) {
+				whereBuilderValues.addAll(Arrays.asList(EntityContext.getKeysetValues()));
+			}
 		}
 		for (int index = 1; index < whereBuilderValues.size() + 1; index++) {
 			pstmt.setObject(index, whereBuilderValues.get(index - 1));
 		}
 	}
 
-	private static void buildFieldsWhere(Entity entity, String alias, Field[] fields) {
+	private static void buildFieldsWhere(Entity entity, String alias, EntityField[] fields) {
 		if (entity != null && fields != null) {
-			for (Field field : fields) {
+			for (EntityField field : fields) {
 				buildFieldWhere(entity, alias, field);
 	    	}
 		}
 	}
 
-	private static boolean buildFieldWhere(Entity entity, String alias, Field field) {
+	private static boolean buildFieldWhere(Entity entity, String alias, EntityField field) {
 		if (entity != null && field != null) {
 
-			Column columnn = EntityHandler.getColumn(field);
-			if (columnn != null) {
+			if (field.isValueColumn()) {
 				Object obj = EntityHandler.getValue(entity, field);
 				if (obj != null) {
 					EntityContext.addBuilderValue(obj);
-					EntityContext.getWhereBuilder().append(alias + "." + columnn.name() + "= ?" + AND_OPERATOR);
+					EntityContext.getWhereBuilder().append(alias + "." + field.getColumnName() + "= ?" + AND_OPERATOR);
 					return true;
 				}
 			}
 
-			Id id = EntityHandler.getId(field);
-			if (id != null) {
-				Object obj = EntityHandler.getValue(entity, field);
-				if (obj != null) {
-					EntityContext.addBuilderValue(obj);
-					EntityContext.getWhereBuilder().append(alias + "." + id.name() + "= ?" + AND_OPERATOR);
-					return true;
-				}
-			}
-
-			JoinId joinId = EntityHandler.getJoinId(field);
+			JoinId joinId = field.getJoinId();
 			if (joinId != null) {
 				Entity obj = (Entity) EntityHandler.getValue(entity, field);
 				if (obj != null) {
-					try {
-						Field refererField = EntityFieldsMapper.getField(obj.getClass(), joinId.referer());
-						EntityContext.addBuilderValue(EntityHandler.getValue(obj, refererField));
-						EntityContext.getWhereBuilder().append(alias + "." + joinId.column() + "= ?" + AND_OPERATOR);
-						return true;
-					} catch (Exception ex) {
-						throw new RuntimeException(ex);
-					}
+					EntityContext.addBuilderValue(EntityHandler.getRefererValue(obj, field.getRefererField()));
+					EntityContext.getWhereBuilder().append(alias + "." + joinId.column() + "= ?" + AND_OPERATOR);
+					return true;
 				}
 			}
 		}
@@ -0,0 +1,186 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.jsmartdb.framework.manager;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+
+// Compiled form of a QueryFilter where clause, holding literal fragments, alias relative columns and positional parameters
+/*package*/ final class EntityWhereTemplate {
+
+	private static final String PARAM_STATEMENT = " ? ";
+
+	private static final ConcurrentMap<List<Object>, EntityWhereTemplate> TEMPLATES = new ConcurrentHashMap<List<Object>, EntityWhereTemplate>();
+
+	private final String[] fragments;
+
+	private final String[] aliasKeys;
+
+	private final String[] columns;
+
+	private final String[] paramKeys;
+
+	private final boolean reusable;
+
+	private EntityWhereTemplate(List<String> fragments, List<String> aliasKeys, List<String> columns, List<String> paramKeys, boolean reusable) {
+		this.fragments = fragments.toArray(new String[fragments.size()]);
+		this.aliasKeys = aliasKeys.toArray(new String[aliasKeys.size()]);
+		this.columns = columns.toArray(new String[columns.size()]);
+		this.paramKeys = paramKeys.toArray(new String[paramKeys.size()]);
+		this.reusable = reusable;
+	}
+
+	/*package*/ static void applyTemplate(Class<?> entityClazz, Field[] fields, QueryParam param) {
+		List<Object> key = getKey(entityClazz, param);
+		EntityWhereTemplate template = TEMPLATES.get(key);
+
+		if (template == null || !template.isResolvable()) {
+			int joinLength = EntityContext.getJoinBuilder().length();
+			template = compile(entityClazz, fields, param, EntityContext.getWhereBuilder().toString());
+
+			// Resolution which added joins cannot be repeated from the template only
+			if (template.reusable && EntityContext.getJoinBuilder().length() == joinLength) {
+				TEMPLATES.putIfAbsent(key, template);
+			}
+		}
+		template.apply(param);
+	}
+
+	private static List<Object> getKey(Class<?> entityClazz, QueryParam param) {
+		Set<Class<?>> blockClasses = new HashSet<Class<?>>(EntityContext.getJoinBlockClasses());
+		blockClasses.remove(null);
+		return Arrays.<Object>asList(entityClazz, param.getFilterName(), EntityContext.isBlockJoin(), 
+				blockClasses, new ArrayList<String>(param.getFilterParamKeys()));
+	}
+
+	private static EntityWhereTemplate compile(Class<?> entityClazz, Field[] fields, QueryParam param, String customWhere) {
+		List<String> paramKeys = new ArrayList<String>();
+		StringBuilder paramWhere = new StringBuilder();
+
+		// Filter param keys are sorted from the longest to the shortest so prefixed keys are matched correctly
+		for (int i = 0; i < customWhere.length();) {
+			String matchKey = null;
+			for (String key : param.getFilterParamKeys()) {
+				if (customWhere.startsWith(key, i)) {
+					matchKey = key;
+					break;
+				}
+			}
+			if (matchKey != null) {
+				paramKeys.add(matchKey);
+				paramWhere.append(PARAM_STATEMENT);
+				i += matchKey.length();
+			} else {
+				paramWhere.append(customWhere.charAt(i++));
+			}
+		}
+
+		Map<String, String> aliasKeysByAlias = new HashMap<String, String>();
+		for (Map.Entry<String, String> entry : EntityContext.getAliases().entrySet()) {
+			aliasKeysByAlias.put(entry.getValue(), entry.getKey());
+		}
+
+		List<String> fragments = new ArrayList<String>();
+		List<String> aliasKeys = new ArrayList<String>();
+		List<String> columns = new ArrayList<String>();
+		StringBuilder fragment = new StringBuilder();
+		boolean reusable = true;
+
+		String[] tokens = paramWhere.toString().split(" ", -1);
+		for (int i = 0; i < tokens.length; i++) {
+			if (i > 0) {
+				fragment.append(" ");
+			}
+
+			String token = tokens[i];
+			if (token.trim().isEmpty()) {
+				fragment.append(token);
+				continue;
+			}
+
+			String match = token;
+			Matcher matcher = EntitySelect.SQL_FUNCTION_PATTERN.matcher(match);
+			if (matcher.find()) {
+				match = matcher.group();
+				match = match.replace("(", "").replace(")", "");
+			}
+
+			String value = EntityAlias.getMatchColumn(entityClazz, fields, match, EntityAlias.getAlias(entityClazz), EntityContext.getJoinBuilder());
+			int matchIndex = value != null && !match.isEmpty() ? token.indexOf(match) : -1;
+			if (matchIndex < 0) {
+				fragment.append(token);
+				continue;
+			}
+
+			fragment.append(token, 0, matchIndex);
+
+			int aliasIndex = value.indexOf(".");
+			String aliasKey = aliasIndex > 0 ? aliasKeysByAlias.get(value.substring(0, aliasIndex)) : null;
+
+			if (aliasKey != null) {
+				fragments.add(fragment.toString());
+				fragment.setLength(0);
+				aliasKeys.add(aliasKey);
+				columns.add(value.substring(aliasIndex));
+			} else {
+				fragment.append(value);
+				reusable = false;
+			}
+			fragment.append(token.substring(matchIndex + match.length()));
+		}
+		fragments.add(fragment.toString());
+
+		return new EntityWhereTemplate(fragments, aliasKeys, columns, paramKeys, reusable);
+	}
+
+	// Aliases depend on the current context so they must all be present to render the template
+	private boolean isResolvable() {
+		Map<String, String> aliases = EntityContext.getAliases();
+		for (String aliasKey : aliasKeys) {
+			if (aliases.get(aliasKey) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void apply(QueryParam param) {
+		Map<String, String> aliases = EntityContext.getAliases();
+		StringBuilder customWhere = new StringBuilder(fragments[0]);
+
+		for (int i = 0; i < aliasKeys.length; i++) {
+			customWhere.append(aliases.get(aliasKeys[i])).append(columns[i]).append(fragments[i + 1]);
+		}
+
+		for (String paramKey : paramKeys) {
+			EntityContext.addBuilderValue(param.get(paramKey));
+		}
+
+		EntityContext.getWhereBuilder().replace(0, EntityContext.getWhereBuilder().length(), customWhere.toString());
+	}
+
+}
@@ -0,0 +1,298 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jsmartdb.framework.types.CascadeType;
+
+import com.jsmartdb.framework.annotation.ManyToMany;
+
+/*
+ * Statements of a single entity write collected while its graph is cascaded. Each statement gets a depth 
+ * greater than the depth of the statements it depends on, so statements of the same depth and operation 
+ * run as one batch in depth order, with values bound at execution.
+ */
+/*package*/ final class EntityWritePlan {
+
+	private static Logger LOGGER = Logger.getLogger(EntityWritePlan.class.getPackage().getName());
+
+	private static Boolean LOG_SQL = new Boolean(EntityPersistence.getInstance().getProperty(EntityPersistence.SQL_SHOW_SQL));
+
+	private static final int GENERATED_KEY_INDEX = 1;
+
+	private static enum Operation {
+		INSERT, INSERT_JOIN, INSERT_MANY_TO_MANY, UPDATE, UPDATE_JOIN, DELETE, DELETE_JOIN, DELETE_MANY_TO_MANY
+	}
+
+	private final TreeMap<Integer, Map<List<Object>, List<EntityWrite>>> groups = new TreeMap<Integer, Map<List<Object>, List<EntityWrite>>>();
+
+	// Entities inserted by pending statements, their generated value is only known after execution
+	private final Set<Entity> pendingKeys = Collections.newSetFromMap(new IdentityHashMap<Entity, Boolean>());
+
+	/*package*/ int insert(final Entity entity, final int after) {
+		if (EntityHandler.getGeneratedIdClass(entity) != null) {
+			pendingKeys.add(entity);
+		}
+		return add(after, new EntityWrite(entity, null, null), Operation.INSERT, entity.getClass());
+	}
+
+	/*package*/ int insertJoin(final Entity joinEntity, final int after) {
+		return add(after, new EntityWrite(joinEntity, null, null), Operation.INSERT_JOIN, joinEntity.getClass());
+	}
+
+	/*package*/ int insertJoin(final ManyToMany manyToMany, final Entity entityOne, final Entity entityTwo, final int after) {
+		return add(after, new EntityWrite(entityOne, manyToMany, entityTwo), Operation.INSERT_MANY_TO_MANY, entityOne.getClass(), entityTwo.getClass());
+	}
+
+	// Unchanged entities are skipped and keep the given depth
+	/*package*/ int update(final Entity entity, final int after) {
+		// Changed columns are only known once OneToOne references have their generated values
+		for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getOneToOnes()) {
+			resolve((Entity) EntityHandler.getValue(entity, field));
+		}
+
+		BitSet updateMask = EntityUpdate.getUpdateMask(entity);
+		if (updateMask.isEmpty()) {
+			return after;
+		}
+		return add(after, new EntityWrite(entity, null, null), Operation.UPDATE, entity.getClass(), updateMask);
+	}
+
+	/*package*/ int updateJoin(final Entity joinEntity, final int after) {
+		return add(after, new EntityWrite(joinEntity, null, null), Operation.UPDATE_JOIN, joinEntity.getClass());
+	}
+
+	/*package*/ int delete(final Entity entity, final int after) {
+		return add(after, new EntityWrite(entity, null, null), Operation.DELETE, entity.getClass(), EntityUpdate.getDeleteMask(entity));
+	}
+
+	/*package*/ int deleteJoin(final Entity joinEntity, final int after) {
+		return add(after, new EntityWrite(joinEntity, null, null), Operation.DELETE_JOIN, joinEntity.getClass(), EntityUpdate.getDeleteMask(joinEntity));
+	}
+
+	/*package*/ int deleteJoin(final ManyToMany manyToMany, final Entity entityOne, final Entity entityTwo, final int after) {
+		return add(after, new EntityWrite(entityOne, manyToMany, entityTwo), Operation.DELETE_MANY_TO_MANY, entityOne.getClass(), entityTwo.getClass());
+	}
+
+	// OneToMany references copy the entity id when cascaded, so a pending generated value must be resolved first
+	@SuppressWarnings("unchecked")
+	/*package*/ void resolveOneToMany(final Entity entity, final CascadeType cascadeType) {
+		if (!pendingKeys.contains(entity) || EntityContext.isBlockCascade()) {
+			return;
+		}
+
+		for (EntityField field : EntityMetadata.getMetadata(entity.getClass()).getOneToManys()) {
+			if (EntityHandler.isJoinTable(field.getGenericType()) || !EntityHandler.containsCascadeType(field.getOneToMany().cascade(), cascadeType)) {
+				continue;
+			}
+
+			Collection<Entity> collection = (Collection<Entity>) EntityHandler.getValue(entity, field);
+			if (collection != null && !collection.isEmpty()) {
+				execute();
+				return;
+			}
+		}
+	}
+
+	/*package*/ void resolve(final Entity entity) {
+		if (entity != null && pendingKeys.contains(entity)) {
+			execute();
+		}
+	}
+
+	/*package*/ void execute() {
+		try {
+			for (Map<List<Object>, List<EntityWrite>> depthGroups : groups.values()) {
+				for (Map.Entry<List<Object>, List<EntityWrite>> group : depthGroups.entrySet()) {
+					execute(group.getKey(), group.getValue());
+				}
+			}
+		} catch (SQLException ex) {
+			throw new RuntimeException(ex);
+
+		} finally {
+			groups.clear();
+		}
+	}
+
+	private int add(final int after, final EntityWrite write, final Object ... key) {
+		int depth = after + 1;
+
+		Map<List<Object>, List<EntityWrite>> depthGroups = groups.get(depth);
+		if (depthGroups == null) {
+			depthGroups = new LinkedHashMap<List<Object>, List<EntityWrite>>();
+			groups.put(depth, depthGroups);
+		}
+
+		List<Object> groupKey = Arrays.asList(key);
+		List<EntityWrite> writes = depthGroups.get(groupKey);
+
+		if (writes == null) {
+			writes = new ArrayList<EntityWrite>();
+			depthGroups.put(groupKey, writes);
+		}
+		writes.add(write);
+		return depth;
+	}
+
+	private void execute(final List<Object> groupKey, final List<EntityWrite> writes) throws SQLException {
+		Operation operation = (Operation) groupKey.get(0);
+		EntityWrite first = writes.get(0);
+
+		PreparedStatement pstmt = getStatement(operation, groupKey, first);
+		if (pstmt == null) {
+			return;
+		}
+
+		Class<?> generatedIdClass = operation == Operation.INSERT ? EntityHandler.getGeneratedIdClass(first.entity) : null;
+		List<Object> generatedKeys = new ArrayList<Object>();
+
+		try {
+			if (writes.size() == 1) {
+				putValues(operation, groupKey, pstmt, first);
+				if (LOG_SQL) {
+	    			LOGGER.log(Level.INFO, pstmt.toString());
+	    		}
+
+				pstmt.executeUpdate();
+				getGeneratedKeys(pstmt, generatedIdClass, generatedKeys);
+
+			} else {
+				long batchCount = 0;
+				for (EntityWrite write : writes) {
+					putValues(operation, groupKey, pstmt, write);
+					pstmt.addBatch();
+
+					if (++batchCount % ConnectionFactory.BATCH_SIZE == 0 || batchCount == writes.size()) {
+						if (LOG_SQL) {
+							LOGGER.log(Level.INFO, pstmt.toString());
+			    		}
+
+						pstmt.executeBatch();
+						getGeneratedKeys(pstmt, generatedIdClass, generatedKeys);
+					}
+				}
+			}
+		} finally {
+			EntityContext.closeStatement(pstmt);
+		}
+
+		if (operation == Operation.INSERT || operation == Operation.UPDATE) {
+			int keyCount = 0;
+			for (EntityWrite write : writes) {
+				if (keyCount < generatedKeys.size()) {
+					EntityHandler.setGeneratedValue(write.entity, generatedKeys.get(keyCount++));
+				}
+				pendingKeys.remove(write.entity);
+				EntityHandler.setWriteSnapshot(write.entity);
+			}
+		}
+	}
+
+	private PreparedStatement getStatement(final Operation operation, final List<Object> groupKey, final EntityWrite write) {
+		switch (operation) {
+			case INSERT:
+				return EntityUpdate.getInsert(write.entity.getClass());
+			case INSERT_JOIN:
+				return EntityUpdate.getInsertJoin(write.entity.getClass());
+			case INSERT_MANY_TO_MANY:
+				return EntityUpdate.getInsertJoin(write.entity.getClass(), write.entityTwo.getClass());
+			case UPDATE:
+				return EntityUpdate.getUpdate(write.entity.getClass(), (BitSet) groupKey.get(2));
+			case UPDATE_JOIN:
+				return EntityUpdate.getUpdateJoin(write.entity.getClass());
+			case DELETE:
+				return EntityUpdate.getDelete(write.entity.getClass(), (BitSet) groupKey.get(2));
+			case DELETE_JOIN:
+				return EntityUpdate.getDeleteJoin(write.entity);
+			default:
+				return EntityUpdate.getDeleteJoin(write.entity.getClass(), write.entityTwo.getClass());
+		}
+	}
+
+	private void putValues(final Operation operation, final List<Object> groupKey, final PreparedStatement pstmt, final EntityWrite write) {
+		switch (operation) {
+			case INSERT:
+				EntityUpdate.putInsertValues(pstmt, write.entity);
+				break;
+			case INSERT_JOIN:
+				EntityUpdate.putInsertJoinValues(pstmt, write.entity);
+				break;
+			case INSERT_MANY_TO_MANY:
+				EntityUpdate.putInsertJoinValues(pstmt, write.manyToMany, write.entity, write.entityTwo);
+				break;
+			case UPDATE:
+				EntityUpdate.putUpdateValues(pstmt, write.entity, (BitSet) groupKey.get(2));
+				break;
+			case UPDATE_JOIN:
+				EntityUpdate.putUpdateJoinValues(pstmt, write.entity);
+				break;
+			case DELETE:
+				EntityUpdate.putDeleteValues(pstmt, write.entity);
+				break;
+			case DELETE_JOIN:
+				EntityUpdate.putDeleteJoinValues(pstmt, write.entity);
+				break;
+			default:
+				EntityUpdate.putDeleteJoinValues(pstmt, write.manyToMany, write.entity, write.entityTwo);
+		}
+	}
+
+	private void getGeneratedKeys(final PreparedStatement pstmt, final Class<?> generatedIdClass, final List<Object> generatedKeys) throws SQLException {
+		if (generatedIdClass != null) {
+			ResultSet rs = pstmt.getGeneratedKeys();
+
+			while (rs.next()) {
+				generatedKeys.add(EntityResultSet.getResultSetValue(rs, GENERATED_KEY_INDEX, generatedIdClass));
+			}
+		}
+	}
+
+	private static final class EntityWrite {
+
+		private final Entity entity;
+
+		private final ManyToMany manyToMany;
+
+		private final Entity entityTwo;
+
+		private EntityWrite(final Entity entity, final ManyToMany manyToMany, final Entity entityTwo) {
+			this.entity = entity;
+			this.manyToMany = manyToMany;
+			this.entityTwo = entityTwo;
+		}
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Table;
+
+public class AsyncEntityManagerTest {
+
+	@Table(name = "ticket")
+	public static class Ticket extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "title", length = 20)
+		private String title;
+	}
+
+	private static Ticket ticket(Integer id) {
+		Ticket ticket = new Ticket();
+		ticket.id = id;
+		ticket.title = "t" + id;
+		return ticket;
+	}
+
+	private static class RecordingCallback<T> implements EntityCallback<T> {
+
+		private final AtomicReference<Object> outcome = new AtomicReference<Object>();
+
+		private final boolean fail;
+
+		private RecordingCallback(boolean fail) {
+			this.fail = fail;
+		}
+
+		@Override
+		public void onSuccess(T result) {
+			outcome.set(result);
+			if (fail) {
+				throw new IllegalStateException("Callback failed on success");
+			}
+		}
+
+		@Override
+		public void onFailure(Throwable ex) {
+			outcome.set(ex);
+			if (fail) {
+				throw new IllegalStateException("Callback failed on failure");
+			}
+		}
+	}
+
+	private static final EntityTask<Integer> INSERT_TASK = new EntityTask<Integer>() {
+
+		@Override
+		public Integer execute(EntityManager em) {
+			em.insertEntity(ticket(1));
+			return 1;
+		}
+	};
+
+	private static final EntityTask<Integer> FAILING_INSERT_TASK = new EntityTask<Integer>() {
+
+		@Override
+		public Integer execute(EntityManager em) {
+			em.insertEntity(ticket(1));
+			throw new IllegalArgumentException("Task failed");
+		}
+	};
+
+	private AsyncEntityManager manager;
+
+	@Before
+	public void setUp() {
+		manager = EntityManagerFactory.getNewAsyncInstance();
+		TestDataSource.clear();
+	}
+
+	@Test
+	public void transactionIsCommittedWhenTheTaskReturns() throws Exception {
+		RecordingCallback<Integer> callback = new RecordingCallback<Integer>(false);
+
+		assertEquals(Integer.valueOf(1), manager.inTransaction(INSERT_TASK, callback).get());
+
+		assertEquals(1, TestDataSource.getStatements().size());
+		assertEquals(1, TestDataSource.getCommits());
+		assertEquals(0, TestDataSource.getRollbacks());
+		assertEquals(1, callback.outcome.get());
+	}
+
+	@Test
+	public void transactionIsRolledBackWhenTheTaskThrows() throws Exception {
+		RecordingCallback<Integer> callback = new RecordingCallback<Integer>(false);
+		Future<Integer> future = manager.inTransaction(FAILING_INSERT_TASK, callback);
+
+		try {
+			future.get();
+			fail("Task should fail");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof IllegalArgumentException);
+			assertSame(ex.getCause(), callback.outcome.get());
+		}
+
+		assertEquals(1, TestDataSource.getStatements().size());
+		assertEquals(0, TestDataSource.getCommits());
+		assertEquals(1, TestDataSource.getRollbacks());
+	}
+
+	@Test
+	public void callbackFailuresDoNotChangeTheOutcome() throws Exception {
+		assertEquals(Integer.valueOf(1), manager.inTransaction(INSERT_TASK, new RecordingCallback<Integer>(true)).get());
+		assertEquals(1, TestDataSource.getCommits());
+
+		try {
+			manager.inTransaction(FAILING_INSERT_TASK, new RecordingCallback<Integer>(true)).get();
+			fail("Task should fail");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof IllegalArgumentException);
+		}
+		assertEquals(1, TestDataSource.getRollbacks());
+	}
+
+	@Test
+	public void tasksBeyondThePoolAndQueueAreRejected() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		EntityTask<Void> blockingTask = new EntityTask<Void>() {
+
+			@Override
+			public Void execute(EntityManager em) throws Exception {
+				release.await();
+				return null;
+			}
+		};
+
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		try {
+			while (true) {
+				futures.add(manager.execute(blockingTask));
+			}
+		} catch (RejectedExecutionException ex) {
+			// EXPECTED
+		} finally {
+			release.countDown();
+		}
+
+		assertTrue(futures.size() > 0);
+		for (Future<Void> future : futures) {
+			assertNull(future.get());
+		}
+
+		// Queue drained, tasks are accepted again
+		assertEquals(Integer.valueOf(1), manager.execute(INSERT_TASK).get());
+	}
+
+	@Test
+	public void shutdownRejectsTasksOfTheInstanceOnly() throws Exception {
+		AsyncEntityManager other = EntityManagerFactory.getNewAsyncInstance();
+		manager.shutdown();
+
+		try {
+			manager.execute(INSERT_TASK);
+			fail("Task should be rejected");
+		} catch (RejectedExecutionException ex) {
+			// EXPECTED
+		}
+		assertEquals(Integer.valueOf(1), other.execute(INSERT_TASK).get());
+	}
+
+}
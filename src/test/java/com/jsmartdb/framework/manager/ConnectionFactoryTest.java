@@ -0,0 +1,115 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionFactoryTest {
+
+	private static final int PERMITS = 4;
+
+	private static final int CALLERS = 100;
+
+	private static final int CALLS = 50;
+
+	private Semaphore permits;
+
+	@Before
+	public void setUp() {
+		TestDataSource.clear();
+		permits = new Semaphore(PERMITS, true);
+		ConnectionFactory.CONNECTION_PERMITS = permits;
+	}
+
+	@After
+	public void tearDown() {
+		ConnectionFactory.CONNECTION_PERMITS = null;
+		TestDataSource.clear();
+	}
+
+	@Test
+	public void concurrentCallersNeverHoldMoreConnectionsThanPermits() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for (int i = 0; i < CALLERS; i++) {
+			Thread thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int call = 0; call < CALLS; call++) {
+							Connection connection = ConnectionFactory.getConnection();
+							Thread.yield();
+							ConnectionFactory.putConnection(connection, call % 2 == 0);
+						}
+					} catch (Throwable ex) {
+						failures.add(ex);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(String.valueOf(failures.peek()), failures.isEmpty());
+		assertTrue(TestDataSource.getMaxOpenConnections() <= PERMITS);
+		assertEquals(0, TestDataSource.getOpenConnections());
+		assertEquals(PERMITS, permits.availablePermits());
+	}
+
+	@Test
+	public void failedConnectionSetupClosesTheConnectionAndReturnsThePermit() {
+		TestDataSource.failConnectionSetup(true);
+
+		for (int call = 0; call < PERMITS * 2; call++) {
+			try {
+				ConnectionFactory.getConnection();
+				fail("Connection setup should fail");
+			} catch (RuntimeException ex) {
+				// EXPECTED
+			}
+		}
+
+		assertEquals(0, TestDataSource.getOpenConnections());
+		assertEquals(PERMITS, permits.availablePermits());
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Table;
+import com.jsmartdb.framework.types.InsertType;
+
+public class EntityBatchRepositoryTest {
+
+	@Table(name = "note", insertType = InsertType.MULTI_ROW_INSERT)
+	public static class Note extends Entity {
+
+		@Id(name = "id", generated = true)
+		private Long id;
+
+		@Column(name = "text", length = 20)
+		private String text;
+	}
+
+	static {
+		// Rows per statement are resolved once per class, two rows of two parameters for notes
+		Integer insertMaxParameters = ConnectionFactory.INSERT_MAX_PARAMETERS;
+		ConnectionFactory.INSERT_MAX_PARAMETERS = 4;
+		try {
+			EntityUpdate.getInsertRows(Note.class);
+		} finally {
+			ConnectionFactory.INSERT_MAX_PARAMETERS = insertMaxParameters;
+		}
+	}
+
+	private static List<Note> notes(String ... texts) {
+		List<Note> notes = new ArrayList<Note>();
+		for (String text : texts) {
+			Note note = new Note();
+			note.text = text;
+			notes.add(note);
+		}
+		return notes;
+	}
+
+	private static List<Long> ids(List<Note> notes) {
+		List<Long> ids = new ArrayList<Long>();
+		for (Note note : notes) {
+			ids.add(note.id);
+		}
+		return ids;
+	}
+
+	private EntityManager manager;
+
+	@Before
+	public void setUp() {
+		manager = EntityManagerFactory.getNewInstance();
+		TestDataSource.clear();
+	}
+
+	@Test
+	public void multiRowInsertRendersFullAndRemainderStatements() {
+		manager.insertBatchEntity(notes("a", "b", "c", "d", "e"));
+
+		assertEquals(Arrays.asList("insert into note (id,text) values (?,?),(?,?)", "insert into note (id,text) values (?,?),(?,?)", 
+				"insert into note (id,text) values (?,?)"), TestDataSource.getStatements());
+		assertEquals(Arrays.asList(Arrays.<Object>asList(null, "a", null, "b"), Arrays.<Object>asList(null, "c", null, "d"), 
+				Arrays.<Object>asList(null, "e")), TestDataSource.getValues());
+	}
+
+	@Test
+	public void multiRowInsertAssignsGeneratedKeysInRowOrder() {
+		List<Note> notes = notes("a", "b", "c", "d", "e");
+		manager.insertBatchEntity(notes);
+
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), ids(notes));
+	}
+
+	@Test
+	public void multiRowInsertKeepsKeyOrderAcrossBatches() {
+		Integer batchSize = ConnectionFactory.BATCH_SIZE;
+		ConnectionFactory.BATCH_SIZE = 1;
+		try {
+			List<Note> notes = notes("a", "b", "c", "d", "e", "f", "g");
+			manager.insertBatchEntity(notes);
+
+			assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L), ids(notes));
+		} finally {
+			ConnectionFactory.BATCH_SIZE = batchSize;
+		}
+	}
+
+	@Test
+	public void upsertBatchReadsKeysOfEntitiesWithoutGeneratedValue() {
+		List<Note> notes = notes("a", "b", "c");
+		notes.get(1).id = 7L;
+		manager.upsertBatchEntity(notes);
+
+		String upsert = "insert into note (id,text) values (?,?) on duplicate key update text=values(text)";
+		assertEquals(Arrays.asList(upsert, upsert, upsert), TestDataSource.getStatements());
+		assertEquals(Arrays.asList(Arrays.<Object>asList(7L, "b"), Arrays.<Object>asList(null, "a"), Arrays.<Object>asList(null, "c")), 
+				TestDataSource.getValues());
+		assertEquals(Arrays.asList(1L, 7L, 2L), ids(notes));
+	}
+
+}
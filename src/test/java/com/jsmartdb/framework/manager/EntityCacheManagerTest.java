@@ -0,0 +1,200 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import static com.jsmartdb.framework.manager.TestDataSource.row;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Join;
+import com.jsmartdb.framework.annotation.JoinColumn;
+import com.jsmartdb.framework.annotation.OneToMany;
+import com.jsmartdb.framework.annotation.Table;
+import com.jsmartdb.framework.types.JoinType;
+
+public class EntityCacheManagerTest {
+
+	@Table(name = "shop", cacheable = true)
+	public static class Shop extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "name", length = 20)
+		private String name;
+
+		@OneToMany(joinColumn = @JoinColumn(column = "id", referer = "shopId"), join = @Join(type = JoinType.LEFT_OUTER_JOIN))
+		private List<Product> products;
+	}
+
+	@Table(name = "product")
+	public static class Product extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "shop_id")
+		private Integer shopId;
+
+		@Column(name = "name", length = 20)
+		private String name;
+	}
+
+	private static Shop shop(Integer id, String name) {
+		Shop shop = new Shop();
+		shop.id = id;
+		shop.name = name;
+		return shop;
+	}
+
+	private static Product product(Integer id, Integer shopId, String name) {
+		Product product = new Product();
+		product.id = id;
+		product.shopId = shopId;
+		product.name = name;
+		return product;
+	}
+
+	private static void addShopResult(Integer id, String name, Integer productId) {
+		TestDataSource.addResult(row("shop1_id", id, "shop1_name", name, 
+				"product2_id", productId, "product2_shop_id", id, "product2_name", "p" + productId));
+	}
+
+	private EntityManager manager;
+
+	@Before
+	public void setUp() {
+		manager = EntityManagerFactory.getNewInstance();
+		EntityManagerFactory.clearCache();
+		TestDataSource.clear();
+	}
+
+	private Shop selectShop(Integer id) {
+		return (Shop) manager.selectSingleEntity(shop(id, null));
+	}
+
+	@Test
+	public void readGraphIsAnsweredFromCache() {
+		addShopResult(1, "a", 10);
+		Shop first = selectShop(1);
+		Shop second = selectShop(1);
+
+		assertEquals(1, TestDataSource.getStatements().size());
+		assertNotSame(first, second);
+		assertEquals("a", second.name);
+		assertEquals(1, second.products.size());
+		assertEquals(Integer.valueOf(10), second.products.get(0).id);
+	}
+
+	@Test
+	public void updateOfJoinedRowEvictsTheGraph() {
+		addShopResult(1, "a", 10);
+		selectShop(1);
+
+		manager.updateEntity(product(10, 1, "changed"));
+
+		TestDataSource.clear();
+		addShopResult(1, "a", 10);
+		selectShop(1);
+
+		assertEquals(1, TestDataSource.getStatements().size());
+	}
+
+	@Test
+	public void deleteOfJoinedRowEvictsOnlyGraphsHoldingIt() {
+		addShopResult(1, "a", 10);
+		selectShop(1);
+		addShopResult(2, "b", 20);
+		selectShop(2);
+
+		manager.deleteEntity(product(10, null, null));
+
+		TestDataSource.clear();
+		addShopResult(1, "a", 11);
+		assertEquals(Integer.valueOf(11), selectShop(1).products.get(0).id);
+		assertEquals(Integer.valueOf(20), selectShop(2).products.get(0).id);
+
+		assertEquals(1, TestDataSource.getStatements().size());
+	}
+
+	@Test
+	public void readRacingAWriteDoesNotFillTheCache() throws Exception {
+		addShopResult(1, "old", 10);
+
+		// The update commits in another thread while the select is reading its rows
+		TestDataSource.onNextQuery(new Runnable() {
+
+			@Override
+			public void run() {
+				Thread writer = new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						EntityManagerFactory.getNewInstance().updateEntity(shop(1, "new"));
+					}
+				});
+				writer.start();
+				try {
+					writer.join();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+		});
+		assertEquals("old", selectShop(1).name);
+
+		TestDataSource.clear();
+		addShopResult(1, "new", 10);
+
+		assertEquals("new", selectShop(1).name);
+		assertEquals(1, TestDataSource.getStatements().size());
+	}
+
+	@Test
+	public void rolledBackWriteIsNotCached() {
+		addShopResult(1, "a", 10);
+		selectShop(1);
+
+		manager.initTransaction();
+		try {
+			manager.updateEntity(shop(1, "uncommitted"));
+
+			// Reads after a write in the transaction go to the database and are not cached
+			addShopResult(1, "uncommitted", 10);
+			assertEquals("uncommitted", selectShop(1).name);
+		} finally {
+			manager.rollbackTransaction();
+		}
+
+		TestDataSource.clear();
+		addShopResult(1, "a", 10);
+		assertEquals("a", selectShop(1).name);
+		assertEquals("a", selectShop(1).name);
+
+		assertEquals(1, TestDataSource.getStatements().size());
+	}
+
+}
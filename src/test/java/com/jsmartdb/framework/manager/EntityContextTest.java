@@ -0,0 +1,124 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import static com.jsmartdb.framework.manager.TestDataSource.row;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Table;
+
+public class EntityContextTest {
+
+	private static final int THREADS = 200;
+
+	private static final int ROUNDS = 6;
+
+	@Table(name = "visitor")
+	public static class Visitor extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "name", length = 20)
+		private String name;
+	}
+
+	private static Visitor visitor(Integer id, String name) {
+		Visitor visitor = new Visitor();
+		visitor.id = id;
+		visitor.name = name;
+		return visitor;
+	}
+
+	@Before
+	public void setUp() {
+		TestDataSource.clear();
+	}
+
+	@Test
+	public void concurrentCallersKeepTheirOwnContext() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for (int i = 0; i < THREADS; i++) {
+			final int id = i;
+			Thread thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+						EntityManager manager = EntityManagerFactory.getNewInstance();
+
+						// Selects and inserts interleave differently on each thread
+						for (int round = 0; round < ROUNDS; round++) {
+							if ((id + round) % 2 == 0) {
+								TestDataSource.addThreadResult(row("visitor1_id", id, "visitor1_name", "v" + id));
+								Visitor visitor = (Visitor) manager.selectSingleEntity(visitor(id, null));
+								assertEquals(Integer.valueOf(id), visitor.id);
+								assertEquals("v" + id, visitor.name);
+							} else {
+								manager.insertEntity(visitor(id, "v" + id));
+							}
+							assertNull(EntityContext.borrowCurrentInstance());
+						}
+
+						// Single selects bind the id to the query and to its limit subquery
+						List<List<Object>> values = TestDataSource.getThreadValues();
+						assertEquals(ROUNDS, values.size());
+						for (int round = 0; round < ROUNDS; round++) {
+							List<Object> expected = (id + round) % 2 == 0 ? Arrays.<Object>asList(id, id) : Arrays.<Object>asList(id, "v" + id);
+							assertEquals(expected, values.get(round));
+						}
+					} catch (Throwable ex) {
+						failures.add(ex);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(String.valueOf(failures.peek()), failures.isEmpty());
+		assertEquals(THREADS * ROUNDS, TestDataSource.getStatements().size());
+		assertEquals(0, TestDataSource.getForeignStatements());
+		assertNull(EntityContext.borrowCurrentInstance());
+	}
+
+}
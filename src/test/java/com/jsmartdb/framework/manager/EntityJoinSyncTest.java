@@ -0,0 +1,108 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import static com.jsmartdb.framework.manager.TestDataSource.row;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.JoinColumn;
+import com.jsmartdb.framework.annotation.ManyToMany;
+import com.jsmartdb.framework.annotation.Table;
+
+public class EntityJoinSyncTest {
+
+	@Table(name = "member")
+	public static class Member extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@ManyToMany(joinTable = "member_follower", joinColumn = @JoinColumn(column = "member_id", referer = "id"), 
+				inverseJoinColumn = @JoinColumn(column = "follower_id", referer = "id"), synchronize = true)
+		private List<Profile> followers;
+
+		@ManyToMany(joinTable = "member_friend", joinColumn = @JoinColumn(column = "member_id", referer = "id"), 
+				inverseJoinColumn = @JoinColumn(column = "friend_id", referer = "id"), synchronize = true)
+		private List<Profile> friends;
+	}
+
+	@Table(name = "profile")
+	public static class Profile extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "name", length = 20)
+		private String name;
+	}
+
+	private static Profile profile(Integer id) {
+		Profile profile = new Profile();
+		profile.id = id;
+		return profile;
+	}
+
+	private static List<String> joinStatements() {
+		List<String> statements = new ArrayList<String>();
+		for (String statement : TestDataSource.getStatements()) {
+			if (statement.startsWith("insert into member_") || statement.startsWith("delete from member_")) {
+				statements.add(statement);
+			}
+		}
+		return statements;
+	}
+
+	private EntityManager manager;
+
+	@Before
+	public void setUp() {
+		manager = EntityManagerFactory.getNewInstance();
+		TestDataSource.clear();
+	}
+
+	@Test
+	public void linksAreWrittenToTheJoinTableOfTheirRelation() {
+		Member member = new Member();
+		member.id = 1;
+		member.followers = new ArrayList<Profile>(Arrays.asList(profile(10)));
+		member.friends = new ArrayList<Profile>(Arrays.asList(profile(20)));
+
+		// Followers hold 11 that is no longer linked, friends hold no rows yet
+		TestDataSource.addResult(row("member_id", 1, "follower_id", 11));
+		TestDataSource.addResult();
+
+		manager.updateEntity(member);
+
+		List<String> statements = joinStatements();
+		assertEquals(3, statements.size());
+		assertEquals("delete from member_follower where member_id= ? and follower_id= ?", statements.get(0));
+		assertEquals("insert into member_follower (member_id,follower_id) values (?,?)", statements.get(1));
+		assertEquals("insert into member_friend (member_id,friend_id) values (?,?)", statements.get(2));
+	}
+
+}
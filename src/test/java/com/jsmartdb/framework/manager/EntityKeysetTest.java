@@ -0,0 +1,131 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.junit.Test;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Table;
+
+public class EntityKeysetTest {
+
+	@Table(name = "event", orderBy = "created")
+	public static class Event extends Entity {
+
+		@Id(name = "id")
+		private long id;
+
+		@Column(name = "created")
+		private Timestamp created;
+
+		@Column(name = "amount")
+		private BigDecimal amount;
+
+		@Column(name = "title")
+		private String title;
+	}
+
+	@Table(name = "other")
+	public static class Other extends Entity {
+
+		@Id(name = "id")
+		private Long id;
+	}
+
+	private static Event event(long id, String title) {
+		Event event = new Event();
+		event.id = id;
+		event.created = new Timestamp(1400000000123L);
+		event.created.setNanos(123456789);
+		event.amount = new BigDecimal("10.50");
+		event.title = title;
+		return event;
+	}
+
+	private static EntityField field(Class<?> clazz, String name) {
+		return EntityMetadata.getMetadata(clazz).getField(name);
+	}
+
+	@Test
+	public void tokenRoundTripsTypedValues() {
+		Event event = event(42L, "a|b:c %");
+
+		for (String name : new String[] {"created", "amount", "title"}) {
+			String token = EntityKeyset.encode(Event.class, field(Event.class, name), event);
+			Object[] values = EntityKeyset.decode(Event.class, field(Event.class, name), token);
+
+			assertEquals(2, values.length);
+			assertEquals(EntityHandler.getValue(event, field(Event.class, name)), values[0]);
+			assertEquals(42L, values[1]);
+		}
+
+		String token = EntityKeyset.encode(Event.class, null, event);
+		Object[] values = EntityKeyset.decode(Event.class, null, token);
+		assertEquals(1, values.length);
+		assertEquals(42L, values[0]);
+	}
+
+	@Test
+	public void nullTokenStartsFirstPage() {
+		assertNull(EntityKeyset.decode(Event.class, null, null));
+	}
+
+	@Test
+	public void tamperedTokenIsRejected() throws Exception {
+		String token = EntityKeyset.encode(Event.class, null, event(42L, "x"));
+		int index = token.indexOf('.');
+
+		String payload = new String(DatatypeConverter.parseBase64Binary(token.substring(0, index)), "UTF-8");
+		String forged = DatatypeConverter.printBase64Binary(payload.replace("42", "43").getBytes("UTF-8")) + token.substring(index);
+
+		assertInvalid(Event.class, null, forged);
+		assertInvalid(Event.class, null, token.substring(0, index));
+		assertInvalid(Event.class, null, "not a token");
+	}
+
+	@Test
+	public void tokenOfAnotherQueryIsRejected() {
+		String token = EntityKeyset.encode(Event.class, field(Event.class, "title"), event(42L, "x"));
+
+		assertInvalid(Event.class, field(Event.class, "amount"), token);
+		assertInvalid(Event.class, null, token);
+		assertInvalid(Other.class, null, token);
+	}
+
+	private static void assertInvalid(Class<?> clazz, EntityField keysetField, String token) {
+		try {
+			EntityKeyset.decode(clazz, keysetField, token);
+			fail("Token should be rejected");
+		} catch (RuntimeException ex) {
+			assertTrue(ex.getMessage().startsWith("Continuation token"));
+		}
+	}
+
+}
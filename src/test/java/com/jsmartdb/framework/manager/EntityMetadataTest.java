@@ -0,0 +1,282 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import static com.jsmartdb.framework.manager.TestDataSource.row;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Join;
+import com.jsmartdb.framework.annotation.JoinColumn;
+import com.jsmartdb.framework.annotation.OneToMany;
+import com.jsmartdb.framework.annotation.OneToOne;
+import com.jsmartdb.framework.annotation.Table;
+import com.jsmartdb.framework.types.FetchType;
+import com.jsmartdb.framework.types.JoinType;
+
+public class EntityMetadataTest {
+
+	private static final int THREADS = 64;
+
+	private static final int LOOKUPS = 2000;
+
+	@Table(name = "customer")
+	public static class Customer extends Entity {
+
+		@Id(name = "id", generated = true)
+		private Long id;
+
+		@Column(name = "name", length = 40)
+		private String name;
+
+		@OneToMany(joinColumn = @JoinColumn(column = "id", referer = "customerId"))
+		private List<Invoice> invoices;
+	}
+
+	@Table(name = "invoice")
+	public static class Invoice extends Entity {
+
+		@Id(name = "id", generated = true)
+		private Long id;
+
+		@Column(name = "customer_id")
+		private Long customerId;
+
+		@Column(name = "total")
+		private Double total;
+	}
+
+	@Table(name = "category")
+	public static class Category extends Entity {
+
+		@Id(name = "id")
+		private Long id;
+
+		@Column(name = "parent_id")
+		private Long parentId;
+
+		@OneToMany(joinColumn = @JoinColumn(column = "id", referer = "parentId"), join = @Join(type = JoinType.LEFT_OUTER_JOIN, fetch = FetchType.LAZY))
+		private List<Category> children;
+	}
+
+	@Table(name = "employee")
+	public static class Employee extends Entity {
+
+		@Id(name = "id")
+		private Long id;
+
+		@Column(name = "name", length = 40)
+		private String name;
+
+		@OneToOne(joinColumn = @JoinColumn(column = "desk_id", referer = "id"), join = @Join(type = JoinType.LEFT_OUTER_JOIN, fetch = FetchType.LAZY))
+		private Desk desk;
+	}
+
+	@Table(name = "desk")
+	public static class Desk extends Entity {
+
+		@Id(name = "id")
+		private Long id;
+	}
+
+	@Table(name = "product")
+	public static class Product extends Entity {
+
+		@Id(name = "code")
+		private String code;
+
+		@Column(name = "price")
+		private Double price;
+	}
+
+	private static final Class<?>[] CLASSES = {Customer.class, Invoice.class, Product.class};
+
+	private static Employee employeeById(Long id) {
+		Employee employee = new Employee();
+		employee.id = id;
+		return employee;
+	}
+
+	@Test
+	public void concurrentLookupsShareOneInstancePerClass() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+		try {
+			List<Future<EntityMetadata[]>> futures = new ArrayList<Future<EntityMetadata[]>>();
+			for (int i = 0; i < THREADS; i++) {
+				final int offset = i;
+				futures.add(pool.submit(new Callable<EntityMetadata[]>() {
+
+					@Override
+					public EntityMetadata[] call() throws Exception {
+						start.await();
+
+						EntityMetadata[] seen = new EntityMetadata[CLASSES.length];
+						for (int j = 0; j < LOOKUPS; j++) {
+							int index = (offset + j) % CLASSES.length;
+							EntityMetadata metadata = EntityMetadata.getMetadata(CLASSES[index]);
+
+							if (seen[index] == null) {
+								seen[index] = metadata;
+							}
+							assertSame(seen[index], metadata);
+						}
+						return seen;
+					}
+				}));
+			}
+
+			start.countDown();
+
+			EntityMetadata[] first = futures.get(0).get(30, TimeUnit.SECONDS);
+			for (Future<EntityMetadata[]> future : futures) {
+				EntityMetadata[] seen = future.get(30, TimeUnit.SECONDS);
+				for (int i = 0; i < CLASSES.length; i++) {
+					assertSame(first[i], seen[i]);
+				}
+			}
+
+			for (int i = 0; i < CLASSES.length; i++) {
+				assertSame(EntityMetadata.getMetadata(CLASSES[i]), first[i]);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void metadataResolvesMappedFields() {
+		EntityMetadata metadata = EntityMetadata.getMetadata(Customer.class);
+
+		assertEquals(1, metadata.getIds().length);
+		assertEquals("id", metadata.getIds()[0].getColumnName());
+		assertSame(metadata.getIds()[0], metadata.getGeneratedField());
+		assertEquals(1, metadata.getOneToManys().length);
+		assertEquals(1, metadata.getValidatedColumns().length);
+
+		EntityField invoices = metadata.getField("invoices");
+		assertNotNull(invoices);
+		assertSame(Invoice.class, invoices.getGenericType());
+		assertSame(EntityMetadata.getMetadata(Invoice.class).getField("customerId"), invoices.getRefererField());
+		assertSame(metadata.getField("id"), invoices.getJoinColumnField());
+	}
+
+	@Test
+	public void selfReferencingLazyRelationResolves() {
+		EntityMetadata metadata = EntityMetadata.getMetadata(Category.class);
+
+		assertTrue(metadata.getField("children").isLazy());
+		assertSame(Category.class, metadata.getField("children").getGenericType());
+	}
+
+	@Test
+	public void lazyCollectionObjectMethodsDoNotLoad() {
+		Category category = new Category();
+		category.id = 1L;
+		EntityLazyLoader.setLazyCollections(category);
+
+		List<Category> children = category.children;
+		assertEquals("[unloaded children]", children.toString());
+		assertEquals(System.identityHashCode(children), children.hashCode());
+		assertTrue(children.equals(children));
+		assertFalse(children.equals(new ArrayList<Category>()));
+		assertTrue(EntityLazyLoader.isUnloaded(category.children));
+	}
+
+	@Test
+	public void lazyCollectionObjectMethodsDelegateOnceLoaded() {
+		Category category = new Category();
+		category.id = 1L;
+		EntityLazyLoader.setLazyCollections(category);
+		List<Category> children = category.children;
+
+		Category child = new Category();
+		child.id = 2L;
+		List<Category> expected = Arrays.asList(child);
+
+		TestDataSource.clear();
+		TestDataSource.addResult(row("category1_id", 2L, "category1_parent_id", 1L));
+
+		EntityContext.initCurrentInstance();
+		try {
+			assertEquals(1, children.size());
+		} finally {
+			EntityContext.closeCurrentInstance();
+		}
+
+		assertFalse(EntityLazyLoader.isUnloaded(children));
+		assertTrue(children.equals(expected));
+		assertEquals(expected.hashCode(), children.hashCode());
+		assertEquals(expected.toString(), children.toString());
+	}
+
+	@Test
+	public void unloadedLazyReferenceIsLeftOutOfUpdates() {
+		EntityManager manager = EntityManagerFactory.getNewInstance();
+		TestDataSource.clear();
+		TestDataSource.addResult(row("employee1_id", 1L, "employee1_name", "ann"));
+
+		Employee employee = (Employee) manager.selectSingleEntity(employeeById(1L));
+
+		// Entities without snapshot, as with dirty checking disabled, update all other columns
+		employee.snapshot = null;
+		employee.name = "bob";
+		TestDataSource.clear();
+		manager.updateEntity(employee);
+
+		assertEquals("update employee set id= ?,name= ? where id= ?", TestDataSource.getStatements().get(0));
+	}
+
+	@Test
+	public void assignedLazyReferenceIsUpdated() {
+		EntityManager manager = EntityManagerFactory.getNewInstance();
+		TestDataSource.clear();
+		TestDataSource.addResult(row("employee1_id", 1L, "employee1_name", "ann"));
+
+		Employee employee = (Employee) manager.selectSingleEntity(employeeById(1L));
+
+		employee.snapshot = null;
+		employee.desk = new Desk();
+		employee.desk.id = 5L;
+		TestDataSource.clear();
+		manager.updateEntity(employee);
+
+		assertEquals("update employee set id= ?,name= ?,desk_id= ? where id= ?", TestDataSource.getStatements().get(0));
+		assertEquals(Arrays.<Object>asList(1L, "ann", 5L, 1L), TestDataSource.getValues().get(0));
+	}
+
+}
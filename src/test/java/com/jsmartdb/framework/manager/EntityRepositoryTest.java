@@ -0,0 +1,240 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import static com.jsmartdb.framework.manager.TestDataSource.row;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Join;
+import com.jsmartdb.framework.annotation.JoinColumn;
+import com.jsmartdb.framework.annotation.OneToMany;
+import com.jsmartdb.framework.annotation.Table;
+import com.jsmartdb.framework.types.JoinType;
+
+public class EntityRepositoryTest {
+
+	@Table(name = "customer")
+	public static class Customer extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "name", length = 20)
+		private String name;
+
+		@OneToMany(joinColumn = @JoinColumn(column = "id", referer = "customerId"), join = @Join(type = JoinType.LEFT_OUTER_JOIN))
+		private List<Purchase> purchases;
+	}
+
+	@Table(name = "account", orderBy = "name")
+	public static class Account extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "name", length = 20)
+		private String name;
+
+		@OneToMany(joinColumn = @JoinColumn(column = "id", referer = "customerId"), join = @Join(type = JoinType.LEFT_OUTER_JOIN))
+		private List<Purchase> purchases;
+	}
+
+	@Table(name = "purchase")
+	public static class Purchase extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "customer_id")
+		private Integer customerId;
+	}
+
+	private static List<Integer> ids(List<Purchase> purchases) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Purchase purchase : purchases) {
+			ids.add(purchase.id);
+		}
+		return ids;
+	}
+
+	private static List<Entity> list(EntityIterator<? extends Entity> iterator) {
+		List<Entity> entities = new ArrayList<Entity>();
+		try {
+			while (iterator.hasNext()) {
+				entities.add(iterator.next());
+			}
+		} finally {
+			iterator.close();
+		}
+		return entities;
+	}
+
+	private static Customer customer(Integer id) {
+		Customer customer = new Customer();
+		customer.id = id;
+		return customer;
+	}
+
+	private static void addCustomerResult(Integer id) {
+		TestDataSource.addResult(row("customer1_id", id, "customer1_name", "ann", "purchase2_id", 10, "purchase2_customer_id", id));
+	}
+
+	private EntityManager manager;
+
+	@Before
+	public void setUp() {
+		manager = EntityManagerFactory.getNewInstance();
+		TestDataSource.clear();
+	}
+
+	@Test
+	public void nonAdjacentJoinRowsAreAttachedToTheirRoot() {
+		TestDataSource.addResult(
+				row("customer1_id", 1, "customer1_name", "ann", "purchase2_id", 10, "purchase2_customer_id", 1), 
+				row("customer1_id", 2, "customer1_name", "bob", "purchase2_id", 20, "purchase2_customer_id", 2), 
+				row("customer1_id", 1, "customer1_name", "ann", "purchase2_id", 11, "purchase2_customer_id", 1), 
+				row("customer1_id", 2, "customer1_name", "bob", "purchase2_id", 21, "purchase2_customer_id", 2), 
+				row("customer1_id", 1, "customer1_name", "ann", "purchase2_id", 10, "purchase2_customer_id", 1));
+
+		List<? extends Entity> customers = manager.selectEntity(new Customer());
+
+		assertEquals(2, customers.size());
+		assertEquals(Integer.valueOf(1), ((Customer) customers.get(0)).id);
+		assertEquals(Integer.valueOf(2), ((Customer) customers.get(1)).id);
+		assertEquals(Arrays.asList(10, 11), ids(((Customer) customers.get(0)).purchases));
+		assertEquals(Arrays.asList(20, 21), ids(((Customer) customers.get(1)).purchases));
+	}
+
+	@Test
+	public void streamOrdersRowsByRootId() {
+		TestDataSource.addResult(
+				row("customer1_id", 2, "customer1_name", "bob", "purchase2_id", 20, "purchase2_customer_id", 2), 
+				row("customer1_id", 1, "customer1_name", "ann", "purchase2_id", 10, "purchase2_customer_id", 1), 
+				row("customer1_id", 2, "customer1_name", "bob", "purchase2_id", 21, "purchase2_customer_id", 2), 
+				row("customer1_id", 1, "customer1_name", "ann", "purchase2_id", 11, "purchase2_customer_id", 1));
+
+		List<Entity> customers = list(manager.streamEntity(new Customer()));
+
+		assertTrue(TestDataSource.getStatements().get(0).endsWith(" order by customer1_.id asc "));
+		assertEquals(2, customers.size());
+		assertEquals(Arrays.asList(10, 11), ids(((Customer) customers.get(0)).purchases));
+		assertEquals(Arrays.asList(20, 21), ids(((Customer) customers.get(1)).purchases));
+	}
+
+	@Test
+	public void streamBreaksOrderColumnTiesByRootId() {
+		TestDataSource.addResult(
+				row("account1_id", 1, "account1_name", "ann", "purchase2_id", 10, "purchase2_customer_id", 1), 
+				row("account1_id", 2, "account1_name", "ann", "purchase2_id", 20, "purchase2_customer_id", 2), 
+				row("account1_id", 1, "account1_name", "ann", "purchase2_id", 11, "purchase2_customer_id", 1), 
+				row("account1_id", 3, "account1_name", "amy", "purchase2_id", 30, "purchase2_customer_id", 3), 
+				row("account1_id", 2, "account1_name", "ann", "purchase2_id", 21, "purchase2_customer_id", 2));
+
+		List<Entity> accounts = list(manager.streamEntity(new Account()));
+
+		assertTrue(TestDataSource.getStatements().get(0).endsWith(" order by account1_.name asc , account1_.id asc "));
+		assertEquals(3, accounts.size());
+		assertEquals(Integer.valueOf(3), ((Account) accounts.get(0)).id);
+		assertEquals(Arrays.asList(10, 11), ids(((Account) accounts.get(1)).purchases));
+		assertEquals(Arrays.asList(20, 21), ids(((Account) accounts.get(2)).purchases));
+	}
+
+	@Test
+	public void identityMappedFindByIdSelectsOnce() {
+		manager.initTransaction(true);
+		try {
+			addCustomerResult(1);
+			Customer first = (Customer) manager.selectSingleEntity(customer(1));
+			Customer second = (Customer) manager.selectSingleEntity(customer(1));
+
+			assertSame(first, second);
+			assertEquals(Arrays.asList(10), ids(second.purchases));
+			assertEquals(1, TestDataSource.getStatements().size());
+		} finally {
+			manager.commitTransaction();
+		}
+	}
+
+	@Test
+	public void identityMapIsClearedOnCommit() {
+		manager.initTransaction(true);
+		addCustomerResult(1);
+		Customer first = (Customer) manager.selectSingleEntity(customer(1));
+		manager.commitTransaction();
+
+		manager.initTransaction(true);
+		try {
+			addCustomerResult(1);
+			Customer second = (Customer) manager.selectSingleEntity(customer(1));
+
+			assertNotSame(first, second);
+			assertEquals(2, TestDataSource.getStatements().size());
+		} finally {
+			manager.commitTransaction();
+		}
+	}
+
+	@Test
+	public void identityMapIsClearedOnRollback() {
+		manager.initTransaction(true);
+		addCustomerResult(1);
+		Customer first = (Customer) manager.selectSingleEntity(customer(1));
+		manager.rollbackTransaction();
+
+		manager.initTransaction(true);
+		try {
+			addCustomerResult(1);
+			Customer second = (Customer) manager.selectSingleEntity(customer(1));
+
+			assertNotSame(first, second);
+			assertEquals(2, TestDataSource.getStatements().size());
+		} finally {
+			manager.commitTransaction();
+		}
+	}
+
+	@Test
+	public void findByIdSelectsAgainWithoutIdentityMap() {
+		manager.initTransaction(false);
+		try {
+			addCustomerResult(1);
+			Customer first = (Customer) manager.selectSingleEntity(customer(1));
+			addCustomerResult(1);
+			Customer second = (Customer) manager.selectSingleEntity(customer(1));
+
+			assertNotSame(first, second);
+			assertEquals(2, TestDataSource.getStatements().size());
+		} finally {
+			manager.commitTransaction();
+		}
+	}
+
+}
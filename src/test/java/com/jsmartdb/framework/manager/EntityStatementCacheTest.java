@@ -0,0 +1,120 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class EntityStatementCacheTest {
+
+	private Set<Object> closed;
+
+	@Before
+	public void setUp() {
+		closed = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+	}
+
+	private PreparedStatement statement() {
+		return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("close")) {
+					closed.add(proxy);
+				} else if (method.getName().equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				} else if (method.getName().equals("equals")) {
+					return proxy == args[0];
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void leastRecentlyUsedStatementIsClosed() {
+		EntityStatementCache cache = new EntityStatementCache(2);
+		PreparedStatement one = statement();
+		PreparedStatement two = statement();
+		PreparedStatement three = statement();
+
+		cache.put("one", one);
+		assertFalse(cache.release(one));
+		cache.put("two", two);
+		assertFalse(cache.release(two));
+
+		assertSame(one, cache.get("one"));
+		assertFalse(cache.release(one));
+
+		cache.put("three", three);
+		assertFalse(cache.release(three));
+
+		assertTrue(closed.contains(two));
+		assertFalse(closed.contains(one));
+		assertFalse(closed.contains(three));
+		assertNull(cache.get("two"));
+	}
+
+	@Test
+	public void statementEvictedInUseIsClosedOnRelease() {
+		EntityStatementCache cache = new EntityStatementCache(1);
+		PreparedStatement one = statement();
+		PreparedStatement two = statement();
+
+		cache.put("one", one);
+		cache.put("two", two);
+
+		assertFalse(closed.contains(one));
+		assertNull(cache.get("one"));
+
+		assertTrue(cache.release(one));
+		assertFalse(cache.release(two));
+		assertFalse(closed.contains(two));
+	}
+
+	@Test
+	public void closeClosesCachedStatements() {
+		EntityStatementCache cache = new EntityStatementCache(2);
+		PreparedStatement one = statement();
+		PreparedStatement two = statement();
+
+		cache.put("one", one);
+		cache.put("two", two);
+		cache.release(one);
+		cache.close();
+
+		assertTrue(closed.contains(one));
+		assertTrue(closed.contains(two));
+		assertNull(cache.get("one"));
+	}
+
+}
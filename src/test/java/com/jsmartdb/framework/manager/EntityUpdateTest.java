@@ -0,0 +1,197 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.Table;
+
+public class EntityUpdateTest {
+
+	@Table(name = "item")
+	public static class Item extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "name", length = 20)
+		private String name;
+
+		@Column(name = "qty")
+		private Integer qty;
+	}
+
+	@Table(name = "line")
+	public static class Line extends Entity {
+
+		@Id(name = "order_id")
+		private Integer orderId;
+
+		@Id(name = "line_no")
+		private Integer lineNo;
+	}
+
+	private static Item item(Integer id, String name, Integer qty) {
+		Item item = new Item();
+		item.id = id;
+		item.name = name;
+		item.qty = qty;
+		return item;
+	}
+
+	private static Line line(Integer orderId, Integer lineNo) {
+		Line line = new Line();
+		line.orderId = orderId;
+		line.lineNo = lineNo;
+		return line;
+	}
+
+	private EntityManager manager;
+
+	@Before
+	public void setUp() {
+		manager = EntityManagerFactory.getNewInstance();
+		TestDataSource.clear();
+	}
+
+	@Test
+	public void batchDeletesAreGroupedByFilledColumns() {
+		manager.deleteBatchEntity(Arrays.asList(item(1, null, null), item(null, "x", null), item(2, null, null), item(null, "y", 3)));
+
+		assertEquals(Arrays.asList("delete from item where id= ?", "delete from item where id= ?", 
+				"delete from item where name= ?", "delete from item where name= ? and qty= ?"), TestDataSource.getStatements());
+		assertEquals(Arrays.asList(Arrays.<Object>asList(1), Arrays.<Object>asList(2), 
+				Arrays.<Object>asList("x"), Arrays.<Object>asList("y", 3)), TestDataSource.getValues());
+	}
+
+	@Test
+	public void deleteStatementFiltersByFilledColumns() {
+		manager.deleteEntity(item(null, "x", 5));
+
+		assertEquals(Arrays.asList("delete from item where name= ? and qty= ?"), TestDataSource.getStatements());
+		assertEquals(Arrays.asList(Arrays.<Object>asList("x", 5)), TestDataSource.getValues());
+	}
+
+	@Test
+	public void keyDeletesAreChunkedIntoInLists() {
+		Integer deleteInSize = ConnectionFactory.DELETE_IN_SIZE;
+		ConnectionFactory.DELETE_IN_SIZE = 2;
+		try {
+			manager.deleteBatchEntity(Arrays.asList(item(1, null, null), item(2, null, null), item(3, null, null), 
+					item(4, null, null), item(5, null, null), item(null, "x", null)));
+		} finally {
+			ConnectionFactory.DELETE_IN_SIZE = deleteInSize;
+		}
+
+		assertEquals(Arrays.asList("delete from item where id in (?,?)", "delete from item where id in (?,?)", 
+				"delete from item where id in (?)", "delete from item where name= ?"), TestDataSource.getStatements());
+		assertEquals(Arrays.asList(Arrays.<Object>asList(1, 2), Arrays.<Object>asList(3, 4), 
+				Arrays.<Object>asList(5), Arrays.<Object>asList("x")), TestDataSource.getValues());
+	}
+
+	@Test
+	public void compositeKeyDeletesUseRowValueLists() {
+		Integer deleteInSize = ConnectionFactory.DELETE_IN_SIZE;
+		ConnectionFactory.DELETE_IN_SIZE = 2;
+		try {
+			manager.deleteBatchEntity(Arrays.asList(line(1, 1), line(1, 2), line(2, 1)));
+		} finally {
+			ConnectionFactory.DELETE_IN_SIZE = deleteInSize;
+		}
+
+		assertEquals(Arrays.asList("delete from line where (order_id,line_no) in ((?,?),(?,?))", 
+				"delete from line where (order_id,line_no) in ((?,?))"), TestDataSource.getStatements());
+		assertEquals(Arrays.asList(Arrays.<Object>asList(1, 1, 1, 2), Arrays.<Object>asList(2, 1)), TestDataSource.getValues());
+	}
+
+	@Test
+	public void upsertRendersMySqlDuplicateKeyUpdate() {
+		assertEquals("insert into item (id,name,qty) values (?,?,?) on duplicate key update name=values(name),qty=values(qty)", 
+				EntityUpdate.buildUpsert(EntityMetadata.getMetadata(Item.class), "MySQL"));
+		assertEquals("insert into line (order_id,line_no) values (?,?) on duplicate key update order_id=order_id", 
+				EntityUpdate.buildUpsert(EntityMetadata.getMetadata(Line.class), "MySQL"));
+	}
+
+	@Test
+	public void upsertRendersPostgreSqlOnConflict() {
+		assertEquals("insert into item (id,name,qty) values (?,?,?) on conflict (id) do update set name=excluded.name,qty=excluded.qty", 
+				EntityUpdate.buildUpsert(EntityMetadata.getMetadata(Item.class), "PostgreSQL"));
+		assertEquals("insert into line (order_id,line_no) values (?,?) on conflict (order_id,line_no) do nothing", 
+				EntityUpdate.buildUpsert(EntityMetadata.getMetadata(Line.class), "PostgreSQL"));
+	}
+
+	@Test
+	public void upsertOfOtherDialectsIsRejected() {
+		try {
+			EntityUpdate.buildUpsert(EntityMetadata.getMetadata(Item.class), "Oracle");
+			fail("Upsert should be rejected");
+		} catch (RuntimeException ex) {
+			assertTrue(ex.getMessage().startsWith("Upsert is supported"));
+		}
+	}
+
+	@Test
+	public void upsertBindsEveryInsertColumn() {
+		manager.upsertEntity(item(1, "x", 2));
+
+		assertEquals(Arrays.asList("insert into item (id,name,qty) values (?,?,?) on duplicate key update name=values(name),qty=values(qty)"), 
+				TestDataSource.getStatements());
+		assertEquals(Arrays.asList(Arrays.<Object>asList(1, "x", 2)), TestDataSource.getValues());
+	}
+
+	@Test
+	public void updateWritesChangedColumnsOnly() {
+		Item item = item(1, "x", 2);
+		manager.insertEntity(item);
+
+		item.qty = 3;
+		TestDataSource.clear();
+		manager.updateEntity(item);
+
+		assertEquals(Arrays.asList("update item set qty= ? where id= ?"), TestDataSource.getStatements());
+		assertEquals(Arrays.asList(Arrays.<Object>asList(3, 1)), TestDataSource.getValues());
+	}
+
+	@Test
+	public void rolledBackUpdateIsWrittenAgain() {
+		Item item = item(1, "x", 2);
+		manager.insertEntity(item);
+
+		item.name = "y";
+		manager.initTransaction();
+		manager.updateEntity(item);
+		manager.rollbackTransaction();
+
+		TestDataSource.clear();
+		manager.updateEntity(item);
+
+		assertEquals(Arrays.asList("update item set name= ? where id= ?"), TestDataSource.getStatements());
+		assertEquals(Arrays.asList(Arrays.<Object>asList("y", 1)), TestDataSource.getValues());
+	}
+
+}
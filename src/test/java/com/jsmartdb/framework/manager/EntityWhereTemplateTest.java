@@ -0,0 +1,104 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsmartdb.framework.annotation.Column;
+import com.jsmartdb.framework.annotation.Id;
+import com.jsmartdb.framework.annotation.QueryFilter;
+import com.jsmartdb.framework.annotation.QueryFilters;
+import com.jsmartdb.framework.annotation.Table;
+
+public class EntityWhereTemplateTest {
+
+	@Table(name = "person")
+	@QueryFilters(filters = {
+		@QueryFilter(name = "byNames", where = "name = :name or nickname = :nameAlt and age > :age and age < :age"),
+		@QueryFilter(name = "byLowerName", where = "lower(name) = :name")
+	})
+	public static class Person extends Entity {
+
+		@Id(name = "id")
+		private Integer id;
+
+		@Column(name = "name")
+		private String name;
+
+		@Column(name = "nickname")
+		private String nickname;
+
+		@Column(name = "age")
+		private Integer age;
+	}
+
+	private EntityManager manager;
+
+	@Before
+	public void setUp() {
+		manager = EntityManagerFactory.getNewInstance();
+		TestDataSource.clear();
+	}
+
+	private List<Object> selectByNames(String name, String nameAlt, int age) {
+		manager.selectEntity(new QueryParam(Person.class, "byNames").put(":name", name).put(":nameAlt", nameAlt).put(":age", age));
+		return TestDataSource.getValues().get(TestDataSource.getValues().size() - 1);
+	}
+
+	private String lastStatement() {
+		return TestDataSource.getStatements().get(TestDataSource.getStatements().size() - 1);
+	}
+
+	@Test
+	public void parametersAreBoundInPositionalOrder() {
+		List<Object> values = selectByNames("ann", "annie", 18);
+
+		assertEquals(Arrays.<Object>asList("ann", "annie", 18, 18), values);
+		assertFalse(lastStatement().contains(":"));
+		assertTrue(lastStatement().matches(".* where person\\d+_\\.name = +\\? +or person\\d+_\\.nickname = +\\? +and person\\d+_\\.age > +\\? +and person\\d+_\\.age < +\\? .*"));
+	}
+
+	@Test
+	public void reusedTemplateBindsNewValues() {
+		selectByNames("ann", "annie", 18);
+		String sql = lastStatement();
+
+		List<Object> values = selectByNames("bob", "bobby", 30);
+
+		assertEquals(sql, lastStatement());
+		assertEquals(Arrays.<Object>asList("bob", "bobby", 30, 30), values);
+	}
+
+	@Test
+	public void columnsInsideFunctionsAreResolved() {
+		manager.selectEntity(new QueryParam(Person.class, "byLowerName").put(":name", "ann"));
+
+		assertTrue(lastStatement().matches(".* where lower\\(person\\d+_\\.name\\) = +\\? .*"));
+		assertEquals(Arrays.<Object>asList("ann"), TestDataSource.getValues().get(TestDataSource.getValues().size() - 1));
+	}
+
+}
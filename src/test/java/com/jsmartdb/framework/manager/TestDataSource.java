@@ -0,0 +1,495 @@
+/*
+ * JSmartDB - Java ORM Framework
+ * Copyright (c) 2014, Jeferson Albino da Silva, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.jsmartdb.framework.manager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.spi.InitialContextFactory;
+import javax.sql.DataSource;
+
+// Initial context of the tests binding a data source without database, executed statements are recorded with their values.
+// Queries answer the queued rows, keyed by the select column labels and sorted by the order by of the statement.
+public class TestDataSource implements InitialContextFactory {
+
+	private static final List<String> STATEMENTS = Collections.synchronizedList(new ArrayList<String>());
+
+	private static final List<List<Object>> VALUES = Collections.synchronizedList(new ArrayList<List<Object>>());
+
+	private static final Deque<List<Map<String, Object>>> RESULTS = new LinkedList<List<Map<String, Object>>>();
+
+	private static final AtomicReference<Runnable> QUERY_HOOK = new AtomicReference<Runnable>();
+
+	private static final AtomicLong GENERATED_KEYS = new AtomicLong();
+
+	private static final ThreadLocal<Deque<List<Map<String, Object>>>> THREAD_RESULTS = new ThreadLocal<Deque<List<Map<String, Object>>>>();
+
+	private static final ThreadLocal<List<List<Object>>> THREAD_VALUES = new ThreadLocal<List<List<Object>>>();
+
+	private static final AtomicInteger FOREIGN_STATEMENTS = new AtomicInteger();
+
+	private static final AtomicInteger OPEN_CONNECTIONS = new AtomicInteger();
+
+	private static final AtomicInteger MAX_OPEN_CONNECTIONS = new AtomicInteger();
+
+	private static final AtomicInteger COMMITS = new AtomicInteger();
+
+	private static final AtomicInteger ROLLBACKS = new AtomicInteger();
+
+	private static volatile boolean failConnectionSetup;
+
+	/*package*/ static void clear() {
+		STATEMENTS.clear();
+		VALUES.clear();
+		synchronized (RESULTS) {
+			RESULTS.clear();
+		}
+		QUERY_HOOK.set(null);
+		GENERATED_KEYS.set(0);
+		THREAD_RESULTS.remove();
+		THREAD_VALUES.remove();
+		FOREIGN_STATEMENTS.set(0);
+		OPEN_CONNECTIONS.set(0);
+		MAX_OPEN_CONNECTIONS.set(0);
+		COMMITS.set(0);
+		ROLLBACKS.set(0);
+		failConnectionSetup = false;
+	}
+
+	// Connections got from now on fail to disable their auto commit
+	/*package*/ static void failConnectionSetup(final boolean fail) {
+		failConnectionSetup = fail;
+	}
+
+	// Connections got and not closed yet
+	/*package*/ static int getOpenConnections() {
+		return OPEN_CONNECTIONS.get();
+	}
+
+	/*package*/ static int getMaxOpenConnections() {
+		return MAX_OPEN_CONNECTIONS.get();
+	}
+
+	/*package*/ static int getCommits() {
+		return COMMITS.get();
+	}
+
+	/*package*/ static int getRollbacks() {
+		return ROLLBACKS.get();
+	}
+
+	// Runs once inside the next query, after it was executed and before its rows are read
+	/*package*/ static void onNextQuery(final Runnable hook) {
+		QUERY_HOOK.set(hook);
+	}
+
+	// Rows answered by the next query without queued rows of its own
+	@SafeVarargs
+	/*package*/ static void addResult(final Map<String, Object> ... rows) {
+		synchronized (RESULTS) {
+			RESULTS.add(Arrays.asList(rows));
+		}
+	}
+
+	// Rows answered by the next query of the calling thread, before the rows queued for all threads
+	@SafeVarargs
+	/*package*/ static void addThreadResult(final Map<String, Object> ... rows) {
+		Deque<List<Map<String, Object>>> results = THREAD_RESULTS.get();
+		if (results == null) {
+			results = new LinkedList<List<Map<String, Object>>>();
+			THREAD_RESULTS.set(results);
+		}
+		results.add(Arrays.asList(rows));
+	}
+
+	/*package*/ static Map<String, Object> row(final Object ... labelValues) {
+		Map<String, Object> row = new HashMap<String, Object>();
+		for (int i = 0; i < labelValues.length; i += 2) {
+			row.put((String) labelValues[i], labelValues[i + 1]);
+		}
+		return row;
+	}
+
+	/*package*/ static List<String> getStatements() {
+		return STATEMENTS;
+	}
+
+	/*package*/ static List<List<Object>> getValues() {
+		return VALUES;
+	}
+
+	// Values of the statements executed by the calling thread
+	/*package*/ static List<List<Object>> getThreadValues() {
+		List<List<Object>> values = THREAD_VALUES.get();
+		return values != null ? values : Collections.<List<Object>>emptyList();
+	}
+
+	// Statements executed by a thread other than the one which got their connection
+	/*package*/ static int getForeignStatements() {
+		return FOREIGN_STATEMENTS.get();
+	}
+
+	@Override
+	public Context getInitialContext(Hashtable<?, ?> environment) {
+		return proxy(Context.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("lookup")) {
+					if (String.valueOf(args[0]).startsWith("java:")) {
+						throw new NameNotFoundException(String.valueOf(args[0]));
+					}
+					return getDataSource();
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+
+	private static DataSource getDataSource() {
+		return proxy(DataSource.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getConnection")) {
+					return getConnection();
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+
+	private static Connection getConnection() {
+		final Thread owner = Thread.currentThread();
+
+		int open = OPEN_CONNECTIONS.incrementAndGet();
+		int max = MAX_OPEN_CONNECTIONS.get();
+		while (open > max && !MAX_OPEN_CONNECTIONS.compareAndSet(max, open)) {
+			max = MAX_OPEN_CONNECTIONS.get();
+		}
+
+		return proxy(Connection.class, new InvocationHandler() {
+
+			private boolean closed;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("close")) {
+					if (!closed) {
+						closed = true;
+						OPEN_CONNECTIONS.decrementAndGet();
+					}
+					return null;
+				}
+				if (method.getName().equals("commit")) {
+					COMMITS.incrementAndGet();
+					return null;
+				}
+				if (method.getName().equals("rollback")) {
+					ROLLBACKS.incrementAndGet();
+					return null;
+				}
+				if (method.getName().equals("setAutoCommit") && failConnectionSetup) {
+					throw new SQLException("Auto commit cannot be disabled");
+				}
+				if (method.getName().equals("prepareStatement")) {
+					return getStatement(owner, (String) args[0], args.length > 1 && args[1] instanceof Integer 
+							&& (Integer) args[1] == Statement.RETURN_GENERATED_KEYS);
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+
+	private static PreparedStatement getStatement(final Thread owner, final String sql, final boolean generatedKeys) {
+		final Map<Integer, Object> values = new TreeMap<Integer, Object>();
+
+		// Inserts returning generated keys generate one key per row in sequence, rows of multi row inserts included
+		final int insertRows = generatedKeys && sql.startsWith("insert ") ? sql.split("\\),\\(").length : 0;
+		final List<Map<String, Object>> keys = new ArrayList<Map<String, Object>>();
+		final int[] batchRows = new int[1];
+
+		return proxy(PreparedStatement.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+
+				if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+					values.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+					return null;
+				}
+
+				if (name.equals("executeQuery") || name.equals("executeUpdate") || name.equals("addBatch")) {
+					STATEMENTS.add(sql);
+					VALUES.add(new ArrayList<Object>(values.values()));
+
+					List<List<Object>> threadValues = THREAD_VALUES.get();
+					if (threadValues == null) {
+						threadValues = new ArrayList<List<Object>>();
+						THREAD_VALUES.set(threadValues);
+					}
+					threadValues.add(new ArrayList<Object>(values.values()));
+					values.clear();
+
+					if (Thread.currentThread() != owner) {
+						FOREIGN_STATEMENTS.incrementAndGet();
+					}
+				}
+
+				if (name.equals("addBatch")) {
+					batchRows[0] += insertRows;
+				}
+				if (name.equals("executeUpdate") || name.equals("executeBatch")) {
+					keys.clear();
+					for (int i = name.equals("executeUpdate") ? insertRows : batchRows[0]; i > 0; i--) {
+						keys.add(row("generated_key", GENERATED_KEYS.incrementAndGet()));
+					}
+					batchRows[0] = 0;
+				}
+
+				if (name.equals("executeQuery")) {
+					Runnable hook = QUERY_HOOK.getAndSet(null);
+					if (hook != null) {
+						hook.run();
+					}
+
+					Deque<List<Map<String, Object>>> threadResults = THREAD_RESULTS.get();
+					List<Map<String, Object>> rows = threadResults != null ? threadResults.poll() : null;
+					if (rows == null) {
+						synchronized (RESULTS) {
+							rows = RESULTS.poll();
+						}
+					}
+					return getResultSet(getLabels(sql), rows != null ? sort(sql, rows) : Collections.<Map<String, Object>>emptyList());
+				}
+				if (name.equals("getGeneratedKeys")) {
+					return getResultSet(Arrays.asList("generated_key"), new ArrayList<Map<String, Object>>(keys));
+				}
+				if (name.equals("executeUpdate")) {
+					return 1;
+				}
+				if (name.equals("executeBatch")) {
+					return new int[0];
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+
+	private static ResultSet getResultSet(final List<String> labels, final List<Map<String, Object>> rows) {
+		return proxy(ResultSet.class, new InvocationHandler() {
+
+			private int row = -1;
+
+			private boolean wasNull;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+
+				if (name.equals("next")) {
+					return ++row < rows.size();
+				}
+				if (name.equals("wasNull")) {
+					return wasNull;
+				}
+				if (name.equals("getMetaData")) {
+					return proxy(ResultSetMetaData.class, new InvocationHandler() {
+
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							if (method.getName().equals("getColumnCount")) {
+								return labels.size();
+							}
+							if (method.getName().equals("getColumnLabel") || method.getName().equals("getColumnName")) {
+								return labels.get((Integer) args[0] - 1);
+							}
+							return defaultValue(proxy, method, args);
+						}
+					});
+				}
+
+				if (name.startsWith("get") && args != null && args.length >= 1 && row >= 0 && row < rows.size()) {
+					String label = args[0] instanceof Integer ? labels.get((Integer) args[0] - 1) : ((String) args[0]).toLowerCase();
+					Object value = rows.get(row).get(label);
+					wasNull = value == null;
+					return convert(value, method.getReturnType());
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+
+	private static Object convert(final Object value, final Class<?> type) {
+		if (type == int.class) {
+			return value == null ? 0 : ((Number) value).intValue();
+		}
+		if (type == long.class) {
+			return value == null ? 0L : ((Number) value).longValue();
+		}
+		if (type == double.class) {
+			return value == null ? 0d : ((Number) value).doubleValue();
+		}
+		if (type == float.class) {
+			return value == null ? 0f : ((Number) value).floatValue();
+		}
+		if (type == short.class) {
+			return value == null ? (short) 0 : ((Number) value).shortValue();
+		}
+		if (type == byte.class) {
+			return value == null ? (byte) 0 : ((Number) value).byteValue();
+		}
+		if (type == boolean.class) {
+			return value != null && (Boolean) value;
+		}
+		if (type == String.class) {
+			return value == null ? null : value.toString();
+		}
+		return value;
+	}
+
+	// Stable sort on the columns of the outer order by, whose labels are the alias followed by the column name
+	private static List<Map<String, Object>> sort(final String sql, final List<Map<String, Object>> rows) {
+		String lower = sql.toLowerCase();
+		int orderBy = lower.lastIndexOf(" order by ");
+		if (orderBy < 0 || lower.indexOf(')', orderBy) >= 0) {
+			return rows;
+		}
+
+		final List<String> labels = new ArrayList<String>();
+		final List<Boolean> descending = new ArrayList<Boolean>();
+		for (String term : lower.substring(orderBy + " order by ".length()).split(",")) {
+			String[] parts = term.trim().split("\\s+");
+			labels.add(parts[0].replace(".", ""));
+			descending.add(parts.length > 1 && parts[1].equals("desc"));
+		}
+
+		List<Map<String, Object>> sorted = new ArrayList<Map<String, Object>>(rows);
+		Collections.sort(sorted, new Comparator<Map<String, Object>>() {
+
+			@Override
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			public int compare(Map<String, Object> one, Map<String, Object> two) {
+				for (int i = 0; i < labels.size(); i++) {
+					Comparable valueOne = (Comparable) one.get(labels.get(i));
+					Comparable valueTwo = (Comparable) two.get(labels.get(i));
+
+					int result = valueOne == null ? (valueTwo == null ? 0 : -1) : (valueTwo == null ? 1 : valueOne.compareTo(valueTwo));
+					if (result != 0) {
+						return descending.get(i) ? -result : result;
+					}
+				}
+				return 0;
+			}
+		});
+		return sorted;
+	}
+
+	// Labels of the select list, the alias after "as" or the column name
+	private static List<String> getLabels(final String sql) {
+		List<String> labels = new ArrayList<String>();
+
+		String lower = sql.toLowerCase();
+		int start = lower.startsWith("select distinct ") ? "select distinct ".length() : "select ".length();
+
+		int depth = 0;
+		int from = start;
+		for (; from < lower.length(); from++) {
+			char c = lower.charAt(from);
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (depth == 0 && lower.startsWith(" from ", from)) {
+				break;
+			}
+		}
+
+		depth = 0;
+		int begin = start;
+		for (int i = start; i <= from; i++) {
+			char c = i < from ? lower.charAt(i) : ',';
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == ',' && depth == 0) {
+				String column = lower.substring(begin, i).trim();
+				int alias = column.lastIndexOf(" as ");
+				labels.add(alias >= 0 ? column.substring(alias + 4).trim() : column.substring(column.lastIndexOf('.') + 1));
+				begin = i + 1;
+			}
+		}
+		return labels;
+	}
+
+	private static Object defaultValue(Object proxy, Method method, Object[] args) {
+		if (method.getName().equals("equals")) {
+			return proxy == args[0];
+		}
+		if (method.getName().equals("hashCode")) {
+			return System.identityHashCode(proxy);
+		}
+		if (method.getName().equals("toString")) {
+			return method.getDeclaringClass().getSimpleName();
+		}
+
+		Class<?> type = method.getReturnType();
+		if (type == boolean.class) {
+			return false;
+		}
+		if (type == int.class) {
+			return 0;
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(TestDataSource.class.getClassLoader(), new Class<?>[] {type}, handler);
+	}
+
+}